@@ -0,0 +1,110 @@
+package net.papierkorb2292.command_expander.variables.immediate;
+
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.context.StringRange;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.Bootstrap;
+import net.minecraft.SharedConstants;
+import net.minecraft.server.command.CommandOutput;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
+import net.minecraft.util.math.Vec2f;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.PersistentStateManager;
+import net.papierkorb2292.command_expander.variables.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * <p>The stubs the benchmarks evaluate immediate values with, because there is no server.</p>
+ * <p>
+ *     The command source doesn't have a server, so immediate values have to be calculated with
+ *     {@link InstructionListImmediateValue#calculate(CommandContext, VariableManager, Consumer)}, using the variable manager created here.
+ *     It is backed by a persistent state manager in a temporary directory, but nothing is ever saved.
+ * </p>
+ * The variables are in the namespace "bench":
+ * <ul>
+ *     <li>x: double 1.5</li>
+ *     <li>y: int 7</li>
+ *     <li>i: int 500</li>
+ *     <li>list: list&lt;int&gt; containing 0 to {@link #LIST_SIZE} - 1</li>
+ *     <li>map: map&lt;string, int&gt; containing "key" -&gt; 42</li>
+ *     <li>maps: map&lt;map&lt;string, int&gt;, int&gt; containing {"id" -&gt; n} -&gt; n for n from 0 to {@link #MAP_SIZE} - 1</li>
+ *     <li>key: map&lt;string, int&gt; containing "id" -&gt; 500</li>
+ * </ul>
+ */
+final class BenchmarkEnvironment {
+
+    private BenchmarkEnvironment() { } //Prevent instantiations
+
+    static final int LIST_SIZE = 10000;
+    static final int MAP_SIZE = 1000;
+
+    static final CommandContext<ServerCommandSource> COMMAND_CONTEXT;
+    static final VariableManager VARIABLE_MANAGER;
+    /**
+     * Errors are expected to not occur in the benchmarks, so they are thrown to make the benchmark fail
+     */
+    static final Consumer<Text> ERROR_CONSUMER = error -> {
+        throw new IllegalStateException("Error calculating benchmarked immediate value: " + error.getString());
+    };
+
+    static {
+        SharedConstants.createGameVersion();
+        Bootstrap.initialize();
+        ServerCommandSource source = new ServerCommandSource(CommandOutput.DUMMY, Vec3d.ZERO, Vec2f.ZERO, null, 4, "benchmark", Text.literal("benchmark"), null, null);
+        COMMAND_CONTEXT = new CommandContext<>(source, "", Map.of(), null, null, List.of(), StringRange.at(0), null, null, false);
+        try {
+            // No data is loaded, so the data fixer isn't needed. The mixins aren't applied, so the directory is passed to the variable manager
+            File directory = Files.createTempDirectory("command_expander_benchmark").toFile();
+            VARIABLE_MANAGER = new VariableManager(new PersistentStateManager(directory, null), directory, null, () -> false);
+            addVariables();
+        } catch (IOException | CommandSyntaxException e) {
+            throw new IllegalStateException("Unable to create benchmark variables", e);
+        }
+    }
+
+    private static void addVariables() throws CommandSyntaxException {
+        addVariable("x", DoubleVariable.DoubleVariableType.INSTANCE, new DoubleVariable(1.5));
+        addVariable("y", IntVariable.IntVariableType.INSTANCE, new IntVariable(7));
+        addVariable("i", IntVariable.IntVariableType.INSTANCE, new IntVariable(500));
+
+        ListVariable.ListVariableType listType = new ListVariable.ListVariableType(IntVariable.IntVariableType.INSTANCE);
+        ListVariable list = new ListVariable(listType);
+        list.ensureIndexExists(new IntVariable(LIST_SIZE - 1));
+        for(int i = 0; i < LIST_SIZE; ++i) {
+            list.set(new IntVariable(i), new IntVariable(i));
+        }
+        addVariable("list", listType, list);
+
+        MapVariable.MapVariableType stringIntMapType = new MapVariable.MapVariableType(StringVariable.StringVariableType.INSTANCE, IntVariable.IntVariableType.INSTANCE);
+        MapVariable map = new MapVariable(stringIntMapType);
+        map.set(new StringVariable("key"), new IntVariable(42));
+        addVariable("map", stringIntMapType, map);
+
+        MapVariable.MapVariableType mapsType = new MapVariable.MapVariableType(stringIntMapType, IntVariable.IntVariableType.INSTANCE);
+        MapVariable maps = new MapVariable(mapsType);
+        for(int i = 0; i < MAP_SIZE; ++i) {
+            maps.set(createIdMap(stringIntMapType, i), new IntVariable(i));
+        }
+        addVariable("maps", mapsType, maps);
+        addVariable("key", stringIntMapType, createIdMap(stringIntMapType, 500));
+    }
+
+    private static MapVariable createIdMap(MapVariable.MapVariableType type, int id) {
+        MapVariable map = new MapVariable(type);
+        map.set(new StringVariable("id"), new IntVariable(id));
+        return map;
+    }
+
+    private static void addVariable(String name, Variable.VariableType type, Variable value) throws CommandSyntaxException {
+        VariableIdentifier id = new VariableIdentifier("bench", name);
+        VARIABLE_MANAGER.add(id, type);
+        VARIABLE_MANAGER.get(id).var = value;
+    }
+}
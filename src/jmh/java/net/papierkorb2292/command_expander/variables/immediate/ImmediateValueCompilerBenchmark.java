@@ -0,0 +1,42 @@
+package net.papierkorb2292.command_expander.variables.immediate;
+
+import com.mojang.brigadier.StringReader;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks compiling immediate values, both with the cache of {@link ImmediateValueCompiler} and without it
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ImmediateValueCompilerBenchmark {
+
+    @Param({
+            "bench:x * 2 + bench:y / 3 - 1",
+            "sin(bench:x) * cos(bench:x) + sqrt(bench:y) - atan2(bench:x, bench:y)",
+            "bench:list[bench:i] + bench:map[\"key\"]",
+            "bench:maps[bench:key?]",
+            "collect(bench:list[] * 2 + 1)",
+            "{ 1, 2, 3, bench:y }"
+    })
+    public String source;
+
+    @Setup
+    public void setup() {
+        // Initializes Minecraft before the first compilation is measured
+        BenchmarkEnvironment.COMMAND_CONTEXT.getSource();
+    }
+
+    @Benchmark
+    public ImmediateValue compileCached() throws CommandSyntaxException {
+        return ImmediateValueCompiler.compile(new StringReader(source));
+    }
+
+    @Benchmark
+    public ImmediateValue compileUncached() throws CommandSyntaxException {
+        return ImmediateValueCompiler.compileUncached(new StringReader(source));
+    }
+}
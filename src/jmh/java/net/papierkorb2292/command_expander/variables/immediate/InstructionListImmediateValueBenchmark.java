@@ -0,0 +1,60 @@
+package net.papierkorb2292.command_expander.variables.immediate;
+
+import com.mojang.brigadier.StringReader;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.datafixers.util.Either;
+import net.papierkorb2292.command_expander.variables.Variable;
+import net.papierkorb2292.command_expander.variables.VariableHolder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * <p>Benchmarks calculating compiled immediate values with the stubs of {@link BenchmarkEnvironment}.</p>
+ * <p>
+ *     Every expression loads a variable, so it isn't optimized to a {@link ConstantImmediateValue}. The warmup iterations
+ *     evaluate the immediate values more than {@link InstructionListImmediateValue#TIER_UP_THRESHOLD} times, so the expression tree
+ *     is measured for the expressions supporting it. Streams in the result are consumed completely.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InstructionListImmediateValueBenchmark {
+
+    @Param({
+            // Scalar arithmetic
+            "bench:x * 2 + bench:y / 3 - 1",
+            "(bench:y + 1) * (bench:y + 1) - bench:x",
+            // Trig functions
+            "sin(bench:x) * cos(bench:x) + sqrt(bench:y) - atan2(bench:x, bench:y)",
+            // List and map indexing
+            "bench:list[bench:i] + bench:map[\"key\"]",
+            "bench:maps[bench:key?]",
+            // Stream operators
+            "bench:list[] * 2 + 1",
+            "collect(bench:list[] * 2 + 1)",
+            "collect(sin(0 :: bench:i))"
+    })
+    public String source;
+
+    private InstructionListImmediateValue value;
+
+    @Setup
+    public void setup() throws CommandSyntaxException {
+        ImmediateValue compiled = ImmediateValueCompiler.compile(new StringReader(source));
+        if(!(compiled instanceof InstructionListImmediateValue instructionList)) {
+            throw new IllegalStateException("Benchmarked immediate value '" + source + "' was optimized to " + compiled.getClass().getSimpleName());
+        }
+        value = instructionList;
+    }
+
+    @Benchmark
+    public void calculate(Blackhole blackhole) throws CommandSyntaxException {
+        Either<VariableHolder, Stream<Variable>> result = value.calculate(BenchmarkEnvironment.COMMAND_CONTEXT, BenchmarkEnvironment.VARIABLE_MANAGER, BenchmarkEnvironment.ERROR_CONSUMER);
+        result.ifLeft(holder -> blackhole.consume(holder.variable))
+                .ifRight(stream -> stream.forEach(blackhole::consume));
+    }
+}
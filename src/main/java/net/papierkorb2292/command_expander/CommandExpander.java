@@ -30,6 +30,25 @@ public class CommandExpander implements ModInitializer {
 							.styled(style -> style.withColor(Formatting.AQUA))));
 
 	public static final String VARIABLE_FEATURE = "Variables";
+	/**
+	 * Large columns of numbers in immediate values are calculated on the common fork-join pool (see {@link net.papierkorb2292.command_expander.variables.immediate.NumberColumn})
+	 */
+	public static final String PARALLEL_EVALUATION_FEATURE = "ParallelEvaluation";
+	/**
+	 * Variable namespaces are saved in the binary format of {@link net.papierkorb2292.command_expander.variables.BinaryNamespaceFile} instead of NBT.
+	 * Existing namespaces are converted when they are saved the next time
+	 */
+	public static final String BINARY_VARIABLE_STORAGE_FEATURE = "BinaryVariableStorage";
+	/**
+	 * Changes of variables are appended to a journal at the end of every tick, so they are restored if the server crashes before the next autosave
+	 * (see {@link net.papierkorb2292.command_expander.variables.VariableJournal})
+	 */
+	public static final String VARIABLE_JOURNAL_FEATURE = "VariableJournal";
+	/**
+	 * The maximum amount of variables kept in memory. The least recently used variables and namespaces without loaded variables are unloaded
+	 * at the end of a tick when there are more (see {@link VariableManager#unloadVariables}). 0 means that variables are never unloaded
+	 */
+	public static final String LOADED_VARIABLE_BUDGET_SETTING = "LoadedVariableBudget";
 	public static final DynamicCommandExceptionType USED_DISABLED_FEATURE = new DynamicCommandExceptionType(feature -> Text.literal("Usage of disabled feature: " + feature));
 
 	public void onInitialize() {
@@ -42,6 +61,10 @@ public class CommandExpander implements ModInitializer {
 				server.getPlayerManager().sendCommandTree(player);
 			}
 		});
+		FEATURE_MANAGER.addFeature(PARALLEL_EVALUATION_FEATURE, false);
+		FEATURE_MANAGER.addFeature(BINARY_VARIABLE_STORAGE_FEATURE, false);
+		FEATURE_MANAGER.addFeature(VARIABLE_JOURNAL_FEATURE, false);
+		FEATURE_MANAGER.addSetting(LOADED_VARIABLE_BUDGET_SETTING, 0, 0);
 
 		LOGGER.info("Loaded Command Expander");
 	}
@@ -62,6 +85,10 @@ public class CommandExpander implements ModInitializer {
 		return FEATURE_MANAGER.isEnabled(server, name);
 	}
 
+	public static int getSetting(MinecraftServer server, String name) {
+		return FEATURE_MANAGER.getSetting(server, name);
+	}
+
 	@SuppressWarnings("RedundantThrows")
 	public static <Return, Throws extends Throwable> Return callThrowingWrapOperation(Operation<Return> op, Object... args) throws Throws {
 		return op.call(args);
@@ -12,6 +12,7 @@ import java.util.function.BiConsumer;
 public class FeatureManager {
 
     private final HashMap<String, GameRules.Key<GameRules.BooleanRule>> featureGameRules = new HashMap<>();
+    private final HashMap<String, GameRules.Key<GameRules.IntRule>> settingGameRules = new HashMap<>();
     private final CustomGameRuleCategory category;
 
     public FeatureManager(CustomGameRuleCategory gameRuleCategory) {
@@ -37,6 +38,24 @@ public class FeatureManager {
         return server.getGameRules().getBoolean(rule);
     }
 
+    /**
+     * Adds a numeric gamerule configuring a feature
+     */
+    public void addSetting(String name, int defaultValue, int minimumValue) {
+        if(settingGameRules.containsKey(name)) {
+            throw new IllegalArgumentException("Setting of name '" + name + "' already exist");
+        }
+        settingGameRules.put(name, GameRuleRegistry.register("command_expander:" + name, category, GameRuleFactory.createIntRule(defaultValue, minimumValue)));
+    }
+
+    public int getSetting(MinecraftServer server, String name) {
+        GameRules.Key<GameRules.IntRule> rule = settingGameRules.get(name);
+        if(rule == null) {
+            throw new IllegalArgumentException("Setting of name '" + name + "' doesn't exist");
+        }
+        return server.getGameRules().getInt(rule);
+    }
+
     public String[] getFeatures() {
         return featureGameRules.keySet().toArray(String[]::new);
     }
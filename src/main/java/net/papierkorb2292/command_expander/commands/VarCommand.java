@@ -14,6 +14,7 @@ import com.mojang.serialization.Codec;
 import com.mojang.serialization.DataResult;
 import com.mojang.serialization.DynamicOps;
 import net.minecraft.command.CommandRegistryAccess;
+import net.minecraft.command.CommandSource;
 import net.minecraft.command.argument.BlockPosArgumentType;
 import net.minecraft.server.command.CommandManager;
 import net.minecraft.server.command.ServerCommandSource;
@@ -21,16 +22,15 @@ import net.minecraft.text.Text;
 import net.minecraft.util.Pair;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Direction;
-import net.minecraft.util.math.Vec3d;
 import net.papierkorb2292.command_expander.CommandExpander;
 import net.papierkorb2292.command_expander.variables.*;
 import net.papierkorb2292.command_expander.variables.path.VariablePath;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -128,11 +128,43 @@ public class VarCommand {
                         .then(
                                 CommandManager.literal("list").then(
                                         CommandManager.argument("namespace", VariableNamespaceArgumentType.variableNamespace())
+                                                .suggests((context, builder) -> CommandSource.suggestMatching(CommandExpander.getVariableManager(context).getNamespaces(), builder))
                                                 .executes(context -> {
-                                                    Set<String> variables = CommandExpander.getVariableManager(context).getVariables(VariableNamespaceArgumentType.getVariableNamespace(context, "namespace"));
-                                                    Text feedback = Text.literal("Found the following variables: " + variables.stream().reduce("", VarCommand::combineCommaSeparated));
+                                                    Map<String, String> variables = CommandExpander.getVariableManager(context).getVariableTypes(VariableNamespaceArgumentType.getVariableNamespace(context, "namespace"));
+                                                    Text feedback = Text.literal("Found the following variables: " + variables.entrySet().stream().map(variable -> variable.getKey() + " (" + variable.getValue() + ")").reduce("", VarCommand::combineCommaSeparated));
                                                     context.getSource().sendFeedback(feedback, false);
                                                     return variables.size();
+                                                })))
+                        .then(
+                                CommandManager.literal("preload")
+                                        .then(CommandManager.literal("add")
+                                                .then(CommandManager.argument("namespace", VariableNamespaceArgumentType.variableNamespace())
+                                                        .suggests((context, builder) -> CommandSource.suggestMatching(CommandExpander.getVariableManager(context).getNamespaces(), builder))
+                                                        .executes(context -> {
+                                                            String namespace = VariableNamespaceArgumentType.getVariableNamespace(context, "namespace");
+                                                            if(!CommandExpander.getVariableManager(context).addPreloadedNamespace(namespace)) {
+                                                                throw PRELOAD_ALREADY_DECLARED_EXCEPTION.create(namespace);
+                                                            }
+                                                            context.getSource().sendFeedback(Text.of(String.format("Namespace '%s' will be loaded when the server starts", namespace)), true);
+                                                            return 1;
+                                                        })))
+                                        .then(CommandManager.literal("remove")
+                                                .then(CommandManager.argument("namespace", VariableNamespaceArgumentType.variableNamespace())
+                                                        .suggests((context, builder) -> CommandSource.suggestMatching(CommandExpander.getVariableManager(context).getPreloadedNamespaces(), builder))
+                                                        .executes(context -> {
+                                                            String namespace = VariableNamespaceArgumentType.getVariableNamespace(context, "namespace");
+                                                            if(!CommandExpander.getVariableManager(context).removePreloadedNamespace(namespace)) {
+                                                                throw PRELOAD_NOT_DECLARED_EXCEPTION.create(namespace);
+                                                            }
+                                                            context.getSource().sendFeedback(Text.of(String.format("Namespace '%s' won't be loaded when the server starts anymore", namespace)), true);
+                                                            return 1;
+                                                        })))
+                                        .then(CommandManager.literal("list")
+                                                .executes(context -> {
+                                                    Set<String> namespaces = CommandExpander.getVariableManager(context).getPreloadedNamespaces();
+                                                    Text feedback = Text.literal("The following namespaces are loaded when the server starts: " + namespaces.stream().reduce("", VarCommand::combineCommaSeparated));
+                                                    context.getSource().sendFeedback(feedback, false);
+                                                    return namespaces.size();
                                                 }))));
     }
 
@@ -146,6 +178,8 @@ public class VarCommand {
         return left + ", " + right;
     }
 
+    private static final DynamicCommandExceptionType PRELOAD_ALREADY_DECLARED_EXCEPTION = new DynamicCommandExceptionType(namespace -> new LiteralMessage(String.format("Namespace '%s' is already loaded when the server starts", namespace)));
+    private static final DynamicCommandExceptionType PRELOAD_NOT_DECLARED_EXCEPTION = new DynamicCommandExceptionType(namespace -> new LiteralMessage(String.format("Namespace '%s' isn't loaded when the server starts", namespace)));
     private static final Text GET_FEEDBACK = Text.of("Variable has the following value: ");
     private static final List<Pair<String, Consumer<LiteralArgumentBuilder<ServerCommandSource>>>> ITERATORS;
 
@@ -171,14 +205,6 @@ public class VarCommand {
                 );
     }
 
-    private static BiFunction<Integer, Integer, PosVariable> get2DResultSupplier(Vec3d pos, Direction.Axis planeAxis) {
-        return switch(planeAxis) {
-            case X -> (y, z) -> new PosVariable(0 + pos.x, y + pos.y, z + pos.z);
-            case Y -> (x, z) -> new PosVariable(x + pos.x, 0 + pos.y, z + pos.z);
-            case Z -> (x, y) -> new PosVariable(x + pos.x, y + pos.y, 0 + pos.z);
-        };
-    }
-
     private static final DynamicCommandExceptionType NEGATIVE_ITERATOR_LENGTH_EXCEPTION = new DynamicCommandExceptionType(length -> new LiteralMessage(String.format("Invalid iterator length: %s, length can't be negative", length)));
 
     private static <T extends ArgumentBuilder<ServerCommandSource, T>> T add2DIterator(T builder, Function<IteratorData2d, IteratorVariable.Iterator> supplier) {
@@ -254,7 +280,6 @@ public class VarCommand {
     public static final class IteratorData2d {
 
         private final Direction.Axis axis;
-        private final BiFunction<Integer, Integer, PosVariable> resultSupplier;
         private final int length1;
         private final int length2;
         private final boolean hollow;
@@ -263,6 +288,11 @@ public class VarCommand {
         private int currentIndex1;
         private int currentIndex2;
 
+        /**
+         * The position returned by {@link IteratorVariable.Iterator#nextCursor}
+         */
+        private final PosVariable cursor = new PosVariable();
+
         public IteratorData2d(BlockPos pos, Direction.Axis axis, int length1, int length2, boolean hollow) {
             this(pos, axis, length1, length2, hollow, -1, 0);
         }
@@ -270,7 +300,6 @@ public class VarCommand {
         public IteratorData2d(BlockPos pos, Direction.Axis axis, int length1, int length2, boolean hollow, int currentIndex1, int currentIndex2) {
             this.pos = pos;
             this.axis = axis;
-            resultSupplier = get2DResultSupplier(new Vec3d(pos.getX(), pos.getY(), pos.getZ()), axis);
             this.length1 = length1;
             this.length2 = length2;
             this.hollow = hollow;
@@ -283,6 +312,18 @@ public class VarCommand {
             return new IteratorData2d(pos, axis, length1, length2, hollow, currentIndex1, currentIndex2);
         }
 
+        /**
+         * Stores the position at the indices in the plane into the result
+         * @return The result
+         */
+        private PosVariable getPos(int index1, int index2, PosVariable result) {
+            return switch(axis) {
+                case X -> result.setValue(pos.getX(), index1 + pos.getY(), index2 + pos.getZ());
+                case Y -> result.setValue(index1 + pos.getX(), pos.getY(), index2 + pos.getZ());
+                case Z -> result.setValue(index1 + pos.getX(), index2 + pos.getY(), pos.getZ());
+            };
+        }
+
         private static final Codec<IteratorData2d> CODEC = new Codec<>() {
             @Override
             public <T> DataResult<com.mojang.datafixers.util.Pair<IteratorData2d, T>> decode(DynamicOps<T> ops, T input) {
@@ -325,6 +366,11 @@ public class VarCommand {
         private int currentIndexY;
         private int currentIndexZ;
 
+        /**
+         * The position returned by {@link IteratorVariable.Iterator#nextCursor}
+         */
+        private final PosVariable cursor = new PosVariable();
+
         public IteratorData3d(BlockPos pos, int length1, int length2, int length3, boolean hollow) {
             this(pos, length1, length2, length3, hollow, -1, 0, 0);
         }
@@ -409,6 +455,15 @@ public class VarCommand {
 
         @Override
         public Variable next() throws CommandSyntaxException {
+            return next(new PosVariable());
+        }
+
+        @Override
+        public Variable nextCursor() throws CommandSyntaxException {
+            return next(data.cursor);
+        }
+
+        private PosVariable next(PosVariable result) {
             if(!hasNext()) {
                 throw new NoSuchElementException();
             }
@@ -432,7 +487,7 @@ public class VarCommand {
             } else {
                 data.currentIndex1 = 0;
             }
-            return data.resultSupplier.apply(data.currentIndex1, data.currentIndex2);
+            return data.getPos(data.currentIndex1, data.currentIndex2, result);
         }
 
         @Override
@@ -556,10 +611,19 @@ public class VarCommand {
 
         @Override
         public Variable next() throws CommandSyntaxException {
+            return next(new PosVariable());
+        }
+
+        @Override
+        public Variable nextCursor() throws CommandSyntaxException {
+            return next(data.cursor);
+        }
+
+        private PosVariable next(PosVariable result) {
             if(!hasNext()) {
                 throw new NoSuchElementException();
             }
-            PosVariable result = currentQuarter.getPos(data, offset1, offset2, length1Odd, length2Odd);
+            currentQuarter.getPos(data, offset1, offset2, length1Odd, length2Odd, result);
             nextQuarter();
             return result;
         }
@@ -637,26 +701,26 @@ public class VarCommand {
         private enum CurrentQuarter {
             PosPos{
                 @Override
-                public PosVariable getPos(IteratorData2d data, int offset1, int offset2, boolean length1Odd, boolean length2Odd) {
-                    return data.resultSupplier.apply(data.currentIndex1 + offset1, data.currentIndex2 + offset2);
+                public PosVariable getPos(IteratorData2d data, int offset1, int offset2, boolean length1Odd, boolean length2Odd, PosVariable result) {
+                    return data.getPos(data.currentIndex1 + offset1, data.currentIndex2 + offset2, result);
                 }
             },
             NegPos {
                 @Override
-                public PosVariable getPos(IteratorData2d data, int offset1, int offset2, boolean length1Odd, boolean length2Odd) {
-                    return data.resultSupplier.apply(-data.currentIndex1 + (length1Odd ? offset1 - 1 : offset1), data.currentIndex2 + offset2);
+                public PosVariable getPos(IteratorData2d data, int offset1, int offset2, boolean length1Odd, boolean length2Odd, PosVariable result) {
+                    return data.getPos(-data.currentIndex1 + (length1Odd ? offset1 - 1 : offset1), data.currentIndex2 + offset2, result);
                 }
             },
             NegNeg {
                 @Override
-                public PosVariable getPos(IteratorData2d data, int offset1, int offset2, boolean length1Odd, boolean length2Odd) {
-                    return data.resultSupplier.apply(-data.currentIndex1 + (length1Odd ? offset1 - 1 : offset1), -data.currentIndex2 + (length2Odd ? offset2 - 1 : offset2));
+                public PosVariable getPos(IteratorData2d data, int offset1, int offset2, boolean length1Odd, boolean length2Odd, PosVariable result) {
+                    return data.getPos(-data.currentIndex1 + (length1Odd ? offset1 - 1 : offset1), -data.currentIndex2 + (length2Odd ? offset2 - 1 : offset2), result);
                 }
             },
             PosNeg {
                 @Override
-                public PosVariable getPos(IteratorData2d data, int offset1, int offset2, boolean length1Odd, boolean length2Odd) {
-                    return data.resultSupplier.apply(data.currentIndex1 + offset1, -data.currentIndex2 + (length2Odd ? offset2 - 1 : offset2));
+                public PosVariable getPos(IteratorData2d data, int offset1, int offset2, boolean length1Odd, boolean length2Odd, PosVariable result) {
+                    return data.getPos(data.currentIndex1 + offset1, -data.currentIndex2 + (length2Odd ? offset2 - 1 : offset2), result);
                 }
             };
 
@@ -670,7 +734,7 @@ public class VarCommand {
                 return VALUES[ordinal];
             }
 
-            public abstract PosVariable getPos(IteratorData2d data, int offset1, int offset2, boolean length1Odd, boolean length2Odd);
+            public abstract PosVariable getPos(IteratorData2d data, int offset1, int offset2, boolean length1Odd, boolean length2Odd, PosVariable result);
         }
     }
 
@@ -706,6 +770,15 @@ public class VarCommand {
 
         @Override
         public Variable next() throws CommandSyntaxException {
+            return next(new PosVariable());
+        }
+
+        @Override
+        public Variable nextCursor() throws CommandSyntaxException {
+            return next(data.cursor);
+        }
+
+        private PosVariable next(PosVariable result) {
             if(!hasNext()) {
                 throw new NoSuchElementException();
             }
@@ -730,7 +803,7 @@ public class VarCommand {
             } else {
                 data.currentIndexX = 0;
             }
-            return new PosVariable(data.pos.getX() + data.currentIndexX, data.pos.getY() + data.currentIndexY, data.pos.getZ() + data.currentIndexZ);
+            return result.setValue(data.pos.getX() + data.currentIndexX, data.pos.getY() + data.currentIndexY, data.pos.getZ() + data.currentIndexZ);
         }
 
         @Override
@@ -868,10 +941,19 @@ public class VarCommand {
 
         @Override
         public Variable next() throws CommandSyntaxException {
+            return next(new PosVariable());
+        }
+
+        @Override
+        public Variable nextCursor() throws CommandSyntaxException {
+            return next(data.cursor);
+        }
+
+        private PosVariable next(PosVariable result) {
             if(!hasNext()) {
                 throw new NoSuchElementException();
             }
-            PosVariable result = currentEighth.getPos(data, offsetX, offsetY, offsetZ, lengthXOdd, lengthYOdd, lengthZOdd);
+            currentEighth.getPos(data, offsetX, offsetY, offsetZ, lengthXOdd, lengthYOdd, lengthZOdd, result);
             nextQuarter();
             return result;
         }
@@ -1009,7 +1091,7 @@ public class VarCommand {
 
             protected abstract boolean isNegative(int index);
 
-            public PosVariable getPos(IteratorData3d data, int offsetX, int offsetY, int offsetZ, boolean lengthXOdd, boolean lengthYOdd, boolean lengthZOdd) {
+            public PosVariable getPos(IteratorData3d data, int offsetX, int offsetY, int offsetZ, boolean lengthXOdd, boolean lengthYOdd, boolean lengthZOdd, PosVariable result) {
                 BlockPos pos = data.pos;
                 int x = pos.getX() + offsetX;
                 if(isNegative(0)) {
@@ -1038,7 +1120,7 @@ public class VarCommand {
                 } else {
                     z += data.currentIndexZ;
                 }
-                return new PosVariable(x, y, z);
+                return result.setValue(x, y, z);
             }
 
             public CurrentEighth nextEighth() {
@@ -10,6 +10,7 @@ import net.minecraft.text.Texts;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Vec2f;
 import net.minecraft.util.math.Vec3d;
+import net.papierkorb2292.command_expander.variables.IteratorVariable;
 import net.papierkorb2292.command_expander.variables.PosVariable;
 import net.papierkorb2292.command_expander.variables.Variable;
 import net.papierkorb2292.command_expander.variables.VariableHolder;
@@ -30,35 +31,56 @@ public class VariablePosArgument implements PosArgument {
 
     @Override
     public Vec3d toAbsolutePos(ServerCommandSource source) {
+        CommandContext<ServerCommandSource> cc = new CommandContext<>(source, null, null, null, null, null, null, null, null, false);
         Either<VariableHolder, Stream<Variable>> result;
         try {
-            result = value.calculate(new CommandContext<>(source, null, null, null, null, null, null, null, null, false));
+            if(value.isScalar()) {
+                return toVec3d(value.calculateVariable(cc), source);
+            }
+            result = value.calculate(cc);
         } catch (CommandSyntaxException e) {
             source.sendError(Texts.toText(e.getRawMessage()));
             return new StreamVec3d(Stream.empty());
         }
         return result.map(
-                holder -> {
-                    try {
-                        PosVariable pos = (PosVariable) VariableManager.castVariable(PosVariable.PosVariableType.INSTANCE, holder.variable);
-                        return pos == null ? new StreamVec3d(Stream.empty()) : new Vec3d(pos.getX().doubleValue(), pos.getY().doubleValue(), pos.getZ().doubleValue());
-                    } catch (CommandSyntaxException e) {
-                        source.sendError(Texts.toText(e.getRawMessage()));
-                        return new StreamVec3d(Stream.empty());
-                    }
-                },
-                stream -> new StreamVec3d(stream.map(var -> {
-                    try {
-                        PosVariable pos = (PosVariable) VariableManager.castVariable(PosVariable.PosVariableType.INSTANCE, var);
-                        return pos == null ? null : new Vec3d(pos.getX().doubleValue(), pos.getY().doubleValue(), pos.getZ().doubleValue());
-                    } catch (CommandSyntaxException e) {
-                        source.sendError(Texts.toText(e.getRawMessage()));
-                               return null;
-                    }
-                }).filter(Objects::nonNull))
+                holder -> toVec3d(holder.variable, source),
+                stream -> toVec3dStream(stream, source)
         );
     }
 
+    private static Vec3d toVec3d(Variable var, ServerCommandSource source) {
+        if(var instanceof IteratorVariable iterator) {
+            // Every position is converted before the next one is requested, so the iterator can reuse its variable
+            return toVec3dStream(iterator.cursors(source::sendError), source);
+        }
+        try {
+            PosVariable pos = castToPos(var);
+            return pos == null ? new StreamVec3d(Stream.empty()) : pos.toVec3d();
+        } catch (CommandSyntaxException e) {
+            source.sendError(Texts.toText(e.getRawMessage()));
+            return new StreamVec3d(Stream.empty());
+        }
+    }
+
+    private static StreamVec3d toVec3dStream(Stream<Variable> stream, ServerCommandSource source) {
+        return new StreamVec3d(stream.map(var -> {
+            try {
+                PosVariable pos = castToPos(var);
+                return pos == null ? null : pos.toVec3d();
+            } catch (CommandSyntaxException e) {
+                source.sendError(Texts.toText(e.getRawMessage()));
+                return null;
+            }
+        }).filter(Objects::nonNull));
+    }
+
+    /**
+     * Positions are only read, so they don't have to be copied by casting them
+     */
+    private static PosVariable castToPos(Variable var) throws CommandSyntaxException {
+        return var instanceof PosVariable pos ? pos : (PosVariable) VariableManager.castVariable(PosVariable.PosVariableType.INSTANCE, var);
+    }
+
     @Override
     public BlockPos toAbsoluteBlockPos(ServerCommandSource source) {
         Vec3d pos = toAbsolutePos(source);
@@ -28,6 +28,7 @@ import net.papierkorb2292.command_expander.variables.ByteVariable;
 import net.papierkorb2292.command_expander.variables.IntVariable;
 import net.papierkorb2292.command_expander.variables.Variable;
 import net.papierkorb2292.command_expander.variables.VariableHolder;
+import net.papierkorb2292.command_expander.variables.immediate.ImmediateValue;
 import net.papierkorb2292.command_expander.variables.path.VariablePath;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
@@ -154,7 +155,12 @@ public abstract class ExecuteCommandMixin {
                                             : context -> command_expander$executeAnyNegativeRange(valueName, "range", context)))
                                 .fork(root, context -> {
                                     NumberRange.FloatRange range = NumberRangeArgumentType.FloatRangeArgumentType.getRangeArgument(context, "range");
-                                    return VariableImmediateValueArgumentType.getImmediateValue(context, valueName).calculate(context).map(
+                                    ImmediateValue value = VariableImmediateValueArgumentType.getImmediateValue(context, valueName);
+                                    if(!all && value.isScalar()) {
+                                        // Only 'any' can use the scalar result, because 'all' passes for an empty stream but not for null
+                                        return getSourceOrEmptyForConditionFork(context, positive, value.testDouble(context, range::test));
+                                    }
+                                    return value.calculate(context).map(
                                             holder -> getSourceOrEmptyForConditionFork(context, positive, holder.variable != null && range.test(holder.variable.doubleValue())),
                                             stream -> getSourceOrEmptyForConditionFork(context, positive,
                                                     all && stream.allMatch(var -> var != null && range.test(var.doubleValue())) ||
@@ -319,9 +325,9 @@ public abstract class ExecuteCommandMixin {
     }
 
     private static int command_expander$executeAnyPositiveRange(String valueName, String rangeName, CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
-        Either<VariableHolder, Stream<Variable>> value = VariableImmediateValueArgumentType.getImmediateValue(context, valueName).calculate(context);
+        ImmediateValue value = VariableImmediateValueArgumentType.getImmediateValue(context, valueName);
         NumberRange.FloatRange range = NumberRangeArgumentType.FloatRangeArgumentType.getRangeArgument(context, rangeName);
-        int result = command_expander$getRangeCount(value, range);
+        int result = command_expander$getRangeCount(value, range, context);
         if (result == 0) {
             throw CONDITIONAL_FAIL_EXCEPTION.create();
         }
@@ -330,9 +336,9 @@ public abstract class ExecuteCommandMixin {
     }
 
     private static int command_expander$executeAnyNegativeRange(String valueName, String rangeName, CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
-        Either<VariableHolder, Stream<Variable>> value = VariableImmediateValueArgumentType.getImmediateValue(context, valueName).calculate(context);
+        ImmediateValue value = VariableImmediateValueArgumentType.getImmediateValue(context, valueName);
         NumberRange.FloatRange range = NumberRangeArgumentType.FloatRangeArgumentType.getRangeArgument(context, rangeName);
-        int result = command_expander$getRangeCount(value, range);
+        int result = command_expander$getRangeCount(value, range, context);
         if (result == 0) {
             context.getSource().sendFeedback(Text.translatable("commands.execute.conditional.pass"), false);
             return 1;
@@ -362,6 +368,13 @@ public abstract class ExecuteCommandMixin {
         return count.count();
     }
 
+    private static int command_expander$getRangeCount(ImmediateValue value, NumberRange.FloatRange range, CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
+        if(value.isScalar()) {
+            return value.testDouble(context, range::test) ? 1 : 0;
+        }
+        return command_expander$getRangeCount(value.calculate(context), range);
+    }
+
     private static int command_expander$getRangeCount(Either<VariableHolder, Stream<Variable>> value, NumberRange.FloatRange range) {
         return value.map(
                 holder -> holder.variable != null && range.test(holder.variable.doubleValue()) ? 1 : 0,
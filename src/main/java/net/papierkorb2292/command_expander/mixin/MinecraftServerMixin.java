@@ -2,14 +2,22 @@ package net.papierkorb2292.command_expander.mixin;
 
 import net.minecraft.scoreboard.ServerScoreboard;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.world.ServerWorld;
 import net.minecraft.world.PersistentStateManager;
+import net.papierkorb2292.command_expander.CommandExpander;
 import net.papierkorb2292.command_expander.mixin_method_interfaces.VariableManagerContainer;
+import net.papierkorb2292.command_expander.variables.AsyncStateWriter;
 import net.papierkorb2292.command_expander.variables.VariableManager;
 import org.spongepowered.asm.mixin.Final;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Shadow;
 import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.ModifyArg;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+import java.util.function.BooleanSupplier;
 
 @Mixin(MinecraftServer.class)
 public class MinecraftServerMixin implements VariableManagerContainer {
@@ -26,10 +34,43 @@ public class MinecraftServerMixin implements VariableManagerContainer {
             )
     )
     private PersistentStateManager command_expander$createVariableManager(PersistentStateManager stateManager) {
-        command_expander$variableManager = new VariableManager(stateManager, scoreboard);
+        command_expander$variableManager = new VariableManager(stateManager, scoreboard, () -> CommandExpander.isFeatureEnabled((MinecraftServer)(Object)this, CommandExpander.BINARY_VARIABLE_STORAGE_FEATURE));
         return stateManager;
     }
 
+    @Inject(
+            method = "saveAll",
+            at = @At("RETURN")
+    )
+    private void command_expander$flushStateWrites(boolean suppressLogs, boolean flush, boolean force, CallbackInfoReturnable<Boolean> cir) {
+        ServerWorld overworld = ((MinecraftServer)(Object)this).getOverworld();
+        // The namespaces are saved with the persistent states of the overworld, which aren't saved when saving is disabled with "/save-off"
+        if(command_expander$variableManager != null && overworld != null && (force || !overworld.savingDisabled)) {
+            command_expander$variableManager.truncateJournal();
+        }
+        if(flush) {
+            // Variable namespaces are written asynchronously, but flushing has to wait for the files to be written, for example when the server stops
+            AsyncStateWriter.flush();
+        }
+    }
+
+    @Inject(
+            method = "tick",
+            at = @At("RETURN")
+    )
+    private void command_expander$unloadVariables(BooleanSupplier shouldKeepTicking, CallbackInfo ci) {
+        if(command_expander$variableManager == null) {
+            return;
+        }
+        MinecraftServer server = (MinecraftServer)(Object)this;
+        command_expander$variableManager.commitJournal(CommandExpander.isFeatureEnabled(server, CommandExpander.VARIABLE_JOURNAL_FEATURE));
+        // No commands are running at the end of the tick, so they can't hold references to unloaded variables.
+        // Idle namespaces are only checked once per minute, because there are usually no new ones
+        command_expander$variableManager.unloadVariables(
+                CommandExpander.getSetting(server, CommandExpander.LOADED_VARIABLE_BUDGET_SETTING),
+                server.getTicks() % 1200 == 0);
+    }
+
     @Override
     public VariableManager command_expander$getVariableManager() {
         return command_expander$variableManager;
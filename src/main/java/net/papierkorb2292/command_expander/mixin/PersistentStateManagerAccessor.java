@@ -1,14 +1,23 @@
 package net.papierkorb2292.command_expander.mixin;
 
+import net.minecraft.world.PersistentState;
 import net.minecraft.world.PersistentStateManager;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.gen.Accessor;
+import org.spongepowered.asm.mixin.gen.Invoker;
 
 import java.io.File;
+import java.util.Map;
 
 @Mixin(PersistentStateManager.class)
 public interface PersistentStateManagerAccessor {
 
     @Accessor
     File getDirectory();
+
+    @Accessor
+    Map<String, PersistentState> getLoadedStates();
+
+    @Invoker
+    File invokeGetFile(String id);
 }
@@ -0,0 +1,165 @@
+package net.papierkorb2292.command_expander.variables;
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtIo;
+import net.papierkorb2292.command_expander.CommandExpander;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Writes the NBT of persistent states on a background thread, so compressing and writing large variable namespaces doesn't happen during a tick.</p>
+ * <p>
+ *     The NBT passed to {@link #write} is a snapshot taken on the server thread and must not be modified afterwards.
+ *     It is first written to a temporary file next to the target, which then replaces the target with an atomic move,
+ *     so a crash while writing never leaves a partially written file behind.
+ * </p>
+ * All writes are done by a single thread in the order they were submitted, so a newer snapshot of a file is never overwritten by an older one.
+ */
+public final class AsyncStateWriter {
+
+    private AsyncStateWriter() { } //Prevent instantiations
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Command Expander State Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static Future<?> lastWrite;
+    /**
+     * Whether a write failed since {@link #checkFailedWrites} was last called. Only accessed by the background thread
+     */
+    private static boolean failedWrite;
+
+    /**
+     * Schedules writing the NBT compressed to the file
+     * @param file The file to replace
+     * @param nbt The snapshot of the persistent state, which isn't modified anymore
+     * @return Whether the file was written, once the write is finished
+     */
+    public static Future<Boolean> write(File file, NbtCompound nbt) {
+        return write(file, temporary -> NbtIo.writeCompressed(nbt, temporary), null);
+    }
+
+    /**
+     * Schedules writing a file in any format
+     * @param file The file to replace
+     * @param writer Writes the snapshot to the temporary file. It is called on the background thread
+     * @param replacedFile A file that is deleted after the file has been written or null. Used when the data was previously stored in another file,
+     *                     for example in another format
+     * @return Whether the file was written, once the write is finished. Errors are logged, so the caller only has to make sure the data is written again
+     */
+    public static Future<Boolean> write(File file, ContentWriter writer, @Nullable File replacedFile) {
+        return write(file, writer, replacedFile, Task::run);
+    }
+
+    /**
+     * Schedules writing a file in any format
+     * @param file The file to replace
+     * @param writer Writes the snapshot to the temporary file. It is called on the background thread
+     * @param replacedFile A file that is deleted after the file has been written or null
+     * @param replacer Runs the move replacing the file with the temporary file. Used when the file is still mapped and has to be released first (see {@link BinaryNamespaceFile#replace})
+     * @return Whether the file was written, once the write is finished
+     */
+    public static synchronized Future<Boolean> write(File file, ContentWriter writer, @Nullable File replacedFile, Replacer replacer) {
+        Future<Boolean> write = EXECUTOR.submit(() -> {
+            Path target = file.toPath();
+            Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+            try {
+                Files.createDirectories(target.getParent());
+                writer.write(temporary.toFile());
+                // The file has to be on the disk before the journal is truncated (see VariableJournal)
+                try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+                replacer.replace(() -> {
+                    try {
+                        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch(AtomicMoveNotSupportedException e) {
+                        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                });
+                if(replacedFile != null) {
+                    Files.deleteIfExists(replacedFile.toPath());
+                }
+                return true;
+            } catch(IOException e) {
+                CommandExpander.LOGGER.error("Could not save data to {}", file, e);
+                failedWrite = true;
+                return false;
+            }
+        });
+        lastWrite = write;
+        return write;
+    }
+
+    /**
+     * Schedules any file operation, which is run after all writes that were scheduled before it
+     */
+    public static synchronized void execute(Task task) {
+        lastWrite = EXECUTOR.submit(() -> {
+            try {
+                task.run();
+            } catch(IOException e) {
+                CommandExpander.LOGGER.error("Error in scheduled file operation", e);
+            }
+        });
+    }
+
+    /**
+     * Checks whether a write failed since the last call and resets the result. This must only be called by a task scheduled with {@link #execute},
+     * so the result covers all writes scheduled before the task
+     */
+    public static boolean checkFailedWrites() {
+        boolean result = failedWrite;
+        failedWrite = false;
+        return result;
+    }
+
+    /**
+     * Waits until all scheduled writes are finished. Used when the server is saved with flushing enabled, for example when it stops
+     */
+    public static void flush() {
+        Future<?> lastWrite;
+        synchronized(AsyncStateWriter.class) {
+            lastWrite = AsyncStateWriter.lastWrite;
+        }
+        if(lastWrite == null) {
+            return;
+        }
+        try {
+            lastWrite.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch(ExecutionException e) {
+            CommandExpander.LOGGER.error("Unexpected exception when writing persistent states", e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface ContentWriter {
+        void write(File file) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Task {
+        void run() throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Replacer {
+        void replace(Task move) throws IOException;
+    }
+}
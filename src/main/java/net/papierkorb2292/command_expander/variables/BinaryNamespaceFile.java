@@ -0,0 +1,290 @@
+package net.papierkorb2292.command_expander.variables;
+
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtIo;
+import net.papierkorb2292.command_expander.CommandExpander;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * <p>
+ *     A variable namespace stored in the binary format, which is used instead of the NBT file of the persistent state
+ *     if the {@link net.papierkorb2292.command_expander.CommandExpander#BINARY_VARIABLE_STORAGE_FEATURE} gamerule is enabled.
+ * </p>
+ * <p>
+ *     The file starts with the magic number "CEVB", the format version and the amount of variables. It is followed by the index, which contains the name
+ *     (written like {@link DataOutput#writeUTF}), offset and length of every variable, and the variables themselves, which are the uncompressed NBT of
+ *     the encoded {@link TypedVariable}. Offsets are relative to the end of the index.
+ * </p>
+ * <p>
+ *     The file is mapped into memory when the namespace is loaded, so only the index is read immediately and a variable is only read when it is first used.
+ *     The file is never modified. Saving writes a new file that copies the unchanged variables from the mapping, but a mapped file can't be replaced on every system,
+ *     so the mapping is only released by {@link #replace} right before the new file is moved into place, which then maps the new file instead.
+ *     The file is read by the server thread while the new file is written, so all reads are synchronized with the replacement.
+ * </p>
+ */
+public final class BinaryNamespaceFile {
+
+    public static final String EXTENSION = ".vars";
+    private static final int MAGIC = 0x43455642; // "CEVB"
+    private static final int VERSION = 1;
+
+    private ByteBuffer entries;
+    private Map<String, Entry> index;
+    /**
+     * The mapping of the file or null, if it was released
+     */
+    private @Nullable MappedByteBuffer mapping;
+    /**
+     * The variables removed since {@link #getRawEntries} was last called, which might be contained in the file passed to {@link #replace}
+     */
+    private final Set<String> removed = new HashSet<>();
+
+    private BinaryNamespaceFile(ByteBuffer entries, Map<String, Entry> index, MappedByteBuffer mapping) {
+        this.entries = entries;
+        this.index = index;
+        this.mapping = mapping;
+    }
+
+    /**
+     * Maps the file into memory and reads its index
+     * @throws IOException The file couldn't be read or isn't in the binary format
+     */
+    public static BinaryNamespaceFile open(File file) throws IOException {
+        MappedByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Binary variable namespace " + file + " is larger than 2 GiB");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer indexBuffer = buffer.duplicate();
+        DataInputStream input = new DataInputStream(new ByteBufferInputStream(indexBuffer));
+        if(input.readInt() != MAGIC) {
+            throw new IOException("File " + file + " isn't a binary variable namespace");
+        }
+        int version = input.readInt();
+        if(version != VERSION) {
+            throw new IOException("Binary variable namespace " + file + " has unsupported version " + version);
+        }
+        int count = input.readInt();
+        Map<String, Entry> index = new HashMap<>(count * 2);
+        for(int i = 0; i < count; ++i) {
+            index.put(input.readUTF(), new Entry(input.readInt(), input.readInt()));
+        }
+        int entriesStart = indexBuffer.position();
+        return new BinaryNamespaceFile(buffer.slice(entriesStart, buffer.limit() - entriesStart), index, buffer);
+    }
+
+    /**
+     * <p>
+     *     Releases the mapping, runs the move replacing the file and maps the file afterwards, so the variables are read from the new file.
+     *     Variables that were removed while the new file was written are removed from it as well. This is called by {@link AsyncStateWriter} after
+     *     the new file has been written, so the raw entries the new file was written from (see {@link #getRawEntries}) aren't used anymore.
+     * </p>
+     * If the move fails, the previous file is mapped again. Reads are blocked until the file is mapped again
+     * @param file The file that is replaced, which contains the new file after the move
+     * @param move Moves the new file to the replaced file
+     */
+    public synchronized void replace(File file, AsyncStateWriter.Task move) throws IOException {
+        Map<String, Entry> previousIndex = index;
+        close();
+        boolean moved = false;
+        try {
+            move.run();
+            moved = true;
+        } finally {
+            BinaryNamespaceFile replacement;
+            try {
+                replacement = open(file);
+            } catch(IOException e) {
+                // Only happens if the file was changed by something else. The variables that weren't loaded are lost until the namespace is loaded again
+                CommandExpander.LOGGER.error("Error mapping replaced binary variable namespace {}", file, e);
+                replacement = new BinaryNamespaceFile(ByteBuffer.allocate(0), new HashMap<>(), null);
+            }
+            if(moved) {
+                replacement.index.keySet().removeAll(removed);
+                removed.clear();
+            } else {
+                // The previous file still contains the variables that were removed before the new file was written
+                replacement.index.keySet().retainAll(previousIndex.keySet());
+            }
+            entries = replacement.entries;
+            index = replacement.index;
+            mapping = replacement.mapping;
+        }
+    }
+
+    /**
+     * Releases the mapping of the file. The variables can't be read afterwards
+     */
+    public synchronized void close() {
+        if(mapping == null) {
+            return;
+        }
+        entries = null;
+        index = new HashMap<>();
+        unmap(mapping);
+        mapping = null;
+    }
+
+    /**
+     * Unmaps the buffer immediately instead of when it is garbage collected. This isn't part of the public API, so the buffer is left to the garbage collector if it isn't available
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field unsafe = unsafeClass.getDeclaredField("theUnsafe");
+            unsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(unsafe.get(null), buffer);
+        } catch(ReflectiveOperationException | RuntimeException e) {
+            CommandExpander.LOGGER.debug("Unable to unmap binary variable namespace, it is unmapped when it is garbage collected", e);
+        }
+    }
+
+    public synchronized boolean contains(String name) {
+        return index.containsKey(name);
+    }
+
+    /**
+     * @return A copy of the names of the variables, because the index is replaced by {@link #replace}
+     */
+    public synchronized Set<String> getNames() {
+        return Set.copyOf(index.keySet());
+    }
+
+    /**
+     * Removes a variable from the index, so it isn't loaded or saved anymore. The file itself isn't modified.
+     * The variable is removed from the file passed to {@link #replace} as well, even if this file doesn't contain it
+     */
+    public synchronized boolean remove(String name) {
+        removed.add(name);
+        return index.remove(name) != null;
+    }
+
+    /**
+     * Reads the NBT of a variable from the mapped file
+     * @return The NBT of the variable or null, if the file doesn't contain it
+     */
+    public synchronized NbtCompound read(String name) throws IOException {
+        Entry entry = index.get(name);
+        if(entry == null) {
+            return null;
+        }
+        return NbtIo.read(new DataInputStream(new ByteBufferInputStream(entries.slice(entry.offset, entry.length))));
+    }
+
+    /**
+     * @return A copy of the uncompressed NBT of the variable or null, if the file doesn't contain it. The mapping isn't returned directly,
+     * because it might be released by {@link #replace} while the caller still uses it
+     */
+    public synchronized @Nullable ByteBuffer getRawEntry(String name) {
+        Entry entry = index.get(name);
+        if(entry == null) {
+            return null;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(entry.length);
+        copy.put(entries.slice(entry.offset, entry.length)).flip();
+        return copy;
+    }
+
+    /**
+     * @return Read-only views of the bytes of the variables in the mapping, which can be copied into a new file without decoding them.
+     * The views stay valid when the variables are removed from this file afterwards, but not after the mapping is released,
+     * so they must only be used to write the file passed to {@link #replace}, before it's called
+     */
+    public synchronized Map<String, ByteBuffer> getRawEntries(Collection<String> names) {
+        removed.clear();
+        Map<String, ByteBuffer> result = new HashMap<>();
+        for(String name : names) {
+            Entry entry = index.get(name);
+            if(entry != null) {
+                result.put(name, entries.slice(entry.offset, entry.length).asReadOnlyBuffer());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes a namespace in the binary format
+     * @param file The file to write to
+     * @param elements The NBT of the variables, which is serialized
+     * @param rawEntries Variables that are copied from another binary namespace file (see {@link #getRawEntries})
+     * @throws IOException An error happened when writing or the file would be too large to be mapped
+     */
+    public static void write(File file, Map<String, NbtCompound> elements, Map<String, ByteBuffer> rawEntries) throws IOException {
+        List<String> names = new ArrayList<>(elements.size() + rawEntries.size());
+        List<ByteBuffer> contents = new ArrayList<>(elements.size() + rawEntries.size());
+        for(Map.Entry<String, NbtCompound> element : elements.entrySet()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            NbtIo.write(element.getValue(), new DataOutputStream(bytes));
+            names.add(element.getKey());
+            contents.add(ByteBuffer.wrap(bytes.toByteArray()));
+        }
+        for(Map.Entry<String, ByteBuffer> rawEntry : rawEntries.entrySet()) {
+            names.add(rawEntry.getKey());
+            contents.add(rawEntry.getValue().duplicate());
+        }
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(header);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(names.size());
+        long offset = 0;
+        for(int i = 0; i < names.size(); ++i) {
+            int length = contents.get(i).remaining();
+            output.writeUTF(names.get(i));
+            output.writeInt((int)offset);
+            output.writeInt(length);
+            offset += length;
+        }
+        if(offset + header.size() > Integer.MAX_VALUE) {
+            throw new IOException("Binary variable namespace " + file + " would be larger than 2 GiB");
+        }
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.wrap(header.toByteArray()));
+            for(ByteBuffer content : contents) {
+                writeFully(channel, content);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private record Entry(int offset, int length) { }
+
+    static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if(!buffer.hasRemaining()) {
+                return -1;
+            }
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+    }
+}
@@ -104,6 +104,7 @@ public class CriterionPath {
             variableToUpdate = new BoundVariable.BoundNumberVariable(scoreboard, number);
             variables.add(variableToUpdate);
         } else if(var instanceof MapVariable map && map.getType().getChild(0) instanceof EntityVariable.EntityVariableType && map.getType().getChild(1) instanceof CriteriaBindableNumberVariable.CriteriaBindableNumberVariableType) {
+            map.pinContents();
             variableToUpdate = new BoundVariable.BoundMapVariable(scoreboard, map);
             variables.add(variableToUpdate);
         } else {
@@ -342,6 +343,8 @@ public class CriterionPath {
                 if(!(parent instanceof IndexableVariable indexable)) {
                     throw UNEXPECTED_VARIABLE_TYPE_EXCEPTION.create(parent.getType());
                 }
+                // The child is bound or contains bound variables, which are changed in place
+                indexable.pinContents();
                 return indexable.get(indexable.ensureIndexCompatible(value));
             }
         },
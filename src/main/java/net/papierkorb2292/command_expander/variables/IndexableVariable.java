@@ -39,6 +39,12 @@ public abstract class IndexableVariable extends Variable {
         return value;
     }
 
+    /**
+     * Called on every variable on the path to a variable bound to a criterion. Bound variables are changed in place,
+     * so the contents must not be shared with copies of this variable anymore
+     */
+    void pinContents() { }
+
     public boolean ensureIndexAndSet(Variable indexVar, Variable value) throws CommandSyntaxException {
         indexVar = ensureIndexCompatible(indexVar);
         ensureIndexExists(indexVar);
@@ -60,7 +60,7 @@ public class IteratorVariable extends Variable {
         while(true) {
             Variable current = null;
             try {
-                current = iterator.next();
+                current = iterator.nextCursor();
             } catch (CommandSyntaxException ignored) { }
             sb.append(current == null ? "null" : current.stringValue());
             if(!iterator.hasNext()) {
@@ -90,7 +90,7 @@ public class IteratorVariable extends Variable {
     public NbtElement toNbt() throws CommandSyntaxException {
         NbtList list = new NbtList();
         while(iterator.hasNext()) {
-            list.add(Variable.createNbt(iterator.next()));
+            list.add(Variable.createNbt(iterator.nextCursor()));
         }
         return list;
     }
@@ -100,6 +100,18 @@ public class IteratorVariable extends Variable {
     }
 
     public Stream<Variable> all(Consumer<Text> errorConsumer) {
+        return all(errorConsumer, false);
+    }
+
+    /**
+     * Like {@link #all(Consumer)}, but the elements are created with {@link Iterator#nextCursor}, so an element is only valid until the next one is requested.
+     * This must only be used when every element is converted or copied before the next one is requested, for example by casting it
+     */
+    public Stream<Variable> cursors(Consumer<Text> errorConsumer) {
+        return all(errorConsumer, true);
+    }
+
+    private Stream<Variable> all(Consumer<Text> errorConsumer, boolean reuseCursor) {
         return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new AbstractIterator<>() {
 
             @Nullable
@@ -107,7 +119,7 @@ public class IteratorVariable extends Variable {
             protected Variable computeNext() {
                 while(iterator.hasNext()) {
                     try {
-                        return iterator.next();
+                        return reuseCursor ? iterator.nextCursor() : iterator.next();
                     } catch (CommandSyntaxException e) {
                         errorConsumer.accept(Texts.toText(e.getRawMessage()));
                     }
@@ -121,6 +133,13 @@ public class IteratorVariable extends Variable {
         return iterator.next();
     }
 
+    /**
+     * @see Iterator#nextCursor
+     */
+    public Variable nextCursor() throws CommandSyntaxException {
+        return iterator.nextCursor();
+    }
+
     public boolean hasNext() {
         return iterator.hasNext();
     }
@@ -279,6 +298,18 @@ public class IteratorVariable extends Variable {
 
         boolean hasNext();
         Variable next() throws CommandSyntaxException;
+
+        /**
+         * <p>
+         *     Returns the next element like {@link #next}, but iterators are allowed to return the same mutable variable every time and only change its value,
+         *     so iterating over large areas doesn't create a new variable for every element.
+         * </p>
+         * The returned variable is only valid until the next element is requested. Callers have to copy it (copy-on-escape), for example by casting it,
+         * before it is stored in a list, a map or a variable.
+         */
+        default Variable nextCursor() throws CommandSyntaxException {
+            return next();
+        }
         int getCount();
         int getID();
         boolean equals(Object o);
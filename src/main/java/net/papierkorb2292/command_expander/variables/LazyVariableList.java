@@ -0,0 +1,175 @@
+package net.papierkorb2292.command_expander.variables;
+
+import com.mojang.serialization.DataResult;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.nbt.NbtOps;
+
+import java.util.*;
+
+/**
+ * <p>
+ *     The contents of a {@link ListVariable} loaded from NBT, which are only decoded when they are accessed.
+ *     Indexing a large list therefore only decodes the indexed element instead of the whole list.
+ * </p>
+ * <p>
+ *     Appending, setting and removing the last element work on the partially decoded list, while iterating it or inserting and removing
+ *     elements in the middle decodes all remaining elements first. Afterwards, the list behaves like an {@link ArrayList}.
+ * </p>
+ * Elements that were never accessed are written back as the NBT they were loaded from (see {@link #encode}).
+ */
+final class LazyVariableList extends AbstractList<Variable> implements RandomAccess {
+
+    /**
+     * Lists with fewer elements are decoded immediately, because the bookkeeping wouldn't pay off
+     */
+    static final int MIN_LAZY_SIZE = 32;
+
+    private final Variable.VariableType elementType;
+    private final ArrayList<Variable> elements;
+    /**
+     * The NBT of the elements or null, if all elements have been decoded
+     */
+    private NbtList source;
+    /**
+     * The indices of the elements that don't need to be decoded from {@link #source} anymore
+     */
+    private BitSet decoded;
+
+    LazyVariableList(NbtList source, Variable.VariableType elementType) {
+        this.source = source;
+        this.elementType = elementType;
+        elements = new ArrayList<>(Collections.nCopies(source.size(), null));
+        decoded = new BitSet(source.size());
+    }
+
+    @Override
+    public Variable get(int index) {
+        Variable element = elements.get(index);
+        if(source != null && !decoded.get(index)) {
+            element = VariableCodec.decodeNbtElement(source.get(index), elementType);
+            elements.set(index, element);
+            decoded.set(index);
+        }
+        return element;
+    }
+
+    @Override
+    public Variable set(int index, Variable element) {
+        Variable previous = get(index);
+        elements.set(index, element);
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return elements.size();
+    }
+
+    @Override
+    public void add(int index, Variable element) {
+        if(index != elements.size()) {
+            materialize();
+        }
+        elements.add(index, element);
+        if(source != null) {
+            decoded.set(index);
+        }
+        modCount++;
+    }
+
+    @Override
+    public Variable remove(int index) {
+        if(index != elements.size() - 1) {
+            materialize();
+        }
+        Variable previous = get(index);
+        elements.remove(index);
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        elements.clear();
+        source = null;
+        decoded = null;
+        modCount++;
+    }
+
+    @Override
+    public Iterator<Variable> iterator() {
+        materialize();
+        return elements.iterator();
+    }
+
+    @Override
+    public ListIterator<Variable> listIterator(int index) {
+        materialize();
+        return elements.listIterator(index);
+    }
+
+    @Override
+    public Spliterator<Variable> spliterator() {
+        materialize();
+        return elements.spliterator();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        materialize();
+        return elements.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        materialize();
+        return elements.hashCode();
+    }
+
+    /**
+     * Decodes all elements that haven't been accessed yet
+     */
+    void materialize() {
+        if(source == null) {
+            return;
+        }
+        for(int i = decoded.nextClearBit(0); i < elements.size(); i = decoded.nextClearBit(i + 1)) {
+            elements.set(i, VariableCodec.decodeNbtElement(source.get(i), elementType));
+        }
+        source = null;
+        decoded = null;
+    }
+
+    /**
+     * @return The NBT the element was loaded from or null, if the element has been accessed and might have been changed
+     */
+    NbtElement getRaw(int index) {
+        return source == null || decoded.get(index) ? null : source.get(index);
+    }
+
+    /**
+     * Encodes the list like {@link VariableCodec#encodeList}, but copies the NBT of elements that were never accessed instead of decoding them
+     */
+    DataResult<NbtElement> encode() {
+        if(source == null) {
+            return VariableCodec.encodeList(elements, NbtOps.INSTANCE, NbtOps.INSTANCE.empty(), elementType);
+        }
+        VariableCodec elementCodec = elementType.getTemplate().codec;
+        NbtList result = new NbtList();
+        StringBuilder errorBuilder = new StringBuilder().append('(');
+        for(int i = 0; i < elements.size(); ++i) {
+            if(!decoded.get(i)) {
+                result.add(source.get(i));
+                continue;
+            }
+            DataResult<NbtElement> element = elementCodec.encode(elements.get(i), NbtOps.INSTANCE, NbtOps.INSTANCE.emptyMap());
+            if(element.error().isPresent()) {
+                errorBuilder.append(element.error().get().message()).append(" at index: ").append(i).append("; ");
+            }
+            result.add(element.resultOrPartial(VariableManager.dumpError).orElseGet(NbtOps.INSTANCE::emptyMap));
+        }
+        String error = errorBuilder.append(')').toString();
+        return error.length() == 2 ? DataResult.success(result) : DataResult.error(error, result);
+    }
+}
@@ -0,0 +1,140 @@
+package net.papierkorb2292.command_expander.variables;
+
+import com.mojang.serialization.DataResult;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.nbt.NbtOps;
+
+import java.util.*;
+
+/**
+ * <p>
+ *     The contents of a {@link MapVariable} loaded from NBT, of which only the keys are decoded immediately, because they are needed for lookups.
+ *     Values are decoded when they are accessed, so indexing a large map only decodes the indexed value.
+ * </p>
+ * <p>
+ *     Iterating the map decodes all remaining values first. Afterwards, the map behaves like the map {@link MapVariable} uses for its key type.
+ * </p>
+ * Values that were never accessed are written back as the NBT they were loaded from (see {@link #encodeValues}).
+ */
+final class LazyVariableMap extends AbstractMap<Variable, Variable> {
+
+    private final Variable.VariableType valueType;
+    private final Map<Variable, Variable> decoded;
+    /**
+     * The NBT of the values that haven't been accessed yet or null, if all values have been decoded
+     */
+    private HashMap<Variable, NbtElement> pending = new HashMap<>();
+
+    /**
+     * @param keys The decoded keys
+     * @param values The NBT of the values, which has the same size as the keys
+     */
+    LazyVariableMap(List<Variable> keys, NbtList values, Variable.VariableType keyType, Variable.VariableType valueType) {
+        this.valueType = valueType;
+        decoded = MapVariable.createContents(keyType, valueType);
+        for(int i = 0; i < keys.size(); ++i) {
+            pending.put(keys.get(i), values.get(i));
+        }
+    }
+
+    @Override
+    public Variable get(Object key) {
+        if(pending != null) {
+            NbtElement element = pending.remove(key);
+            if(element != null) {
+                Variable value = VariableCodec.decodeNbtElement(element, valueType);
+                decoded.put((Variable)key, value);
+                return value;
+            }
+        }
+        return decoded.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return decoded.containsKey(key) || pending != null && pending.containsKey(key);
+    }
+
+    @Override
+    public Variable put(Variable key, Variable value) {
+        Variable previous = get(key);
+        decoded.put(key, value);
+        return previous;
+    }
+
+    @Override
+    public Variable remove(Object key) {
+        Variable previous = get(key);
+        decoded.remove(key);
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return pending == null ? decoded.size() : decoded.size() + pending.size();
+    }
+
+    @Override
+    public void clear() {
+        decoded.clear();
+        pending = null;
+    }
+
+    @Override
+    public Set<Entry<Variable, Variable>> entrySet() {
+        materialize();
+        return decoded.entrySet();
+    }
+
+    @Override
+    public Set<Variable> keySet() {
+        materialize();
+        return decoded.keySet();
+    }
+
+    @Override
+    public Collection<Variable> values() {
+        materialize();
+        return decoded.values();
+    }
+
+    /**
+     * Decodes all values that haven't been accessed yet
+     */
+    void materialize() {
+        if(pending == null) {
+            return;
+        }
+        for(Map.Entry<Variable, NbtElement> entry : pending.entrySet()) {
+            decoded.put(entry.getKey(), VariableCodec.decodeNbtElement(entry.getValue(), valueType));
+        }
+        pending = null;
+    }
+
+    /**
+     * Encodes the keys in the same order as {@link #encodeValues}
+     */
+    DataResult<NbtElement> encodeKeys(Variable.VariableType keyType) {
+        List<Variable> keys = new ArrayList<>(decoded.keySet());
+        if(pending != null) {
+            keys.addAll(pending.keySet());
+        }
+        return VariableCodec.encodeList(keys, NbtOps.INSTANCE, NbtOps.INSTANCE.empty(), keyType);
+    }
+
+    /**
+     * Encodes the values like {@link VariableCodec#encodeList}, but copies the NBT of values that were never accessed instead of decoding them
+     */
+    DataResult<NbtElement> encodeValues() {
+        DataResult<NbtElement> decodedResult = VariableCodec.encodeList(new ArrayList<>(decoded.values()), NbtOps.INSTANCE, NbtOps.INSTANCE.empty(), valueType);
+        if(pending == null) {
+            return decodedResult;
+        }
+        return decodedResult.map(list -> {
+            NbtList result = list instanceof NbtList nbtList ? nbtList : new NbtList();
+            result.addAll(pending.values());
+            return result;
+        });
+    }
+}
@@ -6,6 +6,7 @@ import com.mojang.serialization.DataResult;
 import com.mojang.serialization.DynamicOps;
 import net.minecraft.nbt.NbtElement;
 import net.minecraft.nbt.NbtList;
+import net.minecraft.nbt.NbtOps;
 import net.papierkorb2292.command_expander.variables.immediate.operator.AddableOperatorVariableType;
 import net.papierkorb2292.command_expander.variables.immediate.operator.SubtractableOperatorVariableType;
 
@@ -16,10 +17,30 @@ import java.util.stream.Stream;
 public class ListVariable extends IndexableVariable {
 
     final ListVariableType type;
-    final List<Variable> value = new ArrayList<>();
+    final List<Variable> value;
 
     public ListVariable(ListVariableType type) {
+        this(type, createContents(type.content));
+    }
+
+    /**
+     * @return A list storing the elements in a primitive array if possible (see {@link PrimitiveVariableList}), otherwise a {@link PersistentVariableList}
+     */
+    private static List<Variable> createContents(VariableType contentType) {
+        List<Variable> primitive = PrimitiveVariableList.create(contentType);
+        return primitive == null ? new PersistentVariableList(contentType) : primitive;
+    }
+
+    /**
+     * @return A copy of the elements as primitive array, for example an int[], or null, if the elements aren't stored in one or contain null
+     */
+    public Object copyPrimitiveContents() {
+        return value instanceof PrimitiveVariableList primitive ? primitive.copyContents() : null;
+    }
+
+    ListVariable(ListVariableType type, List<Variable> value) {
         this.type = type;
+        this.value = value;
     }
 
     @Override
@@ -46,14 +67,15 @@ public class ListVariable extends IndexableVariable {
     @Override
     public String stringValue() {
         removeEndingNulls();
+        List<Variable> elements = PersistentVariableList.readOnly(value);
         StringBuilder sb = new StringBuilder();
         sb.append("{ ");
-        if(value.size() > 0) {
-            Variable var = value.get(0);
+        if(elements.size() > 0) {
+            Variable var = elements.get(0);
             sb.append(var == null ? "null" : var.stringValue());
-            for(int i = 1; i < value.size(); ++i) {
+            for(int i = 1; i < elements.size(); ++i) {
                 sb.append(", ");
-                var = value.get(i);
+                var = elements.get(i);
                 sb.append(var == null ? "null" : var.stringValue());
             }
         }
@@ -68,7 +90,7 @@ public class ListVariable extends IndexableVariable {
 
     @Override
     public boolean equals(Object o) {
-        return o instanceof ListVariable && value.equals(((ListVariable)o).value);
+        return o instanceof ListVariable && PersistentVariableList.readOnly(value).equals(PersistentVariableList.readOnly(((ListVariable)o).value));
     }
 
     @Override
@@ -80,7 +102,7 @@ public class ListVariable extends IndexableVariable {
     public NbtElement toNbt() throws CommandSyntaxException {
         removeEndingNulls();
         NbtList result = new NbtList();
-        for(Variable var : value) {
+        for(Variable var : PersistentVariableList.readOnly(value)) {
             result.add(Variable.createNbt(var));
         }
         return result;
@@ -172,9 +194,17 @@ public class ListVariable extends IndexableVariable {
         return IntStream.range(0, value.size()).mapToObj(IntVariable::new);
     }
 
+    @Override
+    void pinContents() {
+        if(value instanceof PersistentVariableList persistent) {
+            persistent.pin();
+        }
+    }
+
     public void removeEndingNulls() {
+        List<Variable> elements = PersistentVariableList.readOnly(value);
         int i = value.size() - 1;
-        while(i >= 0 && value.get(i) == null) {
+        while(i >= 0 && elements.get(i) == null) {
             value.remove(i);
             i--;
         }
@@ -271,7 +301,8 @@ public class ListVariable extends IndexableVariable {
                 }
                 ListVariable result = new ListVariable(listType);
                 while(it.hasNext()) {
-                    result.value.add(childrenCaster.cast(listType, it.next()));
+                    // Casting copies the element, so the iterator can reuse it
+                    result.value.add(childrenCaster.cast(listType, it.nextCursor()));
                 }
                 return result;
             }
@@ -283,6 +314,11 @@ public class ListVariable extends IndexableVariable {
                 listType = new ListVariableType(originalChildType);
                 childrenCaster = originalChildType == null ? null : originalChildType.getTemplate().caster;
             }
+            if(listType.content != null && listType.content.typeEquals(list.type.content)
+                    && list.value instanceof PersistentVariableList persistent && persistent.canFork()) {
+                // The elements already have the right type, so they are only copied when they're accessed
+                return new ListVariable(listType, persistent.fork());
+            }
             Variable[] castedChildren = new Variable[list.value.size()];
             for(int i = 0; i < castedChildren.length; ++i) {
                 Variable value = list.value.get(i);
@@ -303,11 +339,22 @@ public class ListVariable extends IndexableVariable {
             public <T> DataResult<T> write(Variable input, DynamicOps<T> ops, T prefix) {
                 ListVariable list = (ListVariable) input;
                 list.removeEndingNulls();
-                return encodeList(list.value, ops, prefix, list.type.content);
+                if(ops instanceof NbtOps && list.value instanceof LazyVariableList lazyList) {
+                    //noinspection unchecked
+                    return (DataResult<T>)lazyList.encode();
+                }
+                return encodeList(PersistentVariableList.readOnly(list.value), ops, prefix, list.type.content);
             }
             @Override
             public <T> DataResult<Pair<Variable, T>> read(DynamicOps<T> ops, T input, VariableType type) {
                 ListVariableType listType = (ListVariableType)type;
+                if(listType.content != null && input instanceof NbtList nbtList && nbtList.size() >= LazyVariableList.MIN_LAZY_SIZE
+                        && PrimitiveVariableList.create(listType.content) == null) {
+                    // Elements are decoded when they are accessed. Primitive elements are cheap to decode and stored in an array instead
+                    ListVariable result = new ListVariable(listType, new LazyVariableList(nbtList, listType.content));
+                    result.removeEndingNulls();
+                    return DataResult.success(Pair.of(result, ops.empty()));
+                }
                 return decodeList(ops, input, listType.content)
                         .map(pair ->
                                 pair.mapFirst(list -> {
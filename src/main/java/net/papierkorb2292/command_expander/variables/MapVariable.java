@@ -6,6 +6,8 @@ import com.mojang.serialization.DataResult;
 import com.mojang.serialization.DynamicOps;
 import net.minecraft.nbt.NbtCompound;
 import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.nbt.NbtOps;
 import net.papierkorb2292.command_expander.variables.immediate.operator.AddableOperatorVariableType;
 
 import java.util.*;
@@ -14,10 +16,23 @@ import java.util.stream.Stream;
 public class MapVariable extends IndexableVariable {
 
     final MapVariableType type;
-    final Map<Variable, Variable> value = new HashMap<>();
+    final Map<Variable, Variable> value;
 
     public MapVariable(MapVariableType type) {
+        this(type, createContents(type.key, type.value));
+    }
+
+    /**
+     * @return A map storing the keys as primitives if possible (see {@link PrimitiveKeyVariableMap}), otherwise a {@link PersistentVariableMap}
+     */
+    static Map<Variable, Variable> createContents(VariableType keyType, VariableType valueType) {
+        Map<Variable, Variable> primitive = PrimitiveKeyVariableMap.create(keyType);
+        return primitive == null ? new PersistentVariableMap(valueType) : primitive;
+    }
+
+    MapVariable(MapVariableType type, Map<Variable, Variable> value) {
         this.type = type;
+        this.value = value;
     }
 
     @Override
@@ -45,7 +60,7 @@ public class MapVariable extends IndexableVariable {
         StringBuilder sb = new StringBuilder();
         sb.append("{ ");
         if(value.size() > 0) {
-            Iterator<Map.Entry<Variable, Variable>> it = value.entrySet().iterator();
+            Iterator<Map.Entry<Variable, Variable>> it = PersistentVariableMap.readOnly(value).entrySet().iterator();
             Map.Entry<Variable, Variable> entry = it.next();
             sb.append(MapEntryVariable.buildStringValue(entry.getKey(), entry.getValue()));
             while(it.hasNext()) {
@@ -65,11 +80,12 @@ public class MapVariable extends IndexableVariable {
 
     @Override
     public boolean equals(Object o) {
-        return o instanceof MapVariable map && value.equals(map.value);
+        return o instanceof MapVariable map && PersistentVariableMap.readOnly(value).equals(PersistentVariableMap.readOnly(map.value));
     }
 
     public boolean existingKeysMatch(MapVariable other) {
-        return value.entrySet().stream().allMatch(entry -> other.value.containsKey(entry.getKey()) && other.value.get(entry.getKey()).equals(entry.getValue()));
+        Map<Variable, Variable> otherEntries = PersistentVariableMap.readOnly(other.value);
+        return PersistentVariableMap.readOnly(value).entrySet().stream().allMatch(entry -> otherEntries.containsKey(entry.getKey()) && otherEntries.get(entry.getKey()).equals(entry.getValue()));
     }
 
     @Override
@@ -80,7 +96,7 @@ public class MapVariable extends IndexableVariable {
     @Override
     public NbtElement toNbt() throws CommandSyntaxException {
         NbtCompound result = new NbtCompound();
-        for(Map.Entry<Variable, Variable> entry : value.entrySet()) {
+        for(Map.Entry<Variable, Variable> entry : PersistentVariableMap.readOnly(value).entrySet()) {
             result.put(entry.getKey().stringValue(), Variable.createNbt(entry.getValue()));
         }
         return result;
@@ -132,6 +148,13 @@ public class MapVariable extends IndexableVariable {
         return type.value;
     }
 
+    @Override
+    void pinContents() {
+        if(value instanceof PersistentVariableMap persistent) {
+            persistent.pin();
+        }
+    }
+
     @Override
     public Stream<Variable> getContents() {
         MapEntryVariable.MapEntryVariableType entryType = new MapEntryVariable.MapEntryVariableType(type.key, type.value);
@@ -305,6 +328,11 @@ public class MapVariable extends IndexableVariable {
             mapType = mapType.combine(new MapVariableType(map.type.key, map.type.value));
             VariableType keyType = mapType.key;
             VariableType valueType = mapType.value;
+            if(keyType != null && valueType != null && keyType.typeEquals(map.type.key) && valueType.typeEquals(map.type.value)
+                    && map.value instanceof PersistentVariableMap persistent && persistent.canFork()) {
+                // The entries already have the right types, so the values are only copied when they're accessed
+                return new MapVariable(mapType, persistent.fork());
+            }
             VariableManager.Caster
                     keyCaster = keyType == null ? null : keyType.getTemplate().caster,
                     valueCaster = valueType == null ? null : valueType.getTemplate().caster;
@@ -332,6 +360,18 @@ public class MapVariable extends IndexableVariable {
             @Override
             protected <T> DataResult<Pair<Variable, T>> read(DynamicOps<T> ops, T input, VariableType type) {
                 MapVariableType mapType = (MapVariableType) type;
+                if(mapType.key != null && mapType.value != null
+                        && input instanceof NbtCompound compound
+                        && compound.get("keys") instanceof NbtList keyList
+                        && compound.get("values") instanceof NbtList valueList
+                        && keyList.size() == valueList.size() && keyList.size() >= LazyVariableList.MIN_LAZY_SIZE) {
+                    // Only the keys are decoded immediately, the values are decoded when they are accessed
+                    DataResult<Pair<List<Variable>, T>> keys = ops.get(input, "keys").flatMap(keyListElement -> decodeList(ops, keyListElement, mapType.key));
+                    if(keys.result().isPresent()) {
+                        MapVariable result = new MapVariable(mapType, new LazyVariableMap(keys.result().get().getFirst(), valueList, mapType.key, mapType.value));
+                        return DataResult.success(Pair.of(result, ops.empty()));
+                    }
+                }
                 return ops.get(input, "keys")
                         .flatMap(keyListElement -> decodeList(ops, keyListElement, mapType.key))
                         .mapError(error -> "Error decoding keys of map: (" + error + ")")
@@ -368,9 +408,17 @@ public class MapVariable extends IndexableVariable {
             @Override
             protected <T> DataResult<T> write(Variable input, DynamicOps<T> ops, T prefix) {
                 MapVariable map = (MapVariable) input;
+                if(ops instanceof NbtOps && map.value instanceof LazyVariableMap lazyMap) {
+                    //noinspection unchecked
+                    return ops.mapBuilder()
+                            .add("keys", ((DataResult<T>)lazyMap.encodeKeys(map.type.key)).mapError(error -> "Error encoding keys of map: (" + error + ")"))
+                            .add("values", ((DataResult<T>)lazyMap.encodeValues()).mapError(error -> "Error encoding values of map: (" + error + ")"))
+                            .build(prefix);
+                }
+                Map<Variable, Variable> entries = PersistentVariableMap.readOnly(map.value);
                 return ops.mapBuilder()
-                        .add("keys", encodeList(((MapVariable) input).value.keySet().stream().toList(), ops, ops.empty(), map.type.key).mapError(error -> "Error encoding keys of map: (" + error + ")"))
-                        .add("values", encodeList(((MapVariable) input).value.values().stream().toList(), ops, ops.empty(), map.type.value).mapError(error -> "Error encoding values of map: (" + error + ")"))
+                        .add("keys", encodeList(entries.keySet().stream().toList(), ops, ops.empty(), map.type.key).mapError(error -> "Error encoding keys of map: (" + error + ")"))
+                        .add("values", encodeList(entries.values().stream().toList(), ops, ops.empty(), map.type.value).mapError(error -> "Error encoding values of map: (" + error + ")"))
                         .build(prefix);
             }
         });
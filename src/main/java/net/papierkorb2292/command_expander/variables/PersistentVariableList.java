@@ -0,0 +1,351 @@
+package net.papierkorb2292.command_expander.variables;
+
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * <p>
+ *     The contents of a {@link ListVariable} stored in a persistent vector, which is a trie with 32 children per node.
+ *     {@link #fork} creates a copy sharing all nodes in constant time, afterwards both lists copy the nodes on the path
+ *     to an element before changing it, so changing an element takes logarithmic time and copies at most one node per level.
+ * </p>
+ * <p>
+ *     Nodes belong to the list whose edit token they contain, so changes to nodes that aren't shared are made in place.
+ *     Forking replaces the edit token of both lists, which makes all nodes shared.
+ * </p>
+ * <p>
+ *     Elements that can be changed in place through paths, like lists or positions, are copied with the content type
+ *     when their node is copied, so changing an element of one list doesn't change the other list. Numbers, strings and entities are shared,
+ *     because they are only changed in place by criteria bindings. A list containing bound variables is pinned with {@link #pin}
+ *     and isn't shared anymore.
+ * </p>
+ * Inserting or removing elements anywhere but at the end moves all following elements like an {@link ArrayList}.
+ */
+final class PersistentVariableList extends AbstractList<Variable> implements RandomAccess {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private final Variable.VariableType contentType;
+    private Object edit = new Object();
+    private Node root;
+    /**
+     * The amount of bits of an index used by the levels below the root. The root is a leaf if it's zero
+     */
+    private int shift;
+    private int size;
+    private boolean pinned;
+    private List<Variable> readOnly;
+
+    PersistentVariableList(Variable.VariableType contentType) {
+        this.contentType = contentType;
+        root = new Node(edit, new Object[WIDTH]);
+    }
+
+    private PersistentVariableList(Variable.VariableType contentType, Node root, int shift, int size) {
+        this.contentType = contentType;
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+    }
+
+    /**
+     * @return Whether the list can be shared with {@link #fork}
+     */
+    boolean canFork() {
+        return !pinned;
+    }
+
+    /**
+     * @return A list with the same elements sharing the nodes of this list
+     */
+    PersistentVariableList fork() {
+        if(pinned) {
+            throw new IllegalStateException("Pinned list can't be forked");
+        }
+        edit = new Object();
+        return new PersistentVariableList(contentType, root, shift, size);
+    }
+
+    /**
+     * Copies all nodes and elements that might be shared with other lists, so the elements can be changed in place by criteria bindings.
+     * The list can't be forked afterwards
+     */
+    void pin() {
+        if(pinned) {
+            return;
+        }
+        root = pin(root, shift);
+        pinned = true;
+    }
+
+    private Node pin(Node node, int level) {
+        boolean owned = node.edit == edit;
+        Object[] array = owned ? node.array : node.array.clone();
+        if(level == 0) {
+            for(int i = 0; i < WIDTH; ++i) {
+                Variable element = (Variable)array[i];
+                // Even owned leaves can contain numbers shared with another list
+                if(!owned || element instanceof CriteriaBindableNumberVariable) {
+                    array[i] = copyShared(contentType, element, true);
+                }
+            }
+        } else {
+            for(int i = 0; i < WIDTH; ++i) {
+                if(array[i] != null) {
+                    array[i] = pin((Node)array[i], level - BITS);
+                }
+            }
+        }
+        return owned ? node : new Node(edit, array);
+    }
+
+    @Override
+    public Variable get(int index) {
+        Objects.checkIndex(index, size);
+        Node leaf = findLeaf(index);
+        Variable element = (Variable)leaf.array[index & MASK];
+        if(leaf.edit == edit || !needsCopy(element, false)) {
+            return element;
+        }
+        return (Variable)editableLeaf(index)[index & MASK];
+    }
+
+    /**
+     * <p>
+     *     Returns an unmodifiable view of the list reading the elements without copying nodes shared with other lists,
+     *     which is used for encoding, comparing and printing the list.
+     * </p>
+     * The elements of the view are shared as well, so they must not be changed or handed out to be changed.
+     * Use the list itself for that, which copies the leaf of an element before returning it
+     */
+    List<Variable> readOnly() {
+        if(readOnly == null) {
+            readOnly = new ReadOnlyView();
+        }
+        return readOnly;
+    }
+
+    /**
+     * @return The list as view that doesn't copy shared nodes when reading it (see {@link #readOnly}) or the list itself if it isn't persistent
+     */
+    static List<Variable> readOnly(List<Variable> list) {
+        return list instanceof PersistentVariableList persistent ? persistent.readOnly() : list;
+    }
+
+    @Override
+    public Variable set(int index, Variable element) {
+        Objects.checkIndex(index, size);
+        Object[] leaf = editableLeaf(index);
+        Variable previous = (Variable)leaf[index & MASK];
+        leaf[index & MASK] = element;
+        return previous;
+    }
+
+    @Override
+    public boolean add(Variable element) {
+        if(size == WIDTH << shift) {
+            Object[] array = new Object[WIDTH];
+            array[0] = root;
+            root = new Node(edit, array);
+            shift += BITS;
+        }
+        editableLeaf(size)[size & MASK] = element;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void add(int index, Variable element) {
+        Objects.checkIndex(index, size + 1);
+        add(null);
+        for(int i = size - 1; i > index; --i) {
+            set(i, get(i - 1));
+        }
+        set(index, element);
+    }
+
+    @Override
+    public Variable remove(int index) {
+        Objects.checkIndex(index, size);
+        Variable removed = get(index);
+        for(int i = index + 1; i < size; ++i) {
+            set(i - 1, get(i));
+        }
+        removeLast();
+        return removed;
+    }
+
+    private void removeLast() {
+        size--;
+        editableLeaf(size)[size & MASK] = null;
+        if(shift > 0 && size <= WIDTH << (shift - BITS)) {
+            root = (Node)root.array[0];
+            shift -= BITS;
+        }
+        modCount++;
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super Variable> filter) {
+        int kept = 0;
+        for(int i = 0; i < size; ++i) {
+            Variable element = get(i);
+            if(!filter.test(element)) {
+                if(kept != i) {
+                    set(kept, element);
+                }
+                kept++;
+            }
+        }
+        if(kept == size) {
+            return false;
+        }
+        while(size > kept) {
+            removeLast();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        Objects.requireNonNull(c);
+        return removeIf(c::contains);
+    }
+
+    @Override
+    public void clear() {
+        root = new Node(edit, new Object[WIDTH]);
+        shift = 0;
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int hashCode() {
+        // Reads the elements without copying the nodes
+        int hashCode = 1;
+        for(int i = 0; i < size; ++i) {
+            Object element = findLeaf(i).array[i & MASK];
+            hashCode = 31 * hashCode + (element == null ? 0 : element.hashCode());
+        }
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(o == this) {
+            return true;
+        }
+        if(!(o instanceof List<?> list) || list.size() != size) {
+            return false;
+        }
+        Iterator<?> it = (list instanceof PersistentVariableList other ? other.readOnly() : list).iterator();
+        for(int i = 0; i < size; ++i) {
+            if(!Objects.equals(findLeaf(i).array[i & MASK], it.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Node findLeaf(int index) {
+        Node node = root;
+        for(int level = shift; level > 0; level -= BITS) {
+            node = (Node)node.array[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    /**
+     * Copies the nodes on the path to the index that aren't owned by this list and creates missing nodes
+     * @return The array of the leaf containing the index
+     */
+    private Object[] editableLeaf(int index) {
+        Node node = root = editable(root, shift == 0);
+        for(int level = shift; level > 0; level -= BITS) {
+            int slot = (index >>> level) & MASK;
+            Node child = (Node)node.array[slot];
+            child = child == null ? new Node(edit, new Object[WIDTH]) : editable(child, level == BITS);
+            node.array[slot] = child;
+            node = child;
+        }
+        return node.array;
+    }
+
+    private Node editable(Node node, boolean leaf) {
+        if(node.edit == edit) {
+            return node;
+        }
+        Object[] array = node.array.clone();
+        if(leaf) {
+            for(int i = 0; i < WIDTH; ++i) {
+                array[i] = copyShared(contentType, (Variable)array[i], false);
+            }
+        }
+        return new Node(edit, array);
+    }
+
+    /**
+     * @param copyNumbers Whether numbers are copied as well, which is only necessary before they are bound to criteria
+     * @return Whether the element has to be copied when its node is copied
+     */
+    static boolean needsCopy(Variable element, boolean copyNumbers) {
+        return element != null
+                && !(element instanceof StringVariable)
+                && !(element instanceof EntityVariable)
+                && (copyNumbers || !(element instanceof CriteriaBindableNumberVariable));
+    }
+
+    /**
+     * Copies an element of a node that was shared with another list or map by casting it to its type
+     * @see #needsCopy
+     */
+    static Variable copyShared(Variable.VariableType type, Variable element, boolean copyNumbers) {
+        if(!needsCopy(element, copyNumbers)) {
+            return element;
+        }
+        try {
+            return VariableManager.castVariable(type, element);
+        } catch(CommandSyntaxException e) {
+            throw new IllegalStateException("Unable to copy shared element: " + e.getMessage());
+        }
+    }
+
+    private final class ReadOnlyView extends AbstractList<Variable> implements RandomAccess {
+
+        @Override
+        public Variable get(int index) {
+            Objects.checkIndex(index, size);
+            return (Variable)findLeaf(index).array[index & MASK];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private static final class Node {
+
+        private final Object edit;
+        /**
+         * The child nodes or the elements, if this node is a leaf
+         */
+        private final Object[] array;
+
+        private Node(Object edit, Object[] array) {
+            this.edit = edit;
+            this.array = array;
+        }
+    }
+}
@@ -0,0 +1,678 @@
+package net.papierkorb2292.command_expander.variables;
+
+import java.util.*;
+
+/**
+ * <p>
+ *     The contents of a {@link MapVariable} stored in a hash array mapped trie. Every node uses five bits of the hash of the keys
+ *     and stores its entries and children in an array indexed by a bitmap, keys with the same hash are stored in a collision node.
+ *     {@link #fork} creates a copy sharing all nodes in constant time, afterwards both maps copy the nodes on the path to an entry
+ *     before changing it, so changing an entry takes logarithmic time.
+ * </p>
+ * <p>
+ *     Like {@link PersistentVariableList}, nodes belong to the map whose edit token they contain and values that can be changed
+ *     in place through paths are copied with the value type when their node is copied. Keys are always shared, because they must not be changed.
+ *     A map containing bound variables is pinned with {@link #pin} and isn't shared anymore.
+ * </p>
+ * The null key is stored outside of the trie.
+ */
+final class PersistentVariableMap extends AbstractMap<Variable, Variable> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final Object[] EMPTY = new Object[0];
+
+    private final Variable.VariableType valueType;
+    private Object edit = new Object();
+    private Node root;
+    private int size;
+    private boolean hasNullKey;
+    private Variable nullKeyValue;
+    private boolean pinned;
+    private Set<Entry<Variable, Variable>> entrySet;
+    private Map<Variable, Variable> readOnly;
+
+    PersistentVariableMap(Variable.VariableType valueType) {
+        this.valueType = valueType;
+    }
+
+    /**
+     * @return Whether the map can be shared with {@link #fork}
+     */
+    boolean canFork() {
+        return !pinned;
+    }
+
+    /**
+     * @return A map with the same entries sharing the nodes of this map
+     */
+    PersistentVariableMap fork() {
+        if(pinned) {
+            throw new IllegalStateException("Pinned map can't be forked");
+        }
+        edit = new Object();
+        PersistentVariableMap result = new PersistentVariableMap(valueType);
+        result.root = root;
+        result.size = size;
+        result.hasNullKey = hasNullKey;
+        result.nullKeyValue = PersistentVariableList.copyShared(valueType, nullKeyValue, false);
+        return result;
+    }
+
+    /**
+     * Copies all nodes and values that might be shared with other maps, so the values can be changed in place by criteria bindings.
+     * The map can't be forked afterwards
+     */
+    void pin() {
+        if(pinned) {
+            return;
+        }
+        if(root != null) {
+            root = pin(root);
+        }
+        nullKeyValue = PersistentVariableList.copyShared(valueType, nullKeyValue, true);
+        pinned = true;
+    }
+
+    private Node pin(Node node) {
+        boolean owned = node.edit == edit;
+        Node result = owned ? node : node.copy(edit);
+        Object[] array = result.array;
+        for(int i = 0; i < array.length; i += 2) {
+            if(array[i] == null && result instanceof BitmapNode) {
+                array[i + 1] = pin((Node)array[i + 1]);
+                continue;
+            }
+            // Even owned nodes can contain numbers shared with another map
+            Variable value = (Variable)array[i + 1];
+            if(!owned || value instanceof CriteriaBindableNumberVariable) {
+                array[i + 1] = PersistentVariableList.copyShared(valueType, value, true);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if(key == null) {
+            return hasNullKey;
+        }
+        return key instanceof Variable && findNode(key) != null;
+    }
+
+    @Override
+    public Variable get(Object key) {
+        if(key == null) {
+            return nullKeyValue;
+        }
+        if(!(key instanceof Variable)) {
+            return null;
+        }
+        Node node = findNode(key);
+        if(node == null) {
+            return null;
+        }
+        Variable value = (Variable)node.array[node.indexOf(key) + 1];
+        if(node.edit == edit || !PersistentVariableList.needsCopy(value, false)) {
+            return value;
+        }
+        node = editableNode(key);
+        return (Variable)node.array[node.indexOf(key) + 1];
+    }
+
+    /**
+     * Looks up a value without copying the node containing it, so the value must not be changed or handed out to be changed
+     */
+    private Variable getReadOnly(Object key) {
+        if(key == null) {
+            return nullKeyValue;
+        }
+        if(!(key instanceof Variable)) {
+            return null;
+        }
+        Node node = findNode(key);
+        return node == null ? null : (Variable)node.array[node.indexOf(key) + 1];
+    }
+
+    @Override
+    public Variable put(Variable key, Variable value) {
+        if(key == null) {
+            Variable previous = nullKeyValue;
+            if(!hasNullKey) {
+                hasNullKey = true;
+                size++;
+            }
+            nullKeyValue = value;
+            return previous;
+        }
+        Previous previous = new Previous();
+        root = put(root == null ? new BitmapNode(edit, 0, EMPTY) : root, 0, hash(key), key, value, previous);
+        if(!previous.found) {
+            size++;
+        }
+        return previous.value;
+    }
+
+    private Node put(Node node, int shift, int hash, Variable key, Variable value, Previous previous) {
+        node = editable(node);
+        if(node instanceof CollisionNode collision) {
+            if(hash != collision.hash) {
+                // The collision node is moved to a new node, which uses the next bits of the hashes to separate them
+                BitmapNode parent = new BitmapNode(edit, bit(collision.hash, shift), new Object[] { null, collision });
+                return put(parent, shift, hash, key, value, previous);
+            }
+            int index = collision.indexOf(key);
+            if(index != -1) {
+                previous.set(collision.array[index + 1]);
+                collision.array[index + 1] = value;
+                return collision;
+            }
+            collision.array = insertPair(collision.array, collision.array.length, key, value);
+            return collision;
+        }
+        BitmapNode bitmapNode = (BitmapNode)node;
+        int bit = bit(hash, shift);
+        int index = bitmapNode.arrayIndex(bit);
+        if((bitmapNode.bitmap & bit) == 0) {
+            bitmapNode.array = insertPair(bitmapNode.array, index, key, value);
+            bitmapNode.bitmap |= bit;
+            return bitmapNode;
+        }
+        Object existingKey = bitmapNode.array[index];
+        Object existingValue = bitmapNode.array[index + 1];
+        if(existingKey == null) {
+            bitmapNode.array[index + 1] = put((Node)existingValue, shift + BITS, hash, key, value, previous);
+            return bitmapNode;
+        }
+        if(key.equals(existingKey)) {
+            previous.set(existingValue);
+            bitmapNode.array[index + 1] = value;
+            return bitmapNode;
+        }
+        bitmapNode.array[index] = null;
+        bitmapNode.array[index + 1] = createNode(shift + BITS, (Variable)existingKey, (Variable)existingValue, hash, key, value);
+        return bitmapNode;
+    }
+
+    /**
+     * @return A node containing both entries, which have different keys
+     */
+    private Node createNode(int shift, Variable key1, Variable value1, int hash2, Variable key2, Variable value2) {
+        int hash1 = hash(key1);
+        if(hash1 == hash2) {
+            return new CollisionNode(edit, hash1, new Object[] { key1, value1, key2, value2 });
+        }
+        int bit1 = bit(hash1, shift), bit2 = bit(hash2, shift);
+        if(bit1 == bit2) {
+            return new BitmapNode(edit, bit1, new Object[] { null, createNode(shift + BITS, key1, value1, hash2, key2, value2) });
+        }
+        return new BitmapNode(edit, bit1 | bit2, Integer.compareUnsigned(bit1, bit2) < 0
+                ? new Object[] { key1, value1, key2, value2 }
+                : new Object[] { key2, value2, key1, value1 });
+    }
+
+    @Override
+    public Variable remove(Object key) {
+        if(key == null) {
+            Variable previous = nullKeyValue;
+            if(hasNullKey) {
+                hasNullKey = false;
+                nullKeyValue = null;
+                size--;
+            }
+            return previous;
+        }
+        if(!(key instanceof Variable) || findNode(key) == null) {
+            // Don't copy the path to a key that isn't contained
+            return null;
+        }
+        Previous previous = new Previous();
+        root = remove(root, 0, hash(key), key, previous);
+        size--;
+        return previous.value;
+    }
+
+    /**
+     * @return The node without the key or null, if the node is empty afterwards
+     */
+    private Node remove(Node node, int shift, int hash, Object key, Previous previous) {
+        node = editable(node);
+        if(node instanceof CollisionNode collision) {
+            int index = collision.indexOf(key);
+            previous.set(collision.array[index + 1]);
+            if(collision.array.length == 2) {
+                return null;
+            }
+            collision.array = removePair(collision.array, index);
+            return collision;
+        }
+        BitmapNode bitmapNode = (BitmapNode)node;
+        int bit = bit(hash, shift);
+        int index = bitmapNode.arrayIndex(bit);
+        if(bitmapNode.array[index] == null) {
+            Node child = remove((Node)bitmapNode.array[index + 1], shift + BITS, hash, key, previous);
+            if(child != null) {
+                bitmapNode.array[index + 1] = child;
+                return bitmapNode;
+            }
+        } else {
+            previous.set(bitmapNode.array[index + 1]);
+        }
+        if(bitmapNode.bitmap == bit) {
+            return null;
+        }
+        bitmapNode.array = removePair(bitmapNode.array, index);
+        bitmapNode.bitmap &= ~bit;
+        return bitmapNode;
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        size = 0;
+        hasNullKey = false;
+        nullKeyValue = null;
+    }
+
+    @Override
+    public Set<Entry<Variable, Variable>> entrySet() {
+        if(entrySet == null) {
+            entrySet = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Variable, Variable>> iterator() {
+                    return new EntryIterator(false);
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * <p>
+     *     Returns an unmodifiable view of the map reading the entries without copying nodes shared with other maps,
+     *     which is used for encoding, comparing and printing the map.
+     * </p>
+     * The values of the view are shared as well, so they must not be changed or handed out to be changed.
+     * Use the map itself for that, which copies the node of a value before returning it
+     */
+    Map<Variable, Variable> readOnly() {
+        if(readOnly == null) {
+            Set<Entry<Variable, Variable>> entries = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Variable, Variable>> iterator() {
+                    return new EntryIterator(true);
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+            readOnly = new AbstractMap<>() {
+                @Override
+                public Set<Entry<Variable, Variable>> entrySet() {
+                    return entries;
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public boolean containsKey(Object key) {
+                    return PersistentVariableMap.this.containsKey(key);
+                }
+
+                @Override
+                public Variable get(Object key) {
+                    return getReadOnly(key);
+                }
+            };
+        }
+        return readOnly;
+    }
+
+    /**
+     * @return The map as view that doesn't copy shared nodes when reading it (see {@link #readOnly}) or the map itself if it isn't persistent
+     */
+    static Map<Variable, Variable> readOnly(Map<Variable, Variable> map) {
+        return map instanceof PersistentVariableMap persistent ? persistent.readOnly() : map;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        // Compares the entries without copying the nodes of either map
+        return o == this || o instanceof Map<?, ?> && readOnly().equals(o instanceof PersistentVariableMap map ? map.readOnly() : o);
+    }
+
+    @Override
+    public int hashCode() {
+        // Reads the entries without copying the nodes
+        int hashCode = hasNullKey ? Objects.hashCode(nullKeyValue) : 0;
+        if(root == null) {
+            return hashCode;
+        }
+        ArrayDeque<Node> pending = new ArrayDeque<>();
+        pending.push(root);
+        while(!pending.isEmpty()) {
+            Node node = pending.pop();
+            Object[] array = node.array;
+            for(int i = 0; i < array.length; i += 2) {
+                if(array[i] == null && node instanceof BitmapNode) {
+                    pending.push((Node)array[i + 1]);
+                    continue;
+                }
+                hashCode += array[i].hashCode() ^ Objects.hashCode(array[i + 1]);
+            }
+        }
+        return hashCode;
+    }
+
+    /**
+     * @return The node containing the key without copying the nodes on its path or null, if the key isn't contained
+     */
+    private Node findNode(Object key) {
+        int hash = hash(key);
+        Node node = root;
+        int shift = 0;
+        while(node != null) {
+            if(node instanceof CollisionNode collision) {
+                return collision.hash == hash && collision.indexOf(key) != -1 ? collision : null;
+            }
+            BitmapNode bitmapNode = (BitmapNode)node;
+            int bit = bit(hash, shift);
+            if((bitmapNode.bitmap & bit) == 0) {
+                return null;
+            }
+            int index = bitmapNode.arrayIndex(bit);
+            Object existingKey = bitmapNode.array[index];
+            if(existingKey != null) {
+                return key.equals(existingKey) ? bitmapNode : null;
+            }
+            node = (Node)bitmapNode.array[index + 1];
+            shift += BITS;
+        }
+        return null;
+    }
+
+    /**
+     * Copies the nodes on the path to the contained key that aren't owned by this map
+     * @return The node containing the key
+     */
+    private Node editableNode(Object key) {
+        int hash = hash(key);
+        Node node = root = editable(root);
+        int shift = 0;
+        while(node instanceof BitmapNode bitmapNode) {
+            int index = bitmapNode.arrayIndex(bit(hash, shift));
+            if(bitmapNode.array[index] != null) {
+                return bitmapNode;
+            }
+            Node child = editable((Node)bitmapNode.array[index + 1]);
+            bitmapNode.array[index + 1] = child;
+            node = child;
+            shift += BITS;
+        }
+        return node;
+    }
+
+    private Node editable(Node node) {
+        if(node.edit == edit) {
+            return node;
+        }
+        Node result = node.copy(edit);
+        Object[] array = result.array;
+        for(int i = 0; i < array.length; i += 2) {
+            if(array[i] != null) {
+                array[i + 1] = PersistentVariableList.copyShared(valueType, (Variable)array[i + 1], false);
+            }
+        }
+        return result;
+    }
+
+    private static int hash(Object key) {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static Object[] insertPair(Object[] array, int index, Object key, Object value) {
+        Object[] result = new Object[array.length + 2];
+        System.arraycopy(array, 0, result, 0, index);
+        result[index] = key;
+        result[index + 1] = value;
+        System.arraycopy(array, index, result, index + 2, array.length - index);
+        return result;
+    }
+
+    private static Object[] removePair(Object[] array, int index) {
+        Object[] result = new Object[array.length - 2];
+        System.arraycopy(array, 0, result, 0, index);
+        System.arraycopy(array, index + 2, result, index, array.length - index - 2);
+        return result;
+    }
+
+    private static class Previous {
+
+        private boolean found;
+        private Variable value;
+
+        private void set(Object value) {
+            found = true;
+            this.value = (Variable)value;
+        }
+    }
+
+    private abstract static class Node {
+
+        protected final Object edit;
+        /**
+         * Pairs of keys and values. In a {@link BitmapNode}, the key of a child node is null
+         */
+        protected Object[] array;
+
+        protected Node(Object edit, Object[] array) {
+            this.edit = edit;
+            this.array = array;
+        }
+
+        protected abstract Node copy(Object edit);
+
+        /**
+         * @return The index of the key in the array, which must only be called on a node containing the key unless it's a {@link CollisionNode}
+         */
+        protected abstract int indexOf(Object key);
+    }
+
+    private static class BitmapNode extends Node {
+
+        private int bitmap;
+
+        private BitmapNode(Object edit, int bitmap, Object[] array) {
+            super(edit, array);
+            this.bitmap = bitmap;
+        }
+
+        private int arrayIndex(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1)) * 2;
+        }
+
+        @Override
+        protected Node copy(Object edit) {
+            return new BitmapNode(edit, bitmap, array.clone());
+        }
+
+        @Override
+        protected int indexOf(Object key) {
+            // The key is contained, so its entry is the only one whose key equals it
+            for(int i = 0; i < array.length; i += 2) {
+                if(array[i] != null && key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static class CollisionNode extends Node {
+
+        private final int hash;
+
+        private CollisionNode(Object edit, int hash, Object[] array) {
+            super(edit, array);
+            this.hash = hash;
+        }
+
+        @Override
+        protected Node copy(Object edit) {
+            return new CollisionNode(edit, hash, array.clone());
+        }
+
+        @Override
+        protected int indexOf(Object key) {
+            for(int i = 0; i < array.length; i += 2) {
+                if(key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Iterates over the entries node by node. Unless the iterator is read-only, every node is copied before its entries are returned
+     * if it isn't owned by this map, because the values can be changed by the caller. The entries of a node are copied into a buffer
+     * when the node is reached, so removing an entry doesn't change the position of the iterator
+     */
+    private class EntryIterator implements Iterator<Entry<Variable, Variable>> {
+
+        /**
+         * Pairs of the nodes that still have to be visited and their parents. The parent of the root is null
+         */
+        private final ArrayDeque<Node[]> pending = new ArrayDeque<>();
+        private final boolean readOnly;
+        private boolean nullKeyPending = hasNullKey;
+        private Object[] entries = EMPTY;
+        private int position;
+        private Variable lastKey;
+        private boolean canRemove;
+
+        private EntryIterator(boolean readOnly) {
+            this.readOnly = readOnly;
+            if(root != null) {
+                pending.push(new Node[] { null, root });
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(nullKeyPending) {
+                return true;
+            }
+            while(position >= entries.length) {
+                if(pending.isEmpty()) {
+                    return false;
+                }
+                visit(pending.pop());
+            }
+            return true;
+        }
+
+        private void visit(Node[] nodeAndParent) {
+            Node parent = nodeAndParent[0], node = nodeAndParent[1];
+            Node owned = readOnly ? node : editable(node);
+            if(owned != node) {
+                if(parent == null) {
+                    root = owned;
+                } else {
+                    Object[] parentArray = parent.array;
+                    for(int i = 1; i < parentArray.length; i += 2) {
+                        if(parentArray[i] == node) {
+                            parentArray[i] = owned;
+                            break;
+                        }
+                    }
+                }
+            }
+            Object[] array = owned.array;
+            int entryCount = 0;
+            for(int i = 0; i < array.length; i += 2) {
+                if(array[i] == null && owned instanceof BitmapNode) {
+                    pending.push(new Node[] { owned, (Node)array[i + 1] });
+                } else {
+                    entryCount += 2;
+                }
+            }
+            entries = entryCount == array.length ? array.clone() : new Object[entryCount];
+            if(entryCount != array.length) {
+                int entryIndex = 0;
+                for(int i = 0; i < array.length; i += 2) {
+                    if(array[i] != null) {
+                        entries[entryIndex++] = array[i];
+                        entries[entryIndex++] = array[i + 1];
+                    }
+                }
+            }
+            position = 0;
+        }
+
+        @Override
+        public Entry<Variable, Variable> next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            canRemove = true;
+            if(nullKeyPending) {
+                nullKeyPending = false;
+                lastKey = null;
+                return readOnly ? new SimpleImmutableEntry<>(null, nullKeyValue) : new WritingEntry(null, nullKeyValue);
+            }
+            lastKey = (Variable)entries[position];
+            Variable value = (Variable)entries[position + 1];
+            position += 2;
+            return readOnly ? new SimpleImmutableEntry<>(lastKey, value) : new WritingEntry(lastKey, value);
+        }
+
+        @Override
+        public void remove() {
+            if(readOnly) {
+                throw new UnsupportedOperationException();
+            }
+            if(!canRemove) {
+                throw new IllegalStateException();
+            }
+            canRemove = false;
+            PersistentVariableMap.this.remove(lastKey);
+        }
+    }
+
+    /**
+     * An entry writing changes of its value to the map
+     */
+    private class WritingEntry extends SimpleEntry<Variable, Variable> {
+
+        private WritingEntry(Variable key, Variable value) {
+            super(key, value);
+        }
+
+        @Override
+        public Variable setValue(Variable value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
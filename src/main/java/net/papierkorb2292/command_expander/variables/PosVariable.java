@@ -18,17 +18,17 @@ import java.util.List;
 
 public class PosVariable extends Variable {
 
-    private final DoubleVariable x;
-    private final DoubleVariable y;
-    private final DoubleVariable z;
+    double x;
+    double y;
+    double z;
 
     public PosVariable() {
         this(0, 0, 0);
     }
     public PosVariable(double x, double y, double z) {
-        this.x = new DoubleVariable(x);
-        this.y = new DoubleVariable(y);
-        this.z = new DoubleVariable(z);
+        this.x = x;
+        this.y = y;
+        this.z = z;
     }
 
     @Override
@@ -48,15 +48,12 @@ public class PosVariable extends Variable {
 
     @Override
     public double doubleValue() {
-        double x = this.x.doubleValue();
-        double y = this.y.doubleValue();
-        double z = this.z.doubleValue();
         return x * x + y * y + z * z;
     }
 
     @Override
     public String stringValue() {
-        return String.format("(pos){ %s, %s, %s }", x.doubleValue(), y.doubleValue(), z.doubleValue());
+        return String.format("(pos){ %s, %s, %s }", x, y, z);
     }
 
     @Override
@@ -69,45 +66,107 @@ public class PosVariable extends Variable {
         if(!(o instanceof PosVariable pos)) {
             return false;
         }
-        return x.equals(pos.x) && y.equals(pos.y) && z.equals(pos.z);
+        return x == pos.x && y == pos.y && z == pos.z;
     }
 
     @Override
     public int hashCode() {
-        return Double.hashCode(x.doubleValue()) ^ Double.hashCode(y.doubleValue()) ^ Double.hashCode(z.doubleValue());
+        return Double.hashCode(x) ^ Double.hashCode(y) ^ Double.hashCode(z);
     }
 
     @Override
     public NbtElement toNbt() throws CommandSyntaxException {
         NbtList result = new NbtList();
-        result.add(NbtDouble.of(x.doubleValue()));
-        result.add(NbtDouble.of(y.doubleValue()));
-        result.add(NbtDouble.of(z.doubleValue()));
+        result.add(NbtDouble.of(x));
+        result.add(NbtDouble.of(y));
+        result.add(NbtDouble.of(z));
         return result;
     }
 
+    /**
+     * @return A variable containing the x-coordinate, which is created on demand. Changing it changes the position as well,
+     * because it can be bound to a criterion (see {@link Coordinate})
+     */
     public Variable getX() {
-        return x;
+        return new Coordinate(Coordinate.X);
     }
 
     public Variable getY() {
-        return y;
+        return new Coordinate(Coordinate.Y);
     }
 
     public Variable getZ() {
-        return z;
+        return new Coordinate(Coordinate.Z);
+    }
+
+    public Vec3d toVec3d() {
+        return new Vec3d(x, y, z);
+    }
+
+    /**
+     * Overwrites all coordinates at once, which is used by iterators that reuse the same position for every element
+     * @return This position
+     */
+    public PosVariable setValue(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
     }
 
     public void setX(Variable value) {
-        x.setValue(value.doubleValue());
+        x = value.doubleValue();
     }
 
     public void setY(Variable value) {
-        y.setValue(value.doubleValue());
+        y = value.doubleValue();
     }
 
     public void setZ(Variable value) {
-        z.setValue(value.doubleValue());
+        z = value.doubleValue();
+    }
+
+    /**
+     * A coordinate of the position returned by {@link #getX}, {@link #getY} or {@link #getZ}. Its value is copied when it's created,
+     * and changes made by {@link #setValue}, {@link #set} or {@link #add} are written back to the position
+     */
+    private class Coordinate extends DoubleVariable {
+
+        private static final int X = 0, Y = 1, Z = 2;
+
+        private final int axis;
+
+        private Coordinate(int axis) {
+            super(axis == X ? PosVariable.this.x : axis == Y ? PosVariable.this.y : PosVariable.this.z);
+            this.axis = axis;
+        }
+
+        @Override
+        public void setValue(double value) {
+            super.setValue(value);
+            writeBack();
+        }
+
+        @Override
+        public void add(int value) {
+            super.add(value);
+            writeBack();
+        }
+
+        @Override
+        public void set(int value) {
+            super.set(value);
+            writeBack();
+        }
+
+        private void writeBack() {
+            double value = doubleValue();
+            switch(axis) {
+                case X -> x = value;
+                case Y -> y = value;
+                default -> z = value;
+            }
+        }
     }
 
     public static class PosVariableType implements VariableType, AddableOperatorVariableType, SubtractableOperatorVariableType, NegatableOperatorVariableType, MultipliableOperatorVariableType {
@@ -121,7 +180,7 @@ public class PosVariable extends Variable {
 
         public static final VariableTypeTemplate TEMPLATE = new VariableTypeTemplate(0, () -> INSTANCE, (type, var) -> {
             if(var instanceof PosVariable pos) {
-                return new PosVariable(pos.x.doubleValue(), pos.y.doubleValue(), pos.z.doubleValue());
+                return new PosVariable(pos.x, pos.y, pos.z);
             }
             if(!(var instanceof ListVariable list)) {
                 throw VariableManager.INCOMPATIBLE_TYPES_EXCEPTION.create(type.asString(), var == null ? "null" : var.getType().asString());
@@ -155,9 +214,9 @@ public class PosVariable extends Variable {
             protected <T> DataResult<T> write(Variable input, DynamicOps<T> ops, T prefix) {
                 PosVariable pos = ((PosVariable) input);
                 return ops.listBuilder()
-                        .add(ops.createDouble(pos.x.doubleValue()))
-                        .add(ops.createDouble(pos.y.doubleValue()))
-                        .add(ops.createDouble(pos.z.doubleValue()))
+                        .add(ops.createDouble(pos.x))
+                        .add(ops.createDouble(pos.y))
+                        .add(ops.createDouble(pos.z))
                         .build(prefix);
             }
         });
@@ -182,9 +241,9 @@ public class PosVariable extends Variable {
             PosVariable posLeft = (PosVariable)left;
             PosVariable posRight = (PosVariable)right;
             return new PosVariable(
-                    posLeft.x.doubleValue() + posRight.x.doubleValue(),
-                    posLeft.y.doubleValue() + posRight.y.doubleValue(),
-                    posLeft.z.doubleValue() + posRight.z.doubleValue()
+                    posLeft.x + posRight.x,
+                    posLeft.y + posRight.y,
+                    posLeft.z + posRight.z
             );
         }
 
@@ -193,9 +252,9 @@ public class PosVariable extends Variable {
             PosVariable posLeft = (PosVariable)left;
             PosVariable posRight = (PosVariable)right;
             return new PosVariable(
-                    posLeft.x.doubleValue() * posRight.x.doubleValue(),
-                    posLeft.y.doubleValue() * posRight.y.doubleValue(),
-                    posLeft.z.doubleValue() * posRight.z.doubleValue()
+                    posLeft.x * posRight.x,
+                    posLeft.y * posRight.y,
+                    posLeft.z * posRight.z
             );
         }
 
@@ -203,9 +262,9 @@ public class PosVariable extends Variable {
         public Variable negateVariable(Variable value) {
             PosVariable pos = (PosVariable)value;
             return new PosVariable(
-                    -pos.x.doubleValue(),
-                    -pos.y.doubleValue(),
-                    -pos.z.doubleValue()
+                    -pos.x,
+                    -pos.y,
+                    -pos.z
             );
         }
 
@@ -214,27 +273,27 @@ public class PosVariable extends Variable {
             PosVariable posLeft = (PosVariable)left;
             PosVariable posRight = (PosVariable)right;
             return new PosVariable(
-                    posLeft.x.doubleValue() - posRight.x.doubleValue(),
-                    posLeft.y.doubleValue() - posRight.y.doubleValue(),
-                    posLeft.z.doubleValue() - posRight.z.doubleValue()
+                    posLeft.x - posRight.x,
+                    posLeft.y - posRight.y,
+                    posLeft.z - posRight.z
             );
         }
 
         public static PosVariable calcCross(PosVariable left, PosVariable right) {
-            double xl = left.x.doubleValue();
-            double yl = left.y.doubleValue();
-            double zl = left.z.doubleValue();
-            double xr = right.x.doubleValue();
-            double yr = right.y.doubleValue();
-            double zr = right.z.doubleValue();
+            double xl = left.x;
+            double yl = left.y;
+            double zl = left.z;
+            double xr = right.x;
+            double yr = right.y;
+            double zr = right.z;
 
             return new PosVariable(yl * zr - zl * yr, zl * xr - xl * zr, xl * yr - yl * xr);
         }
 
         public static PosVariable calcNormalize(PosVariable value) {
-            double x = value.x.doubleValue();
-            double y = value.y.doubleValue();
-            double z = value.z.doubleValue();
+            double x = value.x;
+            double y = value.y;
+            double z = value.z;
             double scale = MathHelper.fastInverseSqrt(x * x + y * y + z * z);
             return new PosVariable(
                     x * scale,
@@ -245,7 +304,7 @@ public class PosVariable extends Variable {
 
         public static DoubleVariable calcDot(PosVariable left, PosVariable right) {
             return new DoubleVariable(
-                    left.x.doubleValue() * right.x.doubleValue() + left.y.doubleValue() * right.y.doubleValue() + left.z.doubleValue() * right.z.doubleValue());
+                    left.x * right.x + left.y * right.y + left.z * right.z);
         }
     }
 }
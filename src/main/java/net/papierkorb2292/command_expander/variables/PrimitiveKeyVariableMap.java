@@ -0,0 +1,624 @@
+package net.papierkorb2292.command_expander.variables;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.util.*;
+
+/**
+ * <p>
+ *     The contents of a {@link MapVariable} with int, long or entity keys stored in an open addressing hash table, which stores the keys
+ *     as primitives. Looking up a key doesn't call {@link Variable#hashCode} and there's no node object per entry.
+ *     Int and long keys use the hash maps of fastutil, entity keys are stored as the two longs of their UUID.
+ * </p>
+ * <p>
+ *     The key variables returned by the map are created when they are accessed. They must not be modified, like the keys of any other map.
+ *     Values are stored as they are, so they can be changed in place, for example by criteria bindings.
+ * </p>
+ * Keys that don't have exactly the key type can't be stored. If one is added, the map copies its contents into a {@link HashMap},
+ * which is used from then on.
+ */
+abstract class PrimitiveKeyVariableMap extends AbstractMap<Variable, Variable> {
+
+    private boolean hasNullKey;
+    private Variable nullKeyValue;
+    /**
+     * The contents after a key that couldn't be stored as primitive was added or null, if the primitive table is used
+     */
+    private HashMap<Variable, Variable> boxed;
+    private Set<Entry<Variable, Variable>> entrySet;
+
+    /**
+     * @return A map for the key type or null, if the keys can't be stored as primitives
+     */
+    static PrimitiveKeyVariableMap create(Variable.VariableType keyType) {
+        if(keyType == IntVariable.IntVariableType.INSTANCE) {
+            return new IntKeyMap();
+        }
+        if(keyType == LongVariable.LongVariableType.INSTANCE) {
+            return new LongKeyMap();
+        }
+        if(keyType == EntityVariable.EntityVariableType.INSTANCE) {
+            return new EntityKeyMap();
+        }
+        return null;
+    }
+
+    /**
+     * @return Whether the key can be stored as primitive
+     */
+    protected abstract boolean isKey(Object key);
+
+    protected abstract boolean containsPrimitive(Variable key);
+
+    protected abstract Variable getPrimitive(Variable key);
+
+    protected abstract Variable putPrimitive(Variable key, Variable value);
+
+    protected abstract Variable removePrimitive(Variable key);
+
+    protected abstract int primitiveSize();
+
+    protected abstract void clearPrimitive();
+
+    /**
+     * @return An iterator over the primitive entries supporting {@link Iterator#remove} and {@link Entry#setValue}
+     */
+    protected abstract Iterator<Entry<Variable, Variable>> primitiveIterator();
+
+    @Override
+    public Variable get(Object key) {
+        if(boxed != null) {
+            return boxed.get(key);
+        }
+        if(key == null) {
+            return nullKeyValue;
+        }
+        return isKey(key) ? getPrimitive((Variable)key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if(boxed != null) {
+            return boxed.containsKey(key);
+        }
+        if(key == null) {
+            return hasNullKey;
+        }
+        return isKey(key) && containsPrimitive((Variable)key);
+    }
+
+    @Override
+    public Variable put(Variable key, Variable value) {
+        if(boxed != null) {
+            return boxed.put(key, value);
+        }
+        if(key == null) {
+            Variable previous = nullKeyValue;
+            hasNullKey = true;
+            nullKeyValue = value;
+            return previous;
+        }
+        if(!isKey(key)) {
+            return box().put(key, value);
+        }
+        return putPrimitive(key, value);
+    }
+
+    @Override
+    public Variable remove(Object key) {
+        if(boxed != null) {
+            return boxed.remove(key);
+        }
+        if(key == null) {
+            Variable previous = nullKeyValue;
+            hasNullKey = false;
+            nullKeyValue = null;
+            return previous;
+        }
+        return isKey(key) ? removePrimitive((Variable)key) : null;
+    }
+
+    @Override
+    public int size() {
+        if(boxed != null) {
+            return boxed.size();
+        }
+        return hasNullKey ? primitiveSize() + 1 : primitiveSize();
+    }
+
+    @Override
+    public void clear() {
+        if(boxed != null) {
+            boxed.clear();
+            return;
+        }
+        hasNullKey = false;
+        nullKeyValue = null;
+        clearPrimitive();
+    }
+
+    @Override
+    public Set<Entry<Variable, Variable>> entrySet() {
+        if(entrySet == null) {
+            entrySet = new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Variable, Variable>> iterator() {
+                    return boxed != null ? boxed.entrySet().iterator() : new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return PrimitiveKeyVariableMap.this.size();
+                }
+
+                @Override
+                public void clear() {
+                    PrimitiveKeyVariableMap.this.clear();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * Copies the contents into a {@link HashMap}, which is used from now on
+     */
+    private HashMap<Variable, Variable> box() {
+        HashMap<Variable, Variable> result = new HashMap<>(size() * 4 / 3 + 2);
+        for(Entry<Variable, Variable> entry : entrySet()) {
+            result.put(entry.getKey(), entry.getValue());
+        }
+        hasNullKey = false;
+        nullKeyValue = null;
+        clearPrimitive();
+        boxed = result;
+        return result;
+    }
+
+    /**
+     * Iterates the entry of the null key followed by the primitive entries
+     */
+    private class EntryIterator implements Iterator<Entry<Variable, Variable>> {
+
+        private final Iterator<Entry<Variable, Variable>> primitive = primitiveIterator();
+        private boolean nullKeyPending = hasNullKey, nullKeyReturned;
+
+        @Override
+        public boolean hasNext() {
+            return nullKeyPending || primitive.hasNext();
+        }
+
+        @Override
+        public Entry<Variable, Variable> next() {
+            if(nullKeyPending) {
+                nullKeyPending = false;
+                nullKeyReturned = true;
+                return new NullKeyEntry();
+            }
+            nullKeyReturned = false;
+            return primitive.next();
+        }
+
+        @Override
+        public void remove() {
+            if(nullKeyReturned) {
+                nullKeyReturned = false;
+                hasNullKey = false;
+                nullKeyValue = null;
+                return;
+            }
+            primitive.remove();
+        }
+    }
+
+    private class NullKeyEntry implements Entry<Variable, Variable> {
+
+        @Override
+        public Variable getKey() {
+            return null;
+        }
+
+        @Override
+        public Variable getValue() {
+            return nullKeyValue;
+        }
+
+        @Override
+        public Variable setValue(Variable value) {
+            Variable previous = nullKeyValue;
+            nullKeyValue = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry<?, ?> entry && entry.getKey() == null && Objects.equals(nullKeyValue, entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(nullKeyValue);
+        }
+    }
+
+    /**
+     * An entry of a primitive table, which creates its key variable when it's accessed
+     */
+    private abstract static class PrimitiveEntry implements Entry<Variable, Variable> {
+
+        private Variable key;
+
+        protected abstract Variable createKey();
+
+        @Override
+        public Variable getKey() {
+            if(key == null) {
+                key = createKey();
+            }
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry<?, ?> entry && getKey().equals(entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ Objects.hashCode(getValue());
+        }
+    }
+
+    static final class IntKeyMap extends PrimitiveKeyVariableMap {
+
+        private final Int2ObjectOpenHashMap<Variable> map = new Int2ObjectOpenHashMap<>();
+
+        @Override
+        protected boolean isKey(Object key) {
+            return key instanceof Variable var && var.getType() == IntVariable.IntVariableType.INSTANCE;
+        }
+
+        @Override
+        protected boolean containsPrimitive(Variable key) {
+            return map.containsKey(key.intValue());
+        }
+
+        @Override
+        protected Variable getPrimitive(Variable key) {
+            return map.get(key.intValue());
+        }
+
+        @Override
+        protected Variable putPrimitive(Variable key, Variable value) {
+            return map.put(key.intValue(), value);
+        }
+
+        @Override
+        protected Variable removePrimitive(Variable key) {
+            return map.remove(key.intValue());
+        }
+
+        @Override
+        protected int primitiveSize() {
+            return map.size();
+        }
+
+        @Override
+        protected void clearPrimitive() {
+            map.clear();
+        }
+
+        @Override
+        protected Iterator<Entry<Variable, Variable>> primitiveIterator() {
+            Iterator<Int2ObjectMap.Entry<Variable>> it = map.int2ObjectEntrySet().iterator();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public Entry<Variable, Variable> next() {
+                    Int2ObjectMap.Entry<Variable> entry = it.next();
+                    return new PrimitiveEntry() {
+                        @Override
+                        protected Variable createKey() {
+                            return new IntVariable(entry.getIntKey());
+                        }
+
+                        @Override
+                        public Variable getValue() {
+                            return entry.getValue();
+                        }
+
+                        @Override
+                        public Variable setValue(Variable value) {
+                            return entry.setValue(value);
+                        }
+                    };
+                }
+
+                @Override
+                public void remove() {
+                    it.remove();
+                }
+            };
+        }
+    }
+
+    static final class LongKeyMap extends PrimitiveKeyVariableMap {
+
+        private final Long2ObjectOpenHashMap<Variable> map = new Long2ObjectOpenHashMap<>();
+
+        @Override
+        protected boolean isKey(Object key) {
+            return key instanceof Variable var && var.getType() == LongVariable.LongVariableType.INSTANCE;
+        }
+
+        @Override
+        protected boolean containsPrimitive(Variable key) {
+            return map.containsKey(key.longValue());
+        }
+
+        @Override
+        protected Variable getPrimitive(Variable key) {
+            return map.get(key.longValue());
+        }
+
+        @Override
+        protected Variable putPrimitive(Variable key, Variable value) {
+            return map.put(key.longValue(), value);
+        }
+
+        @Override
+        protected Variable removePrimitive(Variable key) {
+            return map.remove(key.longValue());
+        }
+
+        @Override
+        protected int primitiveSize() {
+            return map.size();
+        }
+
+        @Override
+        protected void clearPrimitive() {
+            map.clear();
+        }
+
+        @Override
+        protected Iterator<Entry<Variable, Variable>> primitiveIterator() {
+            Iterator<Long2ObjectMap.Entry<Variable>> it = map.long2ObjectEntrySet().iterator();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public Entry<Variable, Variable> next() {
+                    Long2ObjectMap.Entry<Variable> entry = it.next();
+                    return new PrimitiveEntry() {
+                        @Override
+                        protected Variable createKey() {
+                            return new LongVariable(entry.getLongKey());
+                        }
+
+                        @Override
+                        public Variable getValue() {
+                            return entry.getValue();
+                        }
+
+                        @Override
+                        public Variable setValue(Variable value) {
+                            return entry.setValue(value);
+                        }
+                    };
+                }
+
+                @Override
+                public void remove() {
+                    it.remove();
+                }
+            };
+        }
+    }
+
+    /**
+     * Stores the UUIDs of the keys as two longs in a table with linear probing. Removed entries are marked as deleted, so iterators
+     * don't have to handle moved entries, and the deleted slots are cleaned up when the table is rehashed
+     */
+    static final class EntityKeyMap extends PrimitiveKeyVariableMap {
+
+        private static final byte FREE = 0, USED = 1, DELETED = 2;
+        private static final int INITIAL_CAPACITY = 16;
+
+        private long[] most = new long[INITIAL_CAPACITY], least = new long[INITIAL_CAPACITY];
+        private Variable[] values = new Variable[INITIAL_CAPACITY];
+        private byte[] states = new byte[INITIAL_CAPACITY];
+        private int size, deleted;
+
+        @Override
+        protected boolean isKey(Object key) {
+            return key instanceof EntityVariable;
+        }
+
+        /**
+         * @return The slot of the key or -1, if the table doesn't contain it
+         */
+        private int find(long keyMost, long keyLeast) {
+            int mask = states.length - 1;
+            for(int slot = hash(keyMost, keyLeast) & mask; states[slot] != FREE; slot = (slot + 1) & mask) {
+                if(states[slot] == USED && most[slot] == keyMost && least[slot] == keyLeast) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private static int hash(long keyMost, long keyLeast) {
+            return (int)HashCommon.mix(keyMost ^ keyLeast);
+        }
+
+        private int find(Variable key) {
+            UUID uuid = ((EntityVariable)key).uuid;
+            return find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        }
+
+        @Override
+        protected boolean containsPrimitive(Variable key) {
+            return find(key) != -1;
+        }
+
+        @Override
+        protected Variable getPrimitive(Variable key) {
+            int slot = find(key);
+            return slot == -1 ? null : values[slot];
+        }
+
+        @Override
+        protected Variable putPrimitive(Variable key, Variable value) {
+            UUID uuid = ((EntityVariable)key).uuid;
+            long keyMost = uuid.getMostSignificantBits(), keyLeast = uuid.getLeastSignificantBits();
+            int slot = find(keyMost, keyLeast);
+            if(slot != -1) {
+                Variable previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            if((size + deleted + 1) * 4 > states.length * 3) {
+                rehash(size + 1 > states.length / 2 ? states.length * 2 : states.length);
+            }
+            int mask = states.length - 1;
+            slot = hash(keyMost, keyLeast) & mask;
+            while(states[slot] == USED) {
+                slot = (slot + 1) & mask;
+            }
+            if(states[slot] == DELETED) {
+                deleted--;
+            }
+            states[slot] = USED;
+            most[slot] = keyMost;
+            least[slot] = keyLeast;
+            values[slot] = value;
+            size++;
+            return null;
+        }
+
+        @Override
+        protected Variable removePrimitive(Variable key) {
+            int slot = find(key);
+            if(slot == -1) {
+                return null;
+            }
+            Variable previous = values[slot];
+            removeSlot(slot);
+            return previous;
+        }
+
+        private void removeSlot(int slot) {
+            states[slot] = DELETED;
+            values[slot] = null;
+            size--;
+            deleted++;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldMost = most, oldLeast = least;
+            Variable[] oldValues = values;
+            byte[] oldStates = states;
+            most = new long[capacity];
+            least = new long[capacity];
+            values = new Variable[capacity];
+            states = new byte[capacity];
+            deleted = 0;
+            int mask = capacity - 1;
+            for(int i = 0; i < oldStates.length; ++i) {
+                if(oldStates[i] != USED) {
+                    continue;
+                }
+                int slot = hash(oldMost[i], oldLeast[i]) & mask;
+                while(states[slot] == USED) {
+                    slot = (slot + 1) & mask;
+                }
+                states[slot] = USED;
+                most[slot] = oldMost[i];
+                least[slot] = oldLeast[i];
+                values[slot] = oldValues[i];
+            }
+        }
+
+        @Override
+        protected int primitiveSize() {
+            return size;
+        }
+
+        @Override
+        protected void clearPrimitive() {
+            Arrays.fill(states, FREE);
+            Arrays.fill(values, null);
+            size = 0;
+            deleted = 0;
+        }
+
+        @Override
+        protected Iterator<Entry<Variable, Variable>> primitiveIterator() {
+            return new Iterator<>() {
+                // The table isn't rehashed by removing through the iterator, so the arrays stay the same
+                private final byte[] iteratedStates = states;
+                private int next = findUsed(0), current = -1;
+
+                private int findUsed(int start) {
+                    while(start < iteratedStates.length && iteratedStates[start] != USED) {
+                        start++;
+                    }
+                    return start;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next < iteratedStates.length;
+                }
+
+                @Override
+                public Entry<Variable, Variable> next() {
+                    if(!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    int slot = current = next;
+                    next = findUsed(next + 1);
+                    return new PrimitiveEntry() {
+                        @Override
+                        protected Variable createKey() {
+                            return new EntityVariable(new UUID(most[slot], least[slot]));
+                        }
+
+                        @Override
+                        public Variable getValue() {
+                            return values[slot];
+                        }
+
+                        @Override
+                        public Variable setValue(Variable value) {
+                            Variable previous = values[slot];
+                            values[slot] = value;
+                            return previous;
+                        }
+                    };
+                }
+
+                @Override
+                public void remove() {
+                    if(current == -1) {
+                        throw new IllegalStateException();
+                    }
+                    removeSlot(current);
+                    current = -1;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,573 @@
+package net.papierkorb2292.command_expander.variables;
+
+import net.minecraft.nbt.NbtElement;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * <p>
+ *     The contents of a {@link ListVariable} with int, long, double or byte elements stored in a primitive array, which needs a fraction
+ *     of the memory of a list of variables. The variables returned by {@link #get} are created when they are accessed.
+ * </p>
+ * <p>
+ *     The returned variables write changes made by {@link CriteriaBindableNumberVariable#set}, {@link CriteriaBindableNumberVariable#add}
+ *     and their {@code setValue} method back into the array, because variables bound to criteria are changed in place.
+ *     After elements have been inserted or removed anywhere but at the end, previously returned variables don't write back anymore,
+ *     because their index might have changed.
+ * </p>
+ * Elements that don't have exactly the content type can't be stored in the array. If one is added, the list copies its
+ * contents into a regular list of variables and behaves like an {@link ArrayList} afterwards.
+ */
+abstract class PrimitiveVariableList extends AbstractList<Variable> implements RandomAccess {
+
+    private static final int DEFAULT_CAPACITY = 10;
+
+    protected int size;
+    /**
+     * The indices of the elements that are null
+     */
+    private final BitSet nulls = new BitSet();
+    /**
+     * Incremented when the indices of elements change, so variables returned earlier stop writing to the array
+     */
+    protected int structureVersion;
+    /**
+     * The contents after an element that couldn't be stored in the array was added or null, if the array is used
+     */
+    private ArrayList<Variable> boxed;
+
+    /**
+     * @return A list for the content type or null, if the elements can't be stored in a primitive array
+     */
+    static PrimitiveVariableList create(Variable.VariableType contentType) {
+        if(contentType == IntVariable.IntVariableType.INSTANCE) {
+            return new IntList();
+        }
+        if(contentType == LongVariable.LongVariableType.INSTANCE) {
+            return new LongList();
+        }
+        if(contentType == DoubleVariable.DoubleVariableType.INSTANCE) {
+            return new DoubleList();
+        }
+        if(contentType == ByteVariable.ByteVariableType.INSTANCE) {
+            return new ByteList();
+        }
+        return null;
+    }
+
+    /**
+     * @return Whether the element can be stored in the array
+     */
+    protected abstract boolean canStore(Variable element);
+
+    protected abstract void store(int index, Variable element);
+
+    protected abstract Variable createView(int index);
+
+    protected abstract void ensureCapacity(int capacity);
+
+    /**
+     * Moves elements of the array like {@link System#arraycopy}
+     */
+    protected abstract void move(int from, int to, int length);
+
+    /**
+     * @return The type of the NBT element the elements are encoded as
+     */
+    abstract byte getTagType();
+
+    /**
+     * Writes the payload of the NBT element of a non-null element
+     */
+    abstract void writeElement(int index, DataOutput output) throws IOException;
+
+    /**
+     * @return The elements in an array of the exact size, for example an int[]
+     */
+    protected abstract Object copyArray();
+
+    protected int grow(int capacity, int minCapacity) {
+        return Math.max(minCapacity, capacity == 0 ? DEFAULT_CAPACITY : capacity + (capacity >> 1));
+    }
+
+    /**
+     * @return Whether the elements are stored in the primitive array
+     */
+    boolean isPrimitive() {
+        return boxed == null;
+    }
+
+    boolean isNull(int index) {
+        return nulls.get(index);
+    }
+
+    /**
+     * @return A copy of the elements as primitive array, for example an int[], or null, if the list contains null or isn't stored in an array anymore
+     */
+    Object copyContents() {
+        if(boxed != null || !nulls.isEmpty()) {
+            return null;
+        }
+        return copyArray();
+    }
+
+    @Override
+    public Variable get(int index) {
+        if(boxed != null) {
+            return boxed.get(index);
+        }
+        Objects.checkIndex(index, size);
+        return nulls.get(index) ? null : createView(index);
+    }
+
+    @Override
+    public Variable set(int index, Variable element) {
+        if(boxed != null) {
+            return boxed.set(index, element);
+        }
+        Objects.checkIndex(index, size);
+        if(element != null && !canStore(element)) {
+            return box().set(index, element);
+        }
+        Variable previous = get(index);
+        setUnchecked(index, element);
+        return previous;
+    }
+
+    private void setUnchecked(int index, Variable element) {
+        if(element == null) {
+            nulls.set(index);
+            return;
+        }
+        nulls.clear(index);
+        store(index, element);
+    }
+
+    @Override
+    public void add(int index, Variable element) {
+        if(boxed != null) {
+            boxed.add(index, element);
+            modCount++;
+            return;
+        }
+        if(element != null && !canStore(element)) {
+            box().add(index, element);
+            modCount++;
+            return;
+        }
+        Objects.checkIndex(index, size + 1);
+        ensureCapacity(size + 1);
+        if(index != size) {
+            move(index, index + 1, size - index);
+            shiftNulls(index, 1);
+            structureVersion++;
+        }
+        size++;
+        setUnchecked(index, element);
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Variable> elements) {
+        if(boxed == null) {
+            ensureCapacity(size + elements.size());
+        }
+        return super.addAll(elements);
+    }
+
+    @Override
+    public Variable remove(int index) {
+        if(boxed != null) {
+            modCount++;
+            return boxed.remove(index);
+        }
+        Variable previous = get(index);
+        if(index != size - 1) {
+            move(index + 1, index, size - index - 1);
+            shiftNulls(index + 1, -1);
+            structureVersion++;
+        }
+        nulls.clear(--size);
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        if(boxed != null) {
+            boxed.clear();
+        }
+        size = 0;
+        nulls.clear();
+        structureVersion++;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return boxed != null ? boxed.size() : size;
+    }
+
+    /**
+     * Moves the null flags starting at {@code from} by {@code distance}
+     */
+    private void shiftNulls(int from, int distance) {
+        BitSet moved = nulls.get(from, size);
+        nulls.clear(Math.min(from, from + distance), size + Math.max(distance, 0));
+        for(int i = moved.nextSetBit(0); i >= 0; i = moved.nextSetBit(i + 1)) {
+            nulls.set(from + i + distance);
+        }
+    }
+
+    /**
+     * Copies the contents into a list of variables, which is used from now on
+     */
+    private ArrayList<Variable> box() {
+        ArrayList<Variable> result = new ArrayList<>(size + 1);
+        for(int i = 0; i < size; ++i) {
+            result.add(get(i));
+        }
+        boxed = result;
+        size = 0;
+        nulls.clear();
+        structureVersion++;
+        return result;
+    }
+
+    /**
+     * @return Whether a variable created by {@link #createView} still represents the element at the index
+     */
+    protected boolean isViewValid(int index, int version) {
+        return boxed == null && version == structureVersion && index < size && !nulls.get(index);
+    }
+
+    static final class IntList extends PrimitiveVariableList {
+
+        private int[] values = new int[0];
+
+        @Override
+        protected boolean canStore(Variable element) {
+            return element.getType() == IntVariable.IntVariableType.INSTANCE;
+        }
+
+        @Override
+        protected void store(int index, Variable element) {
+            values[index] = element.intValue();
+        }
+
+        @Override
+        protected Variable createView(int index) {
+            return new View(values[index], index, structureVersion);
+        }
+
+        @Override
+        protected void ensureCapacity(int capacity) {
+            if(capacity > values.length) {
+                values = Arrays.copyOf(values, grow(values.length, capacity));
+            }
+        }
+
+        @Override
+        protected void move(int from, int to, int length) {
+            System.arraycopy(values, from, values, to, length);
+        }
+
+        @Override
+        byte getTagType() {
+            return NbtElement.INT_TYPE;
+        }
+
+        @Override
+        void writeElement(int index, DataOutput output) throws IOException {
+            output.writeInt(values[index]);
+        }
+
+        @Override
+        protected Object copyArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        private class View extends IntVariable {
+
+            private final int index, version;
+
+            private View(int value, int index, int version) {
+                super(value);
+                this.index = index;
+                this.version = version;
+            }
+
+            @Override
+            public void setValue(int value) {
+                super.setValue(value);
+                writeBack();
+            }
+
+            @Override
+            public void add(int value) {
+                super.add(value);
+                writeBack();
+            }
+
+            @Override
+            public void set(int value) {
+                super.set(value);
+                writeBack();
+            }
+
+            private void writeBack() {
+                if(isViewValid(index, version)) {
+                    values[index] = intValue();
+                }
+            }
+        }
+    }
+
+    static final class LongList extends PrimitiveVariableList {
+
+        private long[] values = new long[0];
+
+        @Override
+        protected boolean canStore(Variable element) {
+            return element.getType() == LongVariable.LongVariableType.INSTANCE;
+        }
+
+        @Override
+        protected void store(int index, Variable element) {
+            values[index] = element.longValue();
+        }
+
+        @Override
+        protected Variable createView(int index) {
+            return new View(values[index], index, structureVersion);
+        }
+
+        @Override
+        protected void ensureCapacity(int capacity) {
+            if(capacity > values.length) {
+                values = Arrays.copyOf(values, grow(values.length, capacity));
+            }
+        }
+
+        @Override
+        protected void move(int from, int to, int length) {
+            System.arraycopy(values, from, values, to, length);
+        }
+
+        @Override
+        byte getTagType() {
+            return NbtElement.LONG_TYPE;
+        }
+
+        @Override
+        void writeElement(int index, DataOutput output) throws IOException {
+            output.writeLong(values[index]);
+        }
+
+        @Override
+        protected Object copyArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        private class View extends LongVariable {
+
+            private final int index, version;
+
+            private View(long value, int index, int version) {
+                super(value);
+                this.index = index;
+                this.version = version;
+            }
+
+            @Override
+            public void setValue(long value) {
+                super.setValue(value);
+                writeBack();
+            }
+
+            @Override
+            public void add(int value) {
+                super.add(value);
+                writeBack();
+            }
+
+            @Override
+            public void set(int value) {
+                super.set(value);
+                writeBack();
+            }
+
+            private void writeBack() {
+                if(isViewValid(index, version)) {
+                    values[index] = longValue();
+                }
+            }
+        }
+    }
+
+    static final class DoubleList extends PrimitiveVariableList {
+
+        private double[] values = new double[0];
+
+        @Override
+        protected boolean canStore(Variable element) {
+            return element.getType() == DoubleVariable.DoubleVariableType.INSTANCE;
+        }
+
+        @Override
+        protected void store(int index, Variable element) {
+            values[index] = element.doubleValue();
+        }
+
+        @Override
+        protected Variable createView(int index) {
+            return new View(values[index], index, structureVersion);
+        }
+
+        @Override
+        protected void ensureCapacity(int capacity) {
+            if(capacity > values.length) {
+                values = Arrays.copyOf(values, grow(values.length, capacity));
+            }
+        }
+
+        @Override
+        protected void move(int from, int to, int length) {
+            System.arraycopy(values, from, values, to, length);
+        }
+
+        @Override
+        byte getTagType() {
+            return NbtElement.DOUBLE_TYPE;
+        }
+
+        @Override
+        void writeElement(int index, DataOutput output) throws IOException {
+            output.writeDouble(values[index]);
+        }
+
+        @Override
+        protected Object copyArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        private class View extends DoubleVariable {
+
+            private final int index, version;
+
+            private View(double value, int index, int version) {
+                super(value);
+                this.index = index;
+                this.version = version;
+            }
+
+            @Override
+            public void setValue(double value) {
+                super.setValue(value);
+                writeBack();
+            }
+
+            @Override
+            public void add(int value) {
+                super.add(value);
+                writeBack();
+            }
+
+            @Override
+            public void set(int value) {
+                super.set(value);
+                writeBack();
+            }
+
+            private void writeBack() {
+                if(isViewValid(index, version)) {
+                    values[index] = doubleValue();
+                }
+            }
+        }
+    }
+
+    static final class ByteList extends PrimitiveVariableList {
+
+        private byte[] values = new byte[0];
+
+        @Override
+        protected boolean canStore(Variable element) {
+            return element.getType() == ByteVariable.ByteVariableType.INSTANCE;
+        }
+
+        @Override
+        protected void store(int index, Variable element) {
+            values[index] = element.byteValue();
+        }
+
+        @Override
+        protected Variable createView(int index) {
+            return new View(values[index], index, structureVersion);
+        }
+
+        @Override
+        protected void ensureCapacity(int capacity) {
+            if(capacity > values.length) {
+                values = Arrays.copyOf(values, grow(values.length, capacity));
+            }
+        }
+
+        @Override
+        protected void move(int from, int to, int length) {
+            System.arraycopy(values, from, values, to, length);
+        }
+
+        @Override
+        byte getTagType() {
+            return NbtElement.BYTE_TYPE;
+        }
+
+        @Override
+        void writeElement(int index, DataOutput output) throws IOException {
+            output.writeByte(values[index]);
+        }
+
+        @Override
+        protected Object copyArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        private class View extends ByteVariable {
+
+            private final int index, version;
+
+            private View(byte value, int index, int version) {
+                super(value);
+                this.index = index;
+                this.version = version;
+            }
+
+            @Override
+            public void setValue(byte value) {
+                super.setValue(value);
+                writeBack();
+            }
+
+            @Override
+            public void add(int value) {
+                super.add(value);
+                writeBack();
+            }
+
+            @Override
+            public void set(int value) {
+                super.set(value);
+                writeBack();
+            }
+
+            private void writeBack() {
+                if(isViewValid(index, version)) {
+                    values[index] = byteValue();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package net.papierkorb2292.command_expander.variables;
+
+import com.mojang.serialization.DataResult;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtOps;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * <p>
+ *     Writes variables directly as binary NBT and reads them back, without building {@link NbtElement} trees and
+ *     without going through {@link com.mojang.serialization.DynamicOps} and {@link DataResult} for every element.
+ *     This matters for lists and maps with hundreds of thousands of entries, for which the codecs are slow and
+ *     double the memory needed while saving.
+ * </p>
+ * <p>
+ *     The output is exactly what {@link net.minecraft.nbt.NbtIo#write(NbtCompound, DataOutput)} writes for the result of
+ *     {@link TypedVariable#encode}, so it can still be read with {@link net.minecraft.nbt.NbtIo} and the codecs. Types without
+ *     a streaming implementation (iterators and map entries) are encoded with their codec and written as NBT element.
+ * </p>
+ * Reading only supports what this class writes. For anything else, like iterators or NBT in another order, an {@link IOException}
+ * is thrown, and the caller has to decode the NBT with the codecs instead.
+ */
+final class StreamingVariableCodec {
+
+    private StreamingVariableCodec() { } //Prevent instantiations
+
+    /**
+     * Writes the variable like {@link net.minecraft.nbt.NbtIo#write(NbtCompound, DataOutput)} would write its encoded NBT
+     */
+    static void write(TypedVariable var, DataOutput output) throws IOException {
+        output.writeByte(NbtElement.COMPOUND_TYPE);
+        output.writeUTF("");
+        byte[] type = Variable.VariableType.getEncoded(var.type);
+        output.writeByte(NbtElement.BYTE_ARRAY_TYPE);
+        output.writeUTF("type");
+        output.writeInt(type.length);
+        output.write(type);
+        if(var.var != null) {
+            writeNamed("value", var.var, var.type, output);
+        }
+        output.writeByte(NbtElement.END_TYPE);
+    }
+
+    private static void writeNamed(String name, Variable var, Variable.VariableType type, DataOutput output) throws IOException {
+        byte tagType = getTagType(type);
+        if(tagType == NbtElement.END_TYPE) {
+            DataResult<NbtElement> encoded = type.getTemplate().codec.write(var, NbtOps.INSTANCE, NbtOps.INSTANCE.empty());
+            Optional<NbtElement> element = encoded.resultOrPartial(VariableManager.dumpError);
+            if(element.isEmpty()) {
+                throw new IOException("Unable to encode variable of type " + type.asString() + ": " + encoded.error().map(DataResult.PartialResult::message).orElse(""));
+            }
+            output.writeByte(element.get().getType());
+            output.writeUTF(name);
+            element.get().write(output);
+            return;
+        }
+        output.writeByte(tagType);
+        output.writeUTF(name);
+        writePayload(var, type, output);
+    }
+
+    /**
+     * @return The type of the NBT element a variable of this type is encoded as or {@link NbtElement#END_TYPE}, if it has to be encoded by its codec
+     */
+    private static byte getTagType(Variable.VariableType type) {
+        VariableTypeTemplate template = type.getTemplate();
+        if(template == IntVariable.IntVariableType.TEMPLATE) return NbtElement.INT_TYPE;
+        if(template == LongVariable.LongVariableType.TEMPLATE) return NbtElement.LONG_TYPE;
+        if(template == ShortVariable.ShortVariableType.TEMPLATE) return NbtElement.SHORT_TYPE;
+        if(template == ByteVariable.ByteVariableType.TEMPLATE) return NbtElement.BYTE_TYPE;
+        if(template == FloatVariable.FloatVariableType.TEMPLATE) return NbtElement.FLOAT_TYPE;
+        if(template == DoubleVariable.DoubleVariableType.TEMPLATE) return NbtElement.DOUBLE_TYPE;
+        if(template == StringVariable.StringVariableType.TEMPLATE) return NbtElement.STRING_TYPE;
+        if(template == PosVariable.PosVariableType.TEMPLATE || template == ListVariable.ListVariableType.TEMPLATE) return NbtElement.LIST_TYPE;
+        if(template == EntityVariable.EntityVariableType.TEMPLATE || template == MapVariable.MapVariableType.TEMPLATE) return NbtElement.COMPOUND_TYPE;
+        return NbtElement.END_TYPE;
+    }
+
+    private static void writePayload(Variable var, Variable.VariableType type, DataOutput output) throws IOException {
+        VariableTypeTemplate template = type.getTemplate();
+        if(template == IntVariable.IntVariableType.TEMPLATE) {
+            output.writeInt(var.intValue());
+        } else if(template == LongVariable.LongVariableType.TEMPLATE) {
+            output.writeLong(var.longValue());
+        } else if(template == ShortVariable.ShortVariableType.TEMPLATE) {
+            output.writeShort(var.shortValue());
+        } else if(template == ByteVariable.ByteVariableType.TEMPLATE) {
+            output.writeByte(var.byteValue());
+        } else if(template == FloatVariable.FloatVariableType.TEMPLATE) {
+            output.writeFloat(var.floatValue());
+        } else if(template == DoubleVariable.DoubleVariableType.TEMPLATE) {
+            output.writeDouble(var.doubleValue());
+        } else if(template == StringVariable.StringVariableType.TEMPLATE) {
+            output.writeUTF(((StringVariable)var).value);
+        } else if(template == PosVariable.PosVariableType.TEMPLATE) {
+            PosVariable pos = (PosVariable)var;
+            output.writeByte(NbtElement.DOUBLE_TYPE);
+            output.writeInt(3);
+            output.writeDouble(pos.x);
+            output.writeDouble(pos.y);
+            output.writeDouble(pos.z);
+        } else if(template == EntityVariable.EntityVariableType.TEMPLATE) {
+            UUID uuid = ((EntityVariable)var).uuid;
+            output.writeByte(NbtElement.LONG_TYPE);
+            output.writeUTF("most");
+            output.writeLong(uuid.getMostSignificantBits());
+            output.writeByte(NbtElement.LONG_TYPE);
+            output.writeUTF("least");
+            output.writeLong(uuid.getLeastSignificantBits());
+            output.writeByte(NbtElement.END_TYPE);
+        } else if(template == ListVariable.ListVariableType.TEMPLATE) {
+            ListVariable list = (ListVariable)var;
+            list.removeEndingNulls();
+            writeElements(PersistentVariableList.readOnly(list.value), list.type.content, output);
+        } else if(template == MapVariable.MapVariableType.TEMPLATE) {
+            MapVariable map = (MapVariable)var;
+            if(map.value instanceof LazyVariableMap lazyMap) {
+                // Values that were never accessed are copied instead of being decoded
+                writeElement("keys", lazyMap.encodeKeys(map.type.key), output);
+                writeElement("values", lazyMap.encodeValues(), output);
+            } else {
+                Map<Variable, Variable> entries = PersistentVariableMap.readOnly(map.value);
+                output.writeByte(NbtElement.LIST_TYPE);
+                output.writeUTF("keys");
+                writeElements(entries.keySet(), map.type.key, output);
+                output.writeByte(NbtElement.LIST_TYPE);
+                output.writeUTF("values");
+                writeElements(entries.values(), map.type.value, output);
+            }
+            output.writeByte(NbtElement.END_TYPE);
+        } else {
+            throw new IOException("Variable type " + type.asString() + " can't be streamed");
+        }
+    }
+
+    private static void writeElement(String name, DataResult<NbtElement> encoded, DataOutput output) throws IOException {
+        Optional<NbtElement> element = encoded.resultOrPartial(VariableManager.dumpError);
+        if(element.isEmpty()) {
+            throw new IOException("Unable to encode " + name + " of map");
+        }
+        output.writeByte(element.get().getType());
+        output.writeUTF(name);
+        element.get().write(output);
+    }
+
+    /**
+     * Writes the payload of a list element like {@link VariableCodec#encodeList}: every element is a compound containing the variable as "value" or nothing for null
+     */
+    private static void writeElements(Collection<Variable> elements, Variable.VariableType elementType, DataOutput output) throws IOException {
+        output.writeByte(elements.isEmpty() ? NbtElement.END_TYPE : NbtElement.COMPOUND_TYPE);
+        output.writeInt(elements.size());
+        if(elements instanceof PrimitiveVariableList primitiveList && primitiveList.isPrimitive()) {
+            // The elements are written from the array without creating variables
+            byte tagType = primitiveList.getTagType();
+            for(int i = 0; i < primitiveList.size(); ++i) {
+                if(!primitiveList.isNull(i)) {
+                    output.writeByte(tagType);
+                    output.writeUTF("value");
+                    primitiveList.writeElement(i, output);
+                }
+                output.writeByte(NbtElement.END_TYPE);
+            }
+            return;
+        }
+        if(elements instanceof LazyVariableList lazyList) {
+            for(int i = 0; i < lazyList.size(); ++i) {
+                NbtElement raw = lazyList.getRaw(i);
+                if(raw != null) {
+                    raw.write(output);
+                    continue;
+                }
+                writeElement(lazyList.get(i), elementType, output);
+            }
+            return;
+        }
+        for(Variable element : elements) {
+            writeElement(element, elementType, output);
+        }
+    }
+
+    private static void writeElement(Variable element, Variable.VariableType elementType, DataOutput output) throws IOException {
+        if(element != null && elementType != null) {
+            writeNamed("value", element, elementType, output);
+        }
+        output.writeByte(NbtElement.END_TYPE);
+    }
+
+    /**
+     * Reads a variable written by {@link #write}
+     * @throws IOException The input couldn't be read or contains something this class doesn't write.
+     * The variable then has to be read with {@link net.minecraft.nbt.NbtIo} and decoded with {@link TypedVariable#decode}
+     */
+    static TypedVariable read(DataInput input) throws IOException {
+        Variable.VariableType type = readType(input);
+        byte tagType = input.readByte();
+        if(tagType == NbtElement.END_TYPE) {
+            return new TypedVariable(type, null);
+        }
+        if(!input.readUTF().equals("value")) {
+            throw new IOException("Unexpected element in variable data");
+        }
+        Variable var = readPayload(tagType, type, input);
+        if(input.readByte() != NbtElement.END_TYPE) {
+            throw new IOException("Unexpected element in variable data");
+        }
+        return new TypedVariable(type, var);
+    }
+
+    /**
+     * Reads only the type of a variable written by {@link #write}, which is at the start of the data
+     * @throws IOException The input couldn't be read or doesn't start with the type of the variable
+     */
+    static Variable.VariableType readType(DataInput input) throws IOException {
+        if(input.readByte() != NbtElement.COMPOUND_TYPE) {
+            throw new IOException("Variable data isn't a compound");
+        }
+        input.readUTF();
+        if(input.readByte() != NbtElement.BYTE_ARRAY_TYPE || !input.readUTF().equals("type")) {
+            throw new IOException("Variable data doesn't start with its type");
+        }
+        int length = input.readInt();
+        if(length < 0 || length > Short.MAX_VALUE) {
+            throw new IOException("Type of variable has invalid length");
+        }
+        byte[] encodedType = new byte[length];
+        input.readFully(encodedType);
+        return Variable.VariableType.decodeType(encodedType, new Variable.VariableType.OffsetHolder())
+                .result()
+                .orElseThrow(() -> new IOException("Invalid variable type"));
+    }
+
+    private static Variable readPayload(byte tagType, Variable.VariableType type, DataInput input) throws IOException {
+        if(tagType != getTagType(type)) {
+            throw new IOException("Unexpected NBT type " + tagType + " for variable of type " + type.asString());
+        }
+        VariableTypeTemplate template = type.getTemplate();
+        if(template == IntVariable.IntVariableType.TEMPLATE) {
+            return new IntVariable(input.readInt());
+        }
+        if(template == LongVariable.LongVariableType.TEMPLATE) {
+            return new LongVariable(input.readLong());
+        }
+        if(template == ShortVariable.ShortVariableType.TEMPLATE) {
+            return new ShortVariable(input.readShort());
+        }
+        if(template == ByteVariable.ByteVariableType.TEMPLATE) {
+            return new ByteVariable(input.readByte());
+        }
+        if(template == FloatVariable.FloatVariableType.TEMPLATE) {
+            return new FloatVariable(input.readFloat());
+        }
+        if(template == DoubleVariable.DoubleVariableType.TEMPLATE) {
+            return new DoubleVariable(input.readDouble());
+        }
+        if(template == StringVariable.StringVariableType.TEMPLATE) {
+            return new StringVariable(input.readUTF());
+        }
+        if(template == PosVariable.PosVariableType.TEMPLATE) {
+            if(input.readByte() != NbtElement.DOUBLE_TYPE || input.readInt() != 3) {
+                throw new IOException("Pos element list has invalid type or size");
+            }
+            return new PosVariable(input.readDouble(), input.readDouble(), input.readDouble());
+        }
+        if(template == EntityVariable.EntityVariableType.TEMPLATE) {
+            long most = readNamedLong("most", input), least = readNamedLong("least", input);
+            if(input.readByte() != NbtElement.END_TYPE) {
+                throw new IOException("Unexpected element in entity data");
+            }
+            return new EntityVariable(new UUID(most, least));
+        }
+        if(template == ListVariable.ListVariableType.TEMPLATE) {
+            ListVariable.ListVariableType listType = (ListVariable.ListVariableType)type;
+            ListVariable result = new ListVariable(listType);
+            readElements(listType.content, input, result.value);
+            result.removeEndingNulls();
+            return result;
+        }
+        if(template == MapVariable.MapVariableType.TEMPLATE) {
+            MapVariable.MapVariableType mapType = (MapVariable.MapVariableType)type;
+            if(input.readByte() != NbtElement.LIST_TYPE || !input.readUTF().equals("keys")) {
+                throw new IOException("Map data doesn't start with its keys");
+            }
+            List<Variable> keys = readElements(mapType.key, input, new ArrayList<>());
+            if(input.readByte() != NbtElement.LIST_TYPE || !input.readUTF().equals("values")) {
+                throw new IOException("Map data doesn't contain values after its keys");
+            }
+            List<Variable> values = readElements(mapType.value, input, new ArrayList<>());
+            if(keys.size() != values.size() || input.readByte() != NbtElement.END_TYPE) {
+                throw new IOException("Invalid map data");
+            }
+            MapVariable result = new MapVariable(mapType);
+            for(int i = 0; i < keys.size(); ++i) {
+                result.value.put(keys.get(i), values.get(i));
+            }
+            return result;
+        }
+        throw new IOException("Variable type " + type.asString() + " can't be streamed");
+    }
+
+    private static long readNamedLong(String name, DataInput input) throws IOException {
+        if(input.readByte() != NbtElement.LONG_TYPE || !input.readUTF().equals(name)) {
+            throw new IOException("Expected long '" + name + "'");
+        }
+        return input.readLong();
+    }
+
+    /**
+     * @param result The list to add the elements to
+     * @return The result
+     */
+    private static List<Variable> readElements(Variable.VariableType elementType, DataInput input, List<Variable> result) throws IOException {
+        byte elementTagType = input.readByte();
+        int size = input.readInt();
+        if(size < 0 || size > 0 && elementTagType != NbtElement.COMPOUND_TYPE) {
+            throw new IOException("List elements aren't compounds");
+        }
+        for(int i = 0; i < size; ++i) {
+            byte tagType = input.readByte();
+            if(tagType == NbtElement.END_TYPE) {
+                result.add(null);
+                continue;
+            }
+            if(elementType == null || !input.readUTF().equals("value")) {
+                throw new IOException("Unexpected element in list element");
+            }
+            result.add(readPayload(tagType, elementType, input));
+            if(input.readByte() != NbtElement.END_TYPE) {
+                throw new IOException("Unexpected element in list element");
+            }
+        }
+        return result;
+    }
+}
@@ -5,10 +5,6 @@ import com.mojang.serialization.DataResult;
 import net.minecraft.nbt.NbtElement;
 import net.minecraft.nbt.NbtEnd;
 
-import java.util.Deque;
-import java.util.LinkedList;
-import java.util.Queue;
-
 public abstract class Variable {
 
     public abstract int intValue();
@@ -226,7 +222,7 @@ public abstract class Variable {
         }
 
         default boolean instanceOf(VariableType type) {
-            if(type == null) {
+            if(type == null || type == this) {
                 return true;
             }
             VariableType current = this;
@@ -251,6 +247,9 @@ public abstract class Variable {
         }
 
         default boolean typeEquals(VariableType other) {
+            if(other == this) {
+                return true;
+            }
             if(other == null) {
                 return false;
             }
@@ -300,50 +299,18 @@ public abstract class Variable {
             return sb.toString();
         }
 
+        /**
+         * Encodes the type for saving variables. The encoding of interned types is cached (see {@link VariableTypeInterner})
+         */
         static byte[] getEncoded(VariableType type) {
-            Deque<VariableType> typeEncoderStack = new LinkedList<>();
-            Queue<VariableTypeTemplate> typeEncoderEncounteredTypes = new LinkedList<>();
-            int typeSize = 1;
-            typeEncoderStack.add(type);
-            while(!typeEncoderStack.isEmpty()) {
-                type = typeEncoderStack.pop();
-                VariableTypeTemplate typeTemplate = type.getTemplate();
-                typeEncoderEncounteredTypes.add(typeTemplate);
-                int childrenCount = typeTemplate.childrenCount;
-                typeSize += childrenCount;
-                for(int i = 0; i < childrenCount; ++i) {
-                    typeEncoderStack.add(type.getChild(i));
-                }
-            }
-            byte[] typeArray = new byte[typeSize];
-            int index = 0;
-            while(!typeEncoderEncounteredTypes.isEmpty()) {
-                typeArray[index] = typeEncoderEncounteredTypes.remove().id;
-                ++index;
-            }
-            return typeArray;
+            return VariableTypeInterner.getEncoded(type);
         }
 
+        /**
+         * Decodes a type encoded by {@link #getEncoded}. The result is the canonical instance of the type, so it must not be modified
+         */
         static DataResult<VariableType> decodeType(byte[] type, OffsetHolder offset) {
-            if(type.length - offset.value <= 0) {
-                return DataResult.error("Type in the data of variable has invalid length");
-            }
-            byte id = type[offset.value];
-            if(id < 0 || id >= VariableManager.TYPES_BY_ID.size()) {
-                return DataResult.error(String.format("Encountered invalid type id '%s' while decoding variable", id));
-            }
-            VariableTypeTemplate template = VariableManager.TYPES_BY_ID.get(id);
-            VariableType result = template.typeFactory.get();
-            ++offset.value;
-            DataResult<VariableType> parsedType = DataResult.success(result);
-            for(int i = 0; i < template.childrenCount; ++i) {
-                int finalI = i;
-                parsedType = parsedType.apply2((currentType, child) -> {
-                    currentType.setChild(finalI, child);
-                    return currentType;
-                }, decodeType(type, offset));
-            }
-            return parsedType;
+            return VariableTypeInterner.decode(type, offset);
         }
 
         class OffsetHolder {
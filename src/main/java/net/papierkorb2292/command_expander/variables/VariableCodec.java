@@ -6,6 +6,9 @@ import com.mojang.serialization.DataResult;
 import com.mojang.serialization.DynamicOps;
 import com.mojang.serialization.Lifecycle;
 import com.mojang.serialization.ListBuilder;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtOps;
+import net.papierkorb2292.command_expander.CommandExpander;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -37,6 +40,16 @@ abstract class VariableCodec {
 
     protected abstract <T> DataResult<T> write(Variable input, DynamicOps<T> ops, T prefix);
 
+    /**
+     * Decodes a single element of a {@link LazyVariableList} or {@link LazyVariableMap}. Errors are logged, because they can't be reported when the variable is loaded
+     * @return The decoded variable or null, if it couldn't be decoded
+     */
+    static Variable decodeNbtElement(NbtElement element, Variable.VariableType type) {
+        DataResult<Pair<VariableHolder, NbtElement>> result = type.getTemplate().codec.decode(NbtOps.INSTANCE, element, type);
+        result.error().ifPresent(error -> CommandExpander.LOGGER.error("Error decoding element of variable: {}", error.message()));
+        return result.resultOrPartial(VariableManager.dumpError).map(pair -> pair.getFirst().variable).orElse(null);
+    }
+
     /**
      * @see com.mojang.serialization.codecs.ListCodec#decode
      */
@@ -0,0 +1,210 @@
+package net.papierkorb2292.command_expander.variables;
+
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtIo;
+import net.papierkorb2292.command_expander.CommandExpander;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ *     An append-only log of the variables that were changed since the namespaces were last saved, so the changes aren't lost when the server crashes.
+ *     It is replayed when the {@link VariableManager} is created and truncated after the namespaces have been saved.
+ * </p>
+ * <p>
+ *     Changes are recorded by id and committed once per tick as a single batch (group commit), which contains the new encoded value of every
+ *     changed variable, or a removal if the variable doesn't exist anymore. Logging values instead of the commands that changed them
+ *     makes replaying deterministic and idempotent, because commands can depend on entities, other variables and so on.
+ * </p>
+ * <p>
+ *     Variables containing iterators are recorded whenever they are read, because reading them can advance the iterators.
+ * </p>
+ * A batch consists of its length, the CRC32 of its content and the content itself, so a batch that was only partially written when the server crashed
+ * is detected and ignored when replaying. Batches are appended by {@link AsyncStateWriter} and forced to the disk before the next task is run.
+ */
+public final class VariableJournal {
+
+    private static final byte SET = 0;
+    private static final byte REMOVE = 1;
+
+    private final File file;
+    /**
+     * The variables changed since the last commit
+     */
+    private final Set<VariableIdentifier> changes = new LinkedHashSet<>();
+
+    public VariableJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Records that the variable was changed, added or removed. It is written to the journal by the next {@link #commit}
+     */
+    public void record(VariableIdentifier id) {
+        changes.add(id);
+    }
+
+    /**
+     * Encodes the current value of every recorded variable on the server thread and schedules appending them as one batch
+     */
+    public void commit(VariableManager manager) {
+        if(changes.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(records);
+        int count = 0;
+        try {
+            for(VariableIdentifier id : changes) {
+                TypedVariable var;
+                try {
+                    var = manager.getForJournal(id);
+                } catch(CommandSyntaxException e) {
+                    CommandExpander.LOGGER.error("Unable to load variable '{}' for the journal", id, e);
+                    continue;
+                }
+                ++count;
+                if(var == null) {
+                    output.writeByte(REMOVE);
+                    output.writeUTF(id.namespace);
+                    output.writeUTF(id.path);
+                    continue;
+                }
+                // The variable is streamed separately, so a variable that can't be encoded doesn't corrupt the batch
+                ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+                try {
+                    StreamingVariableCodec.write(var, new DataOutputStream(encoded));
+                } catch(IOException e) {
+                    CommandExpander.LOGGER.error("Unable to encode variable '{}' for the journal", id, e);
+                    --count;
+                    continue;
+                }
+                output.writeByte(SET);
+                output.writeUTF(id.namespace);
+                output.writeUTF(id.path);
+                encoded.writeTo(output);
+            }
+        } catch(IOException e) {
+            CommandExpander.LOGGER.error("Unable to create journal entry", e);
+            return;
+        } finally {
+            changes.clear();
+        }
+        if(count == 0) {
+            return;
+        }
+        ByteBuffer content = ByteBuffer.allocate(Integer.BYTES + records.size())
+                .putInt(count)
+                .put(records.toByteArray())
+                .flip();
+        CRC32 checksum = new CRC32();
+        checksum.update(content.duplicate());
+        ByteBuffer batch = ByteBuffer.allocate(content.remaining() + Integer.BYTES + Long.BYTES)
+                .putInt(content.remaining())
+                .putLong(checksum.getValue())
+                .put(content)
+                .flip();
+        AsyncStateWriter.execute(() -> {
+            try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                while(batch.hasRemaining()) {
+                    channel.write(batch);
+                }
+                channel.force(false);
+            }
+        });
+    }
+
+    /**
+     * Discards the changes recorded since the last commit without writing them
+     */
+    public void discard() {
+        changes.clear();
+    }
+
+    /**
+     * Discards all changes that were committed or recorded so far, because they are contained in the namespaces that were just saved.
+     * The journal is truncated after the scheduled writes of the namespaces are finished. If any write failed since the journal was last truncated,
+     * it is kept, because the changes might only be in the journal
+     */
+    public void truncate() {
+        changes.clear();
+        AsyncStateWriter.execute(() -> {
+            if(AsyncStateWriter.checkFailedWrites()) {
+                CommandExpander.LOGGER.warn("Keeping variable journal {}, because saving failed", file);
+                return;
+            }
+            Files.deleteIfExists(file.toPath());
+        });
+    }
+
+    /**
+     * Applies all completely written batches of the journal to the variable manager
+     * @return The amount of variables that were restored
+     */
+    public int replay(VariableManager manager) {
+        if(!file.exists()) {
+            return 0;
+        }
+        int restored = 0;
+        try(DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while(true) {
+                int length;
+                long expectedChecksum;
+                byte[] content;
+                try {
+                    length = input.readInt();
+                    expectedChecksum = input.readLong();
+                    if(length < 0 || length > file.length()) {
+                        CommandExpander.LOGGER.warn("Ignoring corrupted end of variable journal {}", file);
+                        break;
+                    }
+                    content = new byte[length];
+                    input.readFully(content);
+                } catch(EOFException e) {
+                    // The end of the journal or a batch that wasn't written completely
+                    break;
+                }
+                CRC32 checksum = new CRC32();
+                checksum.update(content);
+                if(checksum.getValue() != expectedChecksum) {
+                    CommandExpander.LOGGER.warn("Ignoring corrupted end of variable journal {}", file);
+                    break;
+                }
+                restored += replayBatch(new DataInputStream(new ByteArrayInputStream(content)), manager);
+            }
+        } catch(IOException e) {
+            CommandExpander.LOGGER.error("Error reading variable journal {}", file, e);
+        }
+        return restored;
+    }
+
+    private static int replayBatch(DataInputStream input, VariableManager manager) throws IOException {
+        int count = input.readInt();
+        for(int i = 0; i < count; ++i) {
+            byte operation = input.readByte();
+            String namespace = input.readUTF(), path = input.readUTF();
+            NbtCompound data = operation == SET ? NbtIo.read(input) : null;
+            VariableIdentifier id;
+            try {
+                id = new VariableIdentifier(namespace, path);
+            } catch(CommandSyntaxException e) {
+                CommandExpander.LOGGER.error("Invalid variable id in journal: {}:{}", namespace, path);
+                continue;
+            }
+            if(data == null) {
+                manager.restoreRemoved(id);
+            } else {
+                manager.restore(id, data);
+            }
+        }
+        return count;
+    }
+}
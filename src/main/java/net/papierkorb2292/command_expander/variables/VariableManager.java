@@ -9,9 +9,14 @@ import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
 import com.mojang.brigadier.exceptions.SimpleCommandExceptionType;
 import com.mojang.datafixers.util.Pair;
 import com.mojang.serialization.DataResult;
+import net.minecraft.SharedConstants;
 import net.minecraft.nbt.NbtCompound;
 import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtHelper;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtList;
 import net.minecraft.nbt.NbtOps;
+import net.minecraft.nbt.NbtString;
 import net.minecraft.scoreboard.ScoreboardCriterion;
 import net.minecraft.scoreboard.ScoreboardPlayerScore;
 import net.minecraft.scoreboard.ServerScoreboard;
@@ -22,13 +27,22 @@ import net.minecraft.world.PersistentStateManager;
 import net.papierkorb2292.command_expander.CommandExpander;
 import net.papierkorb2292.command_expander.mixin.PersistentStateManagerAccessor;
 import net.papierkorb2292.command_expander.variables.path.VariablePath;
-import org.apache.commons.lang3.ArrayUtils;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.File;
+import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 public class VariableManager {
 
@@ -51,14 +65,64 @@ public class VariableManager {
     public static final SimpleCommandExceptionType CHILD_TYPE_WAS_NULL_BUT_CHILDREN_WERE_PRESENT_EXCEPTION = new SimpleCommandExceptionType(new LiteralMessage("Child type was null but children were present"));
 
     private final PersistentStateManager stateManager;
+    /**
+     * The directory of the persistent states, which contains the files of the namespaces
+     */
+    private final File directory;
     private final Map<String, VariablePersistentState> namespaces = new HashMap<>();
     private final BoundCriteriaPersistentState criteriaPersistentState;
     final ServerScoreboard scoreboard;
+    /**
+     * The loaded variables ordered from least to most recently used, for unloading them with {@link #unloadVariables}
+     */
+    private final LinkedHashMap<VariableIdentifier, VariablePersistentState> usageOrder = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * The variables bound to any criterion, which are never unloaded. It is updated whenever bindings are added or removed (see {@link #updateBound})
+     */
+    private final Set<VariableIdentifier> boundIds = new HashSet<>();
+    /**
+     * Namespaces that were unloaded while they were still written by {@link AsyncStateWriter}. They are kept until the write is finished,
+     * so they can be saved again from memory if it failed
+     */
+    private final Map<String, VariablePersistentState> unloadedNamespaces = new HashMap<>();
+    /**
+     * Loaded when it's first needed, because it has to be built from all namespaces if it doesn't exist yet
+     */
+    private VariableCatalogPersistentState catalog;
+    private final VariableJournal journal;
+    /**
+     * Whether namespaces are saved in the binary format of {@link BinaryNamespaceFile} instead of NBT
+     */
+    private final BooleanSupplier binaryStorage;
 
     public VariableManager(PersistentStateManager stateManager, ServerScoreboard scoreboard) {
+        this(stateManager, scoreboard, () -> false);
+    }
+
+    public VariableManager(PersistentStateManager stateManager, ServerScoreboard scoreboard, BooleanSupplier binaryStorage) {
+        this(stateManager, ((PersistentStateManagerAccessor)stateManager).getDirectory(), scoreboard, binaryStorage);
+    }
+
+    /**
+     * Creates a variable manager without getting the directory from the state manager, which requires the mixins to be applied.
+     * This allows using the variable manager without a running game, for example in benchmarks
+     * @param directory The directory of the state manager
+     */
+    public VariableManager(PersistentStateManager stateManager, File directory, ServerScoreboard scoreboard, BooleanSupplier binaryStorage) {
         this.stateManager = stateManager;
+        this.directory = directory;
         this.scoreboard = scoreboard;
+        this.binaryStorage = binaryStorage;
+        preloadNamespaces();
         criteriaPersistentState = stateManager.getOrCreate(this::createBoundCriteriaPersistentState, BoundCriteriaPersistentState::new, COMMAND_VARIABLE_PREFIX + "%bindings");
+        for(CriterionBinding binding : criteriaPersistentState.bindings.values()) {
+            boundIds.addAll(binding.paths.keySet());
+        }
+        journal = new VariableJournal(new File(directory, COMMAND_VARIABLE_PREFIX + "%journal.log"));
+        int restored = journal.replay(this);
+        if(restored > 0) {
+            CommandExpander.LOGGER.info("Restored {} variable changes from the journal", restored);
+        }
     }
 
     /**
@@ -146,46 +210,398 @@ public class VariableManager {
     }
 
     public TypedVariable get(VariableIdentifier id) throws CommandSyntaxException {
-        VariablePersistentState state = stateManager.get(data -> createVariablePersistentState(data, id.namespace), COMMAND_VARIABLE_PREFIX + id.namespace);
+        VariablePersistentState state = getState(id.namespace);
         if(state == null) {
             throw VARIABLE_NOT_FOUND_EXCEPTION.create(id);
         }
-        return state.get(id.path);
+        TypedVariable result = state.get(id.path);
+        usageOrder.put(id, state);
+        return result;
     }
 
     /**
      * Loads and gets a variable, but doesn't mark it dirty, so changes are
-     * not saved unless {@link #get} is used with the same id
+     * not saved unless {@link #get} is used with the same id. Variables containing iterators are the exception,
+     * because reading them can advance the iterators
      * @param id The id of the variable to load and get
      * @return The value of the variable
      * @throws CommandSyntaxException The variable wasn't found or an error happened when loading it
      */
     public TypedVariable getReadonly(VariableIdentifier id) throws CommandSyntaxException {
-        VariablePersistentState state = stateManager.get(data -> createVariablePersistentState(data, id.namespace), COMMAND_VARIABLE_PREFIX + id.namespace);
+        VariablePersistentState state = getState(id.namespace);
         if(state == null) {
             throw VARIABLE_NOT_FOUND_EXCEPTION.create(id);
         }
-        return state.getReadonly(id.path);
+        TypedVariable result = state.getReadonly(id.path);
+        usageOrder.put(id, state);
+        if(state.containsIterator(id.path)) {
+            journal.record(id);
+        }
+        return result;
     }
 
     public void add(VariableIdentifier id, Variable.VariableType type) throws CommandSyntaxException {
-        stateManager.getOrCreate(data -> createVariablePersistentState(data, id.namespace), () -> createVariablePersistentState(new NbtCompound(), id.namespace), COMMAND_VARIABLE_PREFIX + id.namespace).add(id.path, type);
+        VariablePersistentState state = getState(id.namespace);
+        if(state == null) {
+            state = createVariablePersistentState(new NbtCompound(), id.namespace, null);
+            stateManager.set(COMMAND_VARIABLE_PREFIX + id.namespace, state);
+        }
+        state.add(id.path, type);
+        usageOrder.put(id, state);
+        getCatalog().put(id, type);
+        journal.record(id);
+    }
+
+    /**
+     * Gets a variable like {@link #getReadonly}, but returns null instead of throwing an exception if it doesn't exist
+     * @throws CommandSyntaxException An error happened when loading the variable
+     */
+    public @Nullable TypedVariable getIfExists(VariableIdentifier id) throws CommandSyntaxException {
+        VariablePersistentState state = getState(id.namespace);
+        if(state == null || !state.contains(id.path)) {
+            return null;
+        }
+        return getReadonly(id);
+    }
+
+    /**
+     * Gets a variable like {@link #getIfExists}, but doesn't record it in the journal again if it contains an iterator
+     * @throws CommandSyntaxException An error happened when loading the variable
+     */
+    @Nullable TypedVariable getForJournal(VariableIdentifier id) throws CommandSyntaxException {
+        VariablePersistentState state = getState(id.namespace);
+        if(state == null || !state.contains(id.path)) {
+            return null;
+        }
+        TypedVariable result = state.getReadonly(id.path);
+        usageOrder.put(id, state);
+        return result;
+    }
+
+    /**
+     * Records that a variable was changed, so the change is written to the journal at the end of the tick
+     * and restored if the server crashes before the namespace is saved
+     */
+    public void recordChange(VariableIdentifier id) {
+        journal.record(id);
+    }
+
+    /**
+     * Writes the changes recorded since the last call to the journal
+     * @param enabled Whether the journal is enabled by the {@link CommandExpander#VARIABLE_JOURNAL_FEATURE} gamerule. If not,
+     *                the recorded changes are discarded
+     */
+    public void commitJournal(boolean enabled) {
+        if(enabled) {
+            journal.commit(this);
+        } else {
+            journal.discard();
+        }
+    }
+
+    /**
+     * Discards the journal after the namespaces have been saved, because they contain all changes
+     */
+    public void truncateJournal() {
+        journal.truncate();
+    }
+
+    /**
+     * Replaces a variable with the value from the journal. It is decoded when it is used the next time
+     */
+    void restore(VariableIdentifier id, NbtCompound data) {
+        VariablePersistentState state = getState(id.namespace);
+        if(state == null) {
+            state = createVariablePersistentState(new NbtCompound(), id.namespace, null);
+            stateManager.set(COMMAND_VARIABLE_PREFIX + id.namespace, state);
+        }
+        state.restore(id.path, data);
+        usageOrder.remove(id);
+        Variable.VariableType.decodeType(data.getByteArray("type"), new Variable.VariableType.OffsetHolder())
+                .result()
+                .ifPresent(type -> getCatalog().put(id, type));
+    }
+
+    /**
+     * Removes a variable that was removed according to the journal
+     */
+    void restoreRemoved(VariableIdentifier id) {
+        VariablePersistentState state = getState(id.namespace);
+        if(state != null && state.contains(id.path)) {
+            try {
+                state.remove(id.path);
+            } catch (CommandSyntaxException e) {
+                CommandExpander.LOGGER.error("Unable to remove variable '{}' when replaying the journal", id, e);
+            }
+        }
+        usageOrder.remove(id);
+        getCatalog().remove(id);
+    }
+
+    /**
+     * <p>Gets the persistent state of a namespace, loading it if necessary.</p>
+     * <p>
+     *     A namespace is loaded from its binary file (see {@link BinaryNamespaceFile}) if it exists and is newer than the NBT file, otherwise
+     *     from the NBT file. If the namespace isn't stored in the format selected by the {@link CommandExpander#BINARY_VARIABLE_STORAGE_FEATURE}
+     *     gamerule, it is marked dirty, so it is migrated to that format when the world is saved.
+     * </p>
+     * @return The state or null, if the namespace doesn't exist
+     */
+    private VariablePersistentState getState(String namespace) {
+        VariablePersistentState state = namespaces.get(namespace);
+        if(state != null) {
+            return state;
+        }
+        state = unloadedNamespaces.remove(namespace);
+        if(state != null) {
+            // The namespace might still be written
+            AsyncStateWriter.flush();
+            if(state.isWriteFinished() && state.isDirty()) {
+                // The write failed, so the file is outdated
+                registerState(state);
+                return state;
+            }
+        }
+        state = readState(namespace);
+        if(state != null) {
+            registerState(state);
+        }
+        return state;
+    }
+
+    /**
+     * Reads a namespace from its file without registering it, so it can be called from any thread
+     * @return The state or null, if the namespace doesn't exist or couldn't be read
+     */
+    private @Nullable VariablePersistentState readState(String namespace) {
+        String id = COMMAND_VARIABLE_PREFIX + namespace;
+        File binaryFile = getBinaryFile(namespace), nbtFile = getFile(id);
+        if(binaryFile.exists() && (!nbtFile.exists() || binaryFile.lastModified() >= nbtFile.lastModified())) {
+            try {
+                return new VariablePersistentState(new NbtCompound(), namespace, BinaryNamespaceFile.open(binaryFile), binaryStorage);
+            } catch (IOException e) {
+                CommandExpander.LOGGER.error("Error loading binary variable namespace '{}'", namespace, e);
+            }
+        }
+        if(!nbtFile.exists()) {
+            return null;
+        }
+        // Like PersistentStateManager#get, which can't be used outside the server thread
+        try {
+            NbtCompound nbt = stateManager.readNbt(id, SharedConstants.getGameVersion().getWorldVersion());
+            return new VariablePersistentState(nbt.getCompound("data"), namespace, null, binaryStorage);
+        } catch (Exception e) {
+            CommandExpander.LOGGER.error("Error loading saved data: {}", id, e);
+            return null;
+        }
+    }
+
+    /**
+     * Makes a state read by {@link #readState} the loaded state of its namespace. If the namespace isn't stored in the format selected by
+     * the {@link CommandExpander#BINARY_VARIABLE_STORAGE_FEATURE} gamerule, it is marked dirty, so it is migrated to that format
+     */
+    private void registerState(VariablePersistentState state) {
+        namespaces.put(state.namespace, state);
+        stateManager.set(COMMAND_VARIABLE_PREFIX + state.namespace, state);
+        if(state.isBinary() != binaryStorage.getAsBoolean()) {
+            state.markDirty();
+        }
+    }
+
+    /**
+     * <p>
+     *     Loads the namespaces declared with {@link #addPreloadedNamespace} and decodes all their variables, so the first command using them
+     *     doesn't have to wait for the disk. This is called when the manager is created at server start.
+     * </p>
+     * The namespaces are read and decoded concurrently on a temporary thread pool, because they are independent of each other.
+     * Only registering them with the {@link PersistentStateManager} happens on the calling thread.
+     */
+    private void preloadNamespaces() {
+        Set<String> declared = getPreloadedNamespaces();
+        if(declared.isEmpty()) {
+            return;
+        }
+        int threads = Math.min(declared.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Command Expander Namespace Loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, CompletableFuture<VariablePersistentState>> loading = new HashMap<>();
+        for(String namespace : declared) {
+            loading.put(namespace, CompletableFuture.supplyAsync(() -> {
+                VariablePersistentState state = readState(namespace);
+                if(state != null) {
+                    state.loadAll();
+                }
+                return state;
+            }, executor));
+        }
+        executor.shutdown();
+        int loaded = 0;
+        for(Map.Entry<String, CompletableFuture<VariablePersistentState>> namespace : loading.entrySet()) {
+            VariablePersistentState state;
+            try {
+                state = namespace.getValue().join();
+            } catch (CompletionException e) {
+                CommandExpander.LOGGER.error("Error preloading variable namespace '{}'", namespace.getKey(), e.getCause());
+                continue;
+            }
+            if(state == null) {
+                CommandExpander.LOGGER.warn("Unable to preload variable namespace '{}', because it doesn't exist", namespace.getKey());
+                continue;
+            }
+            registerState(state);
+            state.getIds().forEach(id -> usageOrder.put(id, state));
+            ++loaded;
+        }
+        CommandExpander.LOGGER.info("Preloaded {} variable namespaces", loaded);
+    }
+
+    /**
+     * @return The namespaces that are loaded when the server starts (see {@link #preloadNamespaces})
+     */
+    public Set<String> getPreloadedNamespaces() {
+        return Collections.unmodifiableSet(getPreloadState().namespaces);
+    }
+
+    /**
+     * Declares that a namespace should be loaded when the server starts
+     * @return Whether the namespace wasn't declared before
+     */
+    public boolean addPreloadedNamespace(String namespace) {
+        PreloadedNamespacesPersistentState preloadState = getPreloadState();
+        if(!preloadState.namespaces.add(namespace)) {
+            return false;
+        }
+        preloadState.markDirty();
+        return true;
+    }
+
+    /**
+     * @return Whether the namespace was declared to be loaded when the server starts
+     */
+    public boolean removePreloadedNamespace(String namespace) {
+        PreloadedNamespacesPersistentState preloadState = getPreloadState();
+        if(!preloadState.namespaces.remove(namespace)) {
+            return false;
+        }
+        preloadState.markDirty();
+        return true;
+    }
+
+    private PreloadedNamespacesPersistentState getPreloadState() {
+        return stateManager.getOrCreate(PreloadedNamespacesPersistentState::new, PreloadedNamespacesPersistentState::new, COMMAND_VARIABLE_PREFIX + "%preload");
+    }
+
+    private File getBinaryFile(String namespace) {
+        return new File(directory, COMMAND_VARIABLE_PREFIX + namespace + BinaryNamespaceFile.EXTENSION);
+    }
+
+    /**
+     * @return The file of a persistent state like {@link PersistentStateManager#getFile}, which isn't accessible without the mixins
+     */
+    private File getFile(String id) {
+        return new File(directory, id + ".dat");
+    }
+
+    /**
+     * Marks a variable as changed without loading it, for variables that are modified without using {@link #get}.
+     * Nothing happens if the namespace of the variable isn't loaded, because the variable then can't be loaded either
+     */
+    public void markDirty(VariableIdentifier id) {
+        VariablePersistentState state = namespaces.get(id.namespace);
+        if(state != null) {
+            state.markDirty(id.path);
+        }
     }
 
     public void remove(VariableIdentifier id) throws CommandSyntaxException {
-        VariablePersistentState state = stateManager.get(data -> createVariablePersistentState(data, id.namespace), COMMAND_VARIABLE_PREFIX + id.namespace);
+        VariablePersistentState state = getState(id.namespace);
         if(state == null) {
             throw VARIABLE_NOT_FOUND_EXCEPTION.create(id);
         }
         state.remove(id.path);
+        usageOrder.remove(id);
+        getCatalog().remove(id);
+        journal.record(id);
+    }
+
+    /**
+     * <p>Unloads the least recently used variables until at most the given amount of variables is loaded.</p>
+     * <p>
+     *     Changes of unloaded variables are encoded before they are unloaded, so they are saved with their namespace. Variables bound to criteria
+     *     are never unloaded, because the bindings reference them. Afterwards, namespaces without loaded variables are saved and unloaded as well,
+     *     so only their files remain. Variables and namespaces are loaded again when they are accessed.
+     * </p>
+     * This must only be called when no command is running, because commands can keep references to loaded variables.
+     * @param budget The maximum amount of loaded variables or 0, if any amount is allowed
+     * @param unloadIdleNamespaces Whether namespaces without loaded variables are unloaded even if no variable had to be unloaded
+     */
+    public void unloadVariables(int budget, boolean unloadIdleNamespaces) {
+        if(budget <= 0) {
+            return;
+        }
+        boolean unloadedVariables = false;
+        if(usageOrder.size() > budget) {
+            int excess = usageOrder.size() - budget;
+            Iterator<Map.Entry<VariableIdentifier, VariablePersistentState>> it = usageOrder.entrySet().iterator();
+            while(excess > 0 && it.hasNext()) {
+                Map.Entry<VariableIdentifier, VariablePersistentState> entry = it.next();
+                if(boundIds.contains(entry.getKey())) {
+                    continue;
+                }
+                entry.getValue().unload(entry.getKey().path);
+                it.remove();
+                --excess;
+                unloadedVariables = true;
+            }
+        }
+        if(unloadedVariables || unloadIdleNamespaces) {
+            unloadedNamespaces.values().removeIf(state -> {
+                if(!state.isWriteFinished()) {
+                    return false;
+                }
+                if(state.isDirty()) {
+                    // The write failed, so the namespace is loaded again and saved again below
+                    registerState(state);
+                }
+                return true;
+            });
+            namespaces.values().removeIf(state -> {
+                if(state.hasLoadedVariables()) {
+                    return false;
+                }
+                String id = COMMAND_VARIABLE_PREFIX + state.namespace;
+                state.save(getFile(id));
+                if(!state.isWriteFinished()) {
+                    unloadedNamespaces.put(state.namespace, state);
+                }
+                ((PersistentStateManagerAccessor)stateManager).getLoadedStates().remove(id);
+                return true;
+            });
+        }
+    }
+
+    /**
+     * Updates whether the variable is in {@link #boundIds} after bindings of it were added or removed
+     */
+    private void updateBound(VariableIdentifier id) {
+        for(CriterionBinding binding : criteriaPersistentState.bindings.values()) {
+            if(binding.paths.containsKey(id)) {
+                boundIds.add(id);
+                return;
+            }
+        }
+        boundIds.remove(id);
     }
 
     public Stream<VariableIdentifier> getIds() {
         return this.namespaces.entrySet().stream().flatMap(entry -> entry.getValue().getIds());
     }
 
-    private VariablePersistentState createVariablePersistentState(NbtCompound data, String namespace) {
-        VariablePersistentState state = new VariablePersistentState(data, namespace);
+    private VariablePersistentState createVariablePersistentState(NbtCompound data, String namespace, @Nullable BinaryNamespaceFile binary) {
+        VariablePersistentState state = new VariablePersistentState(data, namespace, binary, binaryStorage);
         namespaces.put(namespace, state);
         return state;
     }
@@ -200,16 +616,72 @@ public class VariableManager {
         TYPES_BY_ID.add(template);
     }
 
+    /**
+     * @return The namespaces that contain variables. They are read from the catalog, so no namespace is loaded
+     */
     public Set<String> getNamespaces() {
-        File variables = new File(((PersistentStateManagerAccessor)stateManager).getDirectory(), COMMAND_VARIABLE_PREFIX);
+        return Collections.unmodifiableSet(getCatalog().namespaces.keySet());
+    }
+
+    /**
+     * @return The names of the variables in the namespace. They are read from the catalog, so the namespace isn't loaded
+     */
+    public Set<String> getVariables(String namespace) {
+        return getVariableTypes(namespace).keySet();
+    }
+
+    /**
+     * @return The names of the variables in the namespace mapped to their types as strings (see {@link Variable.VariableType#asString}).
+     * They are read from the catalog, so the namespace isn't loaded
+     */
+    public Map<String, String> getVariableTypes(String namespace) {
+        Map<String, String> variables = getCatalog().namespaces.get(namespace);
+        return variables == null ? Collections.emptyMap() : Collections.unmodifiableMap(variables);
+    }
+
+    private VariableCatalogPersistentState getCatalog() {
+        if(catalog == null) {
+            catalog = stateManager.get(VariableCatalogPersistentState::new, COMMAND_VARIABLE_PREFIX + "%catalog");
+            if(catalog == null) {
+                catalog = buildCatalog();
+                stateManager.set(COMMAND_VARIABLE_PREFIX + "%catalog", catalog);
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Creates the catalog for worlds that were saved without it by loading every namespace once.
+     * The namespaces without loaded variables are unloaded again by {@link #unloadVariables}
+     */
+    private VariableCatalogPersistentState buildCatalog() {
+        VariableCatalogPersistentState catalog = new VariableCatalogPersistentState();
+        for(String namespace : scanNamespaces()) {
+            VariablePersistentState state = getState(namespace);
+            if(state == null) {
+                continue;
+            }
+            Map<String, String> types = state.getTypes();
+            if(!types.isEmpty()) {
+                catalog.namespaces.put(namespace, new HashMap<>(types));
+            }
+        }
+        catalog.markDirty();
+        return catalog;
+    }
+
+    private Set<String> scanNamespaces() {
+        File variables = new File(directory, COMMAND_VARIABLE_PREFIX);
         File[] files = variables.listFiles();
         if(files == null) {
             return Collections.emptySet();
         }
         Set<String> result = Arrays.stream(files)
                 .map(File::getName)
-                .filter(name -> name.endsWith(".dat"))
-                .map(name -> name.substring(0, name.length() - 4))
+                .map(name -> name.endsWith(".dat") ? name.substring(0, name.length() - 4)
+                        : name.endsWith(BinaryNamespaceFile.EXTENSION) ? name.substring(0, name.length() - BinaryNamespaceFile.EXTENSION.length())
+                        : null)
+                .filter(Objects::nonNull)
                 .filter(name -> !VariableIdentifier.isNameInvalid(name))
                 .collect(Collectors.toSet());
 
@@ -218,14 +690,6 @@ public class VariableManager {
         return result;
     }
 
-    public Set<String> getVariables(String namespace) {
-        VariablePersistentState state = stateManager.get(data -> createVariablePersistentState(data, namespace), COMMAND_VARIABLE_PREFIX + namespace);;
-        if(state == null) {
-            return Collections.emptySet();
-        }
-        return state.getIds().map(id -> id.path).collect(Collectors.toSet());
-    }
-
     @FunctionalInterface
     public interface Caster {
         /**
@@ -242,50 +706,362 @@ public class VariableManager {
 
         private final NbtCompound data;
         private final Map<String, TypedVariable> loadedVariables = new HashMap<>();
+        /**
+         * The loaded variables that might have changed since they were last encoded. All other variables are up to date in {@link #data}
+         */
+        private final Set<String> dirtyVariables = new HashSet<>();
+        /**
+         * The loaded variables whose type contains an iterator. Reading them can advance the iterator, so they are marked dirty whenever they are read
+         */
+        private final Set<String> iteratorVariables = new HashSet<>();
+        /**
+         * Variables stored as uncompressed NBT, which were encoded by {@link StreamingVariableCodec} or copied from the binary file. A variable is either in here or in {@link #data}
+         */
+        private final Map<String, byte[]> encoded = new HashMap<>();
         private final String namespace;
+        /**
+         * The binary file the namespace was loaded from or null, if it was loaded from NBT. Variables that aren't in {@link #data} are read from it when they are loaded
+         */
+        private @Nullable BinaryNamespaceFile binary;
+        private final BooleanSupplier binaryStorage;
+        /**
+         * The last write scheduled by {@link #save} or null, if it was already handled by {@link #finishWrite}
+         */
+        private @Nullable Future<Boolean> pendingWrite;
+        /**
+         * The binary file written by {@link #pendingWrite} or null, if it writes the NBT file or replaces {@link #binary}, which then maps the new file itself
+         */
+        private @Nullable File pendingBinaryFile;
 
         public VariablePersistentState(NbtCompound data, String namespace) {
+            this(data, namespace, null, () -> false);
+        }
+
+        /**
+         * @param binary The binary file the namespace was loaded from or null, if it was loaded from NBT
+         * @param binaryStorage Whether the namespace should be saved in the binary format
+         */
+        public VariablePersistentState(NbtCompound data, String namespace, @Nullable BinaryNamespaceFile binary, BooleanSupplier binaryStorage) {
             this.data = data;
             this.namespace = namespace;
+            this.binary = binary;
+            this.binaryStorage = binaryStorage;
+        }
+
+        public boolean isBinary() {
+            return binary != null;
         }
 
+        /**
+         * Only the dirty variables are encoded again. Their new elements replace the old ones in {@link #data} and {@link #encoded}, which are used as cache for the encoded variables.<br/>
+         * The elements are put into the result without copying them, because they are never modified.
+         * This allows using the result as a snapshot that is written on another thread.
+         * {@link #save} doesn't use this method and writes the streamed variables without reading them into NBT elements
+         */
         @Override
         public NbtCompound writeNbt(NbtCompound nbt) {
-            nbt.copyFrom(data);
-            for(Map.Entry<String, TypedVariable> entry : loadedVariables.entrySet()) {
-                DataResult<NbtElement> dataResult = TypedVariable.encode(entry.getValue(), NbtOps.INSTANCE, NbtOps.INSTANCE.empty());
-                Optional<NbtElement> parsedElement = dataResult.resultOrPartial(VariableManager.dumpError);
-                if(dataResult.error().isPresent()) {
-                    if(parsedElement.isPresent()) {
-                        CommandExpander.LOGGER.error("Error encoding variable '{}': {}", new Identifier(namespace, entry.getKey()), dataResult.error().get().message());
-                        continue;
-                    }
-                    CommandExpander.LOGGER.error("FATAL error encoding variable '{}', no data could be recovered: {}", new Identifier(namespace, entry.getKey()), dataResult.error().get().message());
-                    continue;
+            encodeDirtyVariables();
+            for(String name : data.getKeys()) {
+                nbt.put(name, data.get(name));
+            }
+            for(Map.Entry<String, byte[]> variable : encoded.entrySet()) {
+                try {
+                    nbt.put(variable.getKey(), NbtIo.read(new DataInputStream(new ByteArrayInputStream(variable.getValue()))));
+                } catch (IOException e) {
+                    CommandExpander.LOGGER.error("Error reading encoded variable '{}'", new Identifier(namespace, variable.getKey()), e);
                 }
+            }
+            return nbt;
+        }
+
+        private void encodeDirtyVariables() {
+            for(String name : dirtyVariables) {
+                encodeVariable(name);
+            }
+            dirtyVariables.clear();
+        }
+
+        /**
+         * Encodes the variable with {@link StreamingVariableCodec}, which is much faster for large lists and maps. The codecs are only used if that fails
+         */
+        private void encodeVariable(String name) {
+            TypedVariable var = loadedVariables.get(name);
+            if(var == null) {
+                return;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                StreamingVariableCodec.write(var, new DataOutputStream(bytes));
+                encoded.put(name, bytes.toByteArray());
+                data.remove(name);
+                return;
+            } catch (IOException e) {
+                CommandExpander.LOGGER.warn("Unable to stream variable '{}', encoding it with its codec instead", new Identifier(namespace, name), e);
+            }
+            DataResult<NbtElement> dataResult = TypedVariable.encode(var, NbtOps.INSTANCE, NbtOps.INSTANCE.empty());
+            Optional<NbtElement> parsedElement = dataResult.resultOrPartial(VariableManager.dumpError);
+            if(dataResult.error().isPresent()) {
+                // The last successfully encoded element is kept
                 if(parsedElement.isPresent()) {
-                    nbt.put(entry.getKey(), parsedElement.get());
+                    CommandExpander.LOGGER.error("Error encoding variable '{}': {}", new Identifier(namespace, name), dataResult.error().get().message());
+                    return;
                 }
+                CommandExpander.LOGGER.error("FATAL error encoding variable '{}', no data could be recovered: {}", new Identifier(namespace, name), dataResult.error().get().message());
+                return;
             }
-            return nbt;
+            parsedElement.ifPresent(element -> {
+                data.put(name, element);
+                encoded.remove(name);
+            });
+        }
+
+        /**
+         * Removes a variable from memory. If it was changed, it is encoded first, so it is loaded with the changes again and saved with the namespace.
+         * Variables containing iterators are always encoded, because they can be advanced while being read
+         */
+        public void unload(String name) {
+            if(dirtyVariables.remove(name) | iteratorVariables.contains(name)) {
+                encodeVariable(name);
+                markDirty();
+            }
+            loadedVariables.remove(name);
+            iteratorVariables.remove(name);
+        }
+
+        public boolean contains(String name) {
+            return loadedVariables.containsKey(name) || data.contains(name, NbtElement.COMPOUND_TYPE) || encoded.containsKey(name) || binary != null && binary.contains(name);
+        }
+
+        /**
+         * Replaces a variable with encoded data, which is decoded when the variable is loaded the next time
+         */
+        public void restore(String name, NbtCompound variableData) {
+            loadedVariables.remove(name);
+            iteratorVariables.remove(name);
+            dirtyVariables.remove(name);
+            encoded.remove(name);
+            data.put(name, variableData);
+            markDirty();
+        }
+
+        public boolean hasLoadedVariables() {
+            return !loadedVariables.isEmpty();
+        }
+
+        /**
+         * Marks a single variable as changed, so it is encoded again when the namespace is saved
+         */
+        public void markDirty(String name) {
+            dirtyVariables.add(name);
+            markDirty();
         }
 
+        /**
+         * Encodes the variables on the server thread, so the result is consistent even if the variables are modified afterwards,
+         * but leaves compressing and writing the file to {@link AsyncStateWriter}.<br/>
+         * In the binary format, variables that weren't loaded are copied from the mapping of the previous binary file without decoding them.
+         * The previous file is replaced by the new one on the writer thread (see {@link BinaryNamespaceFile#replace}), so it waits for the previous write
+         * of the namespace first, whose file it reads from. If the namespace was stored as NBT, the new file is opened by {@link #finishWrite} once it has been written.
+         * The file of the other format is deleted afterwards, so a namespace is migrated between the formats when it is saved.
+         * @param file The NBT file of the namespace. The binary file is next to it
+         */
         @Override
         public void save(File file) {
             if(!isDirty()) {
+                finishWrite();
                 return;
             }
-            if(!file.exists()) {
-                //noinspection ResultOfMethodCallIgnored
-                file.getParentFile().mkdirs(); //parent folders have to be created
+            if(pendingWrite != null && binary != null) {
+                try {
+                    pendingWrite.get();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch(ExecutionException e) {
+                    // Handled by finishWrite
+                }
+            }
+            finishWrite();
+            File binaryFile = new File(file.getParentFile(), namespace + BinaryNamespaceFile.EXTENSION);
+            if(binaryStorage.getAsBoolean()) {
+                encodeDirtyVariables();
+                Map<String, NbtCompound> elements = new HashMap<>();
+                for(String name : data.getKeys()) {
+                    if(data.get(name) instanceof NbtCompound compound) {
+                        elements.put(name, compound);
+                    }
+                }
+                Map<String, ByteBuffer> rawEntries = new HashMap<>();
+                BinaryNamespaceFile replaced = binary;
+                if(replaced != null) {
+                    rawEntries.putAll(replaced.getRawEntries(replaced.getNames().stream().filter(name -> !elements.containsKey(name) && !encoded.containsKey(name)).toList()));
+                }
+                encoded.forEach((name, bytes) -> rawEntries.put(name, ByteBuffer.wrap(bytes).asReadOnlyBuffer()));
+                pendingWrite = AsyncStateWriter.write(binaryFile, temporary -> BinaryNamespaceFile.write(temporary, elements, rawEntries), file,
+                        replaced == null ? AsyncStateWriter.Task::run : move -> replaced.replace(binaryFile, move));
+                pendingBinaryFile = replaced == null ? binaryFile : null;
+            } else {
+                byte[] nbt;
+                try {
+                    nbt = writeStreamedNbt();
+                } catch (IOException e) {
+                    CommandExpander.LOGGER.error("Error writing variable namespace '{}'", namespace, e);
+                    return;
+                }
+                if(binary != null) {
+                    // The NBT file isn't read lazily, so the variables that are only in the binary file are kept in memory before it is deleted
+                    for(String name : binary.getNames()) {
+                        if(!data.contains(name) && !encoded.containsKey(name)) {
+                            ByteBuffer raw = binary.getRawEntry(name);
+                            byte[] bytes = new byte[raw.remaining()];
+                            raw.get(bytes);
+                            encoded.put(name, bytes);
+                        }
+                    }
+                    binary.close();
+                }
+                pendingWrite = AsyncStateWriter.write(file, temporary -> {
+                    try(OutputStream output = new GZIPOutputStream(new FileOutputStream(temporary))) {
+                        output.write(nbt);
+                    }
+                }, binary == null ? null : binaryFile);
+                pendingBinaryFile = null;
+                binary = null;
+            }
+            setDirty(false);
+        }
+
+        /**
+         * @return Whether the writes scheduled by {@link #save} are finished. If the last one failed, the namespace is dirty again
+         */
+        boolean isWriteFinished() {
+            finishWrite();
+            return pendingWrite == null;
+        }
+
+        /**
+         * Handles the last write scheduled by {@link #save} if it is finished. If it failed, the namespace is marked dirty again,
+         * so it is written again by the next save. A binary file that was written for a namespace stored as NBT before is opened,
+         * so the variables that aren't loaded are read from the disk instead of from memory
+         */
+        private void finishWrite() {
+            if(pendingWrite == null || !pendingWrite.isDone()) {
+                return;
+            }
+            boolean written;
+            try {
+                written = pendingWrite.get();
+            } catch (InterruptedException | ExecutionException e) {
+                written = false;
+            }
+            File binaryFile = pendingBinaryFile;
+            pendingWrite = null;
+            pendingBinaryFile = null;
+            if(!written) {
+                markDirty();
+                return;
+            }
+            if(binaryFile == null) {
+                return;
+            }
+            BinaryNamespaceFile opened;
+            try {
+                opened = BinaryNamespaceFile.open(binaryFile);
+            } catch (IOException e) {
+                CommandExpander.LOGGER.error("Error opening written binary variable namespace '{}', keeping it in memory", namespace, e);
+                return;
+            }
+            for(String name : List.copyOf(opened.getNames())) {
+                // Removed while the file was written
+                if(!contains(name)) {
+                    opened.remove(name);
+                }
+            }
+            if(binary != null) {
+                binary.close();
+            }
+            binary = opened;
+        }
+
+        /**
+         * Writes the uncompressed NBT file of the namespace like {@link NbtIo#write(NbtCompound, DataOutput)} would write the NBT of {@link #writeNbt},
+         * but copies the variables that were streamed or are in the binary file instead of reading them into NBT elements first.
+         * This is done on the server thread, so the result is a snapshot.
+         */
+        private byte[] writeStreamedNbt() throws IOException {
+            encodeDirtyVariables();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeByte(NbtElement.COMPOUND_TYPE);
+            output.writeUTF("");
+            output.writeByte(NbtElement.COMPOUND_TYPE);
+            output.writeUTF("data");
+            for(String name : data.getKeys()) {
+                NbtElement element = data.get(name);
+                output.writeByte(element.getType());
+                output.writeUTF(name);
+                element.write(output);
+            }
+            for(Map.Entry<String, byte[]> variable : encoded.entrySet()) {
+                writeRootCompoundAs(variable.getKey(), ByteBuffer.wrap(variable.getValue()), output);
+            }
+            if(binary != null) {
+                for(String name : binary.getNames()) {
+                    if(!data.contains(name) && !encoded.containsKey(name)) {
+                        writeRootCompoundAs(name, binary.getRawEntry(name), output);
+                    }
+                }
             }
-            super.save(file);
+            output.writeByte(NbtElement.END_TYPE);
+            NbtCompound dataVersion = new NbtCompound();
+            NbtHelper.putDataVersion(dataVersion);
+            for(String key : dataVersion.getKeys()) {
+                NbtElement element = dataVersion.get(key);
+                output.writeByte(element.getType());
+                output.writeUTF(key);
+                element.write(output);
+            }
+            output.writeByte(NbtElement.END_TYPE);
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Writes the NBT of a root compound, which starts with its type and an empty name, as compound with the given name
+         */
+        private static void writeRootCompoundAs(String name, ByteBuffer rootCompound, DataOutputStream output) throws IOException {
+            // The type and the length of the empty name
+            final int rootHeaderLength = 3;
+            ByteBuffer payload = rootCompound.duplicate();
+            payload.position(payload.position() + rootHeaderLength);
+            output.writeByte(NbtElement.COMPOUND_TYPE);
+            output.writeUTF(name);
+            byte[] copied = new byte[payload.remaining()];
+            payload.get(copied);
+            output.write(copied);
         }
 
         private TypedVariable getOrLoad(String name) throws CommandSyntaxException {
             TypedVariable result = loadedVariables.get(name);
             if(result == null) {
+                finishWrite();
                 NbtElement variableDataElement = data.get(name);
+                if(variableDataElement == null) {
+                    ByteBuffer raw = getRawData(name);
+                    if(raw != null) {
+                        try {
+                            result = StreamingVariableCodec.read(new DataInputStream(new BinaryNamespaceFile.ByteBufferInputStream(raw.duplicate())));
+                            putLoaded(name, result);
+                            return result;
+                        } catch (IOException e) {
+                            // Not written by StreamingVariableCodec or containing unsupported types, so it has to be decoded by the codecs
+                        }
+                        try {
+                            variableDataElement = NbtIo.read(new DataInputStream(new BinaryNamespaceFile.ByteBufferInputStream(raw.duplicate())));
+                        } catch (IOException e) {
+                            CommandExpander.LOGGER.error("Error reading variable '{}'", new Identifier(namespace, name), e);
+                            throw UNABLE_TO_DECODE_VARIABLE_EXCEPTION.create(new Identifier(namespace, name));
+                        }
+                    }
+                }
                 if(variableDataElement == null) {
                     throw VARIABLE_NOT_FOUND_EXCEPTION.create(new Identifier(namespace, name));
                 }
@@ -296,11 +1072,6 @@ public class VariableManager {
                     throw VARIABLE_DATA_MISSING_ELEMENT_EXCEPTION.create(new Identifier(namespace, name), "type");
                 }
 
-                if(ArrayUtils.contains(variableData.getByteArray("type"), IteratorVariable.IteratorVariableType.TEMPLATE.id)) {
-                    // Iterators can be modified at any time, so the state is always marked dirty upon loading one
-                    markDirty();
-                }
-
                 DataResult<Pair<TypedVariable, NbtElement>> dataResult = TypedVariable.decode(variableDataElement, NbtOps.INSTANCE);
                 Optional<Pair<TypedVariable, NbtElement>> var = dataResult.resultOrPartial(VariableManager.dumpError);
                 if(dataResult.error().isPresent()) {
@@ -314,23 +1085,120 @@ public class VariableManager {
                 }
                 if(var.isPresent()) {
                     result = var.get().getFirst();
-                    loadedVariables.put(name, result);
+                    putLoaded(name, result);
                 }
             }
             return result;
         }
 
+        private void putLoaded(String name, TypedVariable var) {
+            loadedVariables.put(name, var);
+            if(containsIterator(var.type)) {
+                iteratorVariables.add(name);
+            }
+        }
+
+        private static boolean containsIterator(@Nullable Variable.VariableType type) {
+            if(type == null) {
+                return false;
+            }
+            if(type.getTemplate() == IteratorVariable.IteratorVariableType.TEMPLATE) {
+                return true;
+            }
+            for(int i = 0; i < type.getTemplate().childrenCount; ++i) {
+                if(containsIterator(type.getChild(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return The uncompressed NBT of a variable that isn't in {@link #data} or null, if there's none
+         */
+        private @Nullable ByteBuffer getRawData(String name) {
+            byte[] bytes = encoded.get(name);
+            if(bytes != null) {
+                return ByteBuffer.wrap(bytes);
+            }
+            return binary == null ? null : binary.getRawEntry(name);
+        }
+
+        /**
+         * Loads every variable of the namespace. This only accesses the state itself, so it can be done on another thread before the state is registered
+         */
+        void loadAll() {
+            for(String name : getNames().toList()) {
+                try {
+                    getOrLoad(name);
+                } catch (CommandSyntaxException e) {
+                    CommandExpander.LOGGER.error("Error preloading variable '{}'", new Identifier(namespace, name), e);
+                }
+            }
+        }
+
         public TypedVariable get(String name) throws CommandSyntaxException {
-            markDirty(); //The variable can be changed without the state knowing
-            return getOrLoad(name);
+            TypedVariable result = getOrLoad(name);
+            markDirty(name); //The variable can be changed without the state knowing
+            return result;
         }
 
+        /**
+         * Gets a variable without marking it dirty, unless its type contains an iterator. Iterators are advanced when they are read,
+         * so those variables are marked on every read and are saved whenever they might have changed
+         */
         public TypedVariable getReadonly(String name) throws CommandSyntaxException {
-            return getOrLoad(name);
+            TypedVariable result = getOrLoad(name);
+            if(iteratorVariables.contains(name)) {
+                markDirty(name);
+            }
+            return result;
+        }
+
+        /**
+         * @return Whether the variable is loaded and its type contains an iterator
+         */
+        boolean containsIterator(String name) {
+            return iteratorVariables.contains(name);
+        }
+
+        /**
+         * @return The names of all variables mapped to their types as strings. Variables that aren't loaded aren't decoded for this
+         */
+        public Map<String, String> getTypes() {
+            Map<String, String> result = new HashMap<>();
+            getNames().forEach(name -> {
+                TypedVariable loaded = loadedVariables.get(name);
+                if(loaded != null) {
+                    result.put(name, loaded.type.asString());
+                    return;
+                }
+                NbtElement variableData = data.get(name);
+                ByteBuffer raw = variableData == null ? getRawData(name) : null;
+                if(raw != null) {
+                    try {
+                        result.put(name, StreamingVariableCodec.readType(new DataInputStream(new BinaryNamespaceFile.ByteBufferInputStream(raw.duplicate()))).asString());
+                        return;
+                    } catch (IOException e) {
+                        // The type isn't at the start, so the whole variable has to be read
+                    }
+                    try {
+                        variableData = NbtIo.read(new DataInputStream(new BinaryNamespaceFile.ByteBufferInputStream(raw.duplicate())));
+                    } catch (IOException e) {
+                        CommandExpander.LOGGER.error("Error reading variable '{}'", new Identifier(namespace, name), e);
+                    }
+                }
+                if(variableData instanceof NbtCompound compound && compound.contains("type", NbtElement.BYTE_ARRAY_TYPE)) {
+                    Variable.VariableType.decodeType(compound.getByteArray("type"), new Variable.VariableType.OffsetHolder())
+                            .resultOrPartial(error -> CommandExpander.LOGGER.error("Error decoding type of variable '{}': {}", new Identifier(namespace, name), error))
+                            .ifPresent(type -> result.put(name, type.asString()));
+                }
+            });
+            return result;
         }
 
         public Stream<VariableIdentifier> getIds() {
-            return data.getKeys().stream().map(key -> {
+            return getNames().map(key -> {
                 try {
                     return new VariableIdentifier(namespace, key);
                 } catch (CommandSyntaxException e) {
@@ -340,12 +1208,22 @@ public class VariableManager {
             }).filter(Objects::nonNull);
         }
 
+        private Stream<String> getNames() {
+            Stream<String> names = Stream.concat(data.getKeys().stream(), encoded.keySet().stream());
+            names = Stream.concat(names, loadedVariables.keySet().stream().filter(name -> !data.contains(name) && !encoded.containsKey(name)));
+            if(binary != null) {
+                names = Stream.concat(names, binary.getNames().stream().filter(name -> !data.contains(name) && !encoded.containsKey(name) && !loadedVariables.containsKey(name)));
+            }
+            return names;
+        }
+
         public void add(String name, Variable.VariableType type) throws CommandSyntaxException {
-            if(loadedVariables.containsKey(name) || data.contains(name, NbtElement.COMPOUND_TYPE)) {
+            if(contains(name)) {
                 throw VARIABLE_ALREADY_EXISTS_EXCEPTION.create(new Identifier(namespace, name));
             }
-            loadedVariables.put(name, new TypedVariable(type, null));
-            markDirty();
+            // Types of loaded variables are shared with the decoded ones, which also makes encoding them a lookup
+            putLoaded(name, new TypedVariable(VariableTypeInterner.intern(type), null));
+            markDirty(name);
         }
 
         public void remove(String name) throws CommandSyntaxException {
@@ -354,9 +1232,17 @@ public class VariableManager {
                 found = true;
                 data.remove(name);
             }
+            if(encoded.remove(name) != null) {
+                found = true;
+            }
             if(loadedVariables.remove(name) != null) {
                 found = true;
             }
+            iteratorVariables.remove(name);
+            if(binary != null && binary.remove(name)) {
+                found = true;
+            }
+            dirtyVariables.remove(name);
             if(!found) {
                 throw VARIABLE_NOT_FOUND_EXCEPTION.create(new Identifier(namespace, name));
             }
@@ -370,14 +1256,24 @@ public class VariableManager {
             for (CriterionPath.BoundVariable boundVariable : binding.variables) {
                 action.accept(boundVariable.getScore(player));
             }
+            // The bound variables don't know their ids, so every variable bound to the criterion is marked
+            for(VariableIdentifier id : binding.paths.keySet()) {
+                markDirty(id);
+                journal.record(id);
+            }
         }
     }
 
     public int bindCriteria(VariablePath path, List<String> criteria, CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
         int addedBindings = 0;
-        for(String criterion : criteria) {
-            CriterionBinding criterionBinding = criteriaPersistentState.bindings.computeIfAbsent(criterion, key -> new CriterionBinding());
-            addedBindings += criterionBinding.bind(path, this, context);
+        try {
+            for(String criterion : criteria) {
+                CriterionBinding criterionBinding = criteriaPersistentState.bindings.computeIfAbsent(criterion, key -> new CriterionBinding());
+                addedBindings += criterionBinding.bind(path, this, context);
+            }
+        } finally {
+            // The path is added to the binding before the variable is evaluated
+            updateBound(path.getBase());
         }
         if(addedBindings > 0) {
             criteriaPersistentState.markDirty();
@@ -387,11 +1283,15 @@ public class VariableManager {
 
     public int unbindCriteria(VariablePath path, List<String> criteria, CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
         int removedBindings = 0;
-        for(String criterion : criteria) {
-            CriterionBinding criterionBinding = criteriaPersistentState.bindings.get(criterion);
-            if(criterionBinding != null) {
-                removedBindings += criterionBinding.unbind(path, this, context);
+        try {
+            for(String criterion : criteria) {
+                CriterionBinding criterionBinding = criteriaPersistentState.bindings.get(criterion);
+                if(criterionBinding != null) {
+                    removedBindings += criterionBinding.unbind(path, this, context);
+                }
             }
+        } finally {
+            updateBound(path.getBase());
         }
         if(removedBindings > 0) {
             criteriaPersistentState.markDirty();
@@ -422,6 +1322,85 @@ public class VariableManager {
                 iterator.remove();
             }
         }
+        updateBound(path.getBase());
+    }
+
+    /**
+     * The names and types of the variables in every namespace, so they can be listed and suggested without loading the namespaces.
+     * It is updated when variables are added or removed
+     */
+    public static class VariableCatalogPersistentState extends PersistentState {
+
+        final Map<String, Map<String, String>> namespaces = new HashMap<>();
+
+        public VariableCatalogPersistentState() { }
+
+        public VariableCatalogPersistentState(NbtCompound data) {
+            for(String namespace : data.getKeys()) {
+                NbtCompound variables = data.getCompound(namespace);
+                Map<String, String> types = new HashMap<>();
+                for(String name : variables.getKeys()) {
+                    types.put(name, variables.getString(name));
+                }
+                namespaces.put(namespace, types);
+            }
+        }
+
+        void put(VariableIdentifier id, Variable.VariableType type) {
+            namespaces.computeIfAbsent(id.namespace, namespace -> new HashMap<>()).put(id.path, type.asString());
+            markDirty();
+        }
+
+        void remove(VariableIdentifier id) {
+            Map<String, String> variables = namespaces.get(id.namespace);
+            if(variables == null) {
+                return;
+            }
+            variables.remove(id.path);
+            if(variables.isEmpty()) {
+                namespaces.remove(id.namespace);
+            }
+            markDirty();
+        }
+
+        @Override
+        public NbtCompound writeNbt(NbtCompound nbt) {
+            for(Map.Entry<String, Map<String, String>> namespace : namespaces.entrySet()) {
+                NbtCompound variables = new NbtCompound();
+                for(Map.Entry<String, String> variable : namespace.getValue().entrySet()) {
+                    variables.putString(variable.getKey(), variable.getValue());
+                }
+                nbt.put(namespace.getKey(), variables);
+            }
+            return nbt;
+        }
+    }
+
+    /**
+     * The namespaces that are loaded when the server starts, declared with "/var preload".
+     * Its nbt form is a compound containing the namespaces as list of strings
+     */
+    public static class PreloadedNamespacesPersistentState extends PersistentState {
+
+        final Set<String> namespaces = new LinkedHashSet<>();
+
+        public PreloadedNamespacesPersistentState() { }
+
+        public PreloadedNamespacesPersistentState(NbtCompound data) {
+            for(NbtElement namespace : data.getList("namespaces", NbtElement.STRING_TYPE)) {
+                namespaces.add(namespace.asString());
+            }
+        }
+
+        @Override
+        public NbtCompound writeNbt(NbtCompound nbt) {
+            NbtList list = new NbtList();
+            for(String namespace : namespaces) {
+                list.add(NbtString.of(namespace));
+            }
+            nbt.put("namespaces", list);
+            return nbt;
+        }
     }
 
     /**
@@ -0,0 +1,151 @@
+package net.papierkorb2292.command_expander.variables;
+
+import com.mojang.serialization.DataResult;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ *     Keeps one canonical instance for every structural {@link Variable.VariableType} together with its encoding, so encoding and decoding the types of
+ *     variables when saving and loading them are mostly table lookups. Because equal types share instances, {@link Variable.VariableType#typeEquals}
+ *     and {@link Variable.VariableType#instanceOf} can return early when they compare a type with itself.
+ * </p>
+ * <p>
+ *     The encoding lists the ids of the templates in pre-order, which is the order {@link Variable.VariableType#decodeType} reads them in.
+ *     Missing children are encoded as {@link #NULL_ID}.
+ * </p>
+ * Canonical instances are shared, so their children must never be changed with {@link Variable.VariableType#setChild}.
+ */
+final class VariableTypeInterner {
+
+    private VariableTypeInterner() { } //Prevent instantiations
+
+    private static final byte NULL_ID = -1;
+
+    private static final Map<ByteBuffer, Variable.VariableType> TYPES_BY_ENCODING = new ConcurrentHashMap<>();
+    /**
+     * The encodings of the canonical instances. Types don't override {@link Object#equals}, so only canonical instances are found
+     */
+    private static final Map<Variable.VariableType, byte[]> ENCODINGS = new ConcurrentHashMap<>();
+
+    /**
+     * @return The canonical instance of the type
+     */
+    static Variable.VariableType intern(Variable.VariableType type) {
+        if(type == null || ENCODINGS.containsKey(type)) {
+            return type;
+        }
+        return intern(encode(type));
+    }
+
+    private static Variable.VariableType intern(byte[] encoded) {
+        Variable.VariableType canonical = TYPES_BY_ENCODING.get(ByteBuffer.wrap(encoded));
+        if(canonical != null) {
+            return canonical;
+        }
+        try {
+            canonical = parse(encoded, new Variable.VariableType.OffsetHolder(), true);
+        } catch(InvalidTypeException e) {
+            throw new IllegalArgumentException("Unable to intern variable type: " + e.getMessage());
+        }
+        Variable.VariableType previous = TYPES_BY_ENCODING.putIfAbsent(ByteBuffer.wrap(encoded), canonical);
+        if(previous != null) {
+            return previous;
+        }
+        ENCODINGS.put(canonical, encoded);
+        return canonical;
+    }
+
+    /**
+     * @return A new array containing the encoded type
+     */
+    static byte[] getEncoded(Variable.VariableType type) {
+        byte[] encoded = ENCODINGS.get(type);
+        return encoded == null ? encode(type) : encoded.clone();
+    }
+
+    static DataResult<Variable.VariableType> decode(byte[] type, Variable.VariableType.OffsetHolder offset) {
+        if(offset.value == 0) {
+            Variable.VariableType canonical = TYPES_BY_ENCODING.get(ByteBuffer.wrap(type));
+            if(canonical != null) {
+                offset.value = type.length;
+                return DataResult.success(canonical);
+            }
+        }
+        int start = offset.value;
+        try {
+            parse(type, offset, false);
+        } catch(InvalidTypeException e) {
+            return DataResult.error(e.getMessage());
+        }
+        byte[] encoded = new byte[offset.value - start];
+        System.arraycopy(type, start, encoded, 0, encoded.length);
+        return DataResult.success(intern(encoded));
+    }
+
+    private static byte[] encode(Variable.VariableType type) {
+        byte[] encoded = new byte[countNodes(type)];
+        encode(type, encoded, 0);
+        return encoded;
+    }
+
+    private static int countNodes(Variable.VariableType type) {
+        if(type == null) {
+            return 1;
+        }
+        int count = 1;
+        for(int i = 0; i < type.getTemplate().childrenCount; ++i) {
+            count += countNodes(type.getChild(i));
+        }
+        return count;
+    }
+
+    /**
+     * @return The index after the encoded type
+     */
+    private static int encode(Variable.VariableType type, byte[] encoded, int index) {
+        if(type == null) {
+            encoded[index] = NULL_ID;
+            return index + 1;
+        }
+        VariableTypeTemplate template = type.getTemplate();
+        encoded[index++] = template.id;
+        for(int i = 0; i < template.childrenCount; ++i) {
+            index = encode(type.getChild(i), encoded, index);
+        }
+        return index;
+    }
+
+    /**
+     * Decodes a type without looking it up
+     * @param internChildren Whether the children of the result are replaced with their canonical instances
+     */
+    private static Variable.VariableType parse(byte[] type, Variable.VariableType.OffsetHolder offset, boolean internChildren) throws InvalidTypeException {
+        if(type.length - offset.value <= 0) {
+            throw new InvalidTypeException("Type in the data of variable has invalid length");
+        }
+        byte id = type[offset.value++];
+        if(id == NULL_ID) {
+            return null;
+        }
+        if(id < 0 || id >= VariableManager.TYPES_BY_ID.size()) {
+            throw new InvalidTypeException(String.format("Encountered invalid type id '%s' while decoding variable", id));
+        }
+        VariableTypeTemplate template = VariableManager.TYPES_BY_ID.get(id);
+        Variable.VariableType result = template.typeFactory.get();
+        for(int i = 0; i < template.childrenCount; ++i) {
+            Variable.VariableType child = parse(type, offset, internChildren);
+            result.setChild(i, internChildren ? intern(child) : child);
+        }
+        return result;
+    }
+
+    private static class InvalidTypeException extends Exception {
+
+        private InvalidTypeException(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
@@ -29,4 +29,18 @@ public class ConstantImmediateValue implements ImmediateValue {
                 List::stream
         );
     }
+
+    @Override
+    public boolean isScalar() {
+        return constant.left().isPresent();
+    }
+
+    @Override
+    public Variable calculateVariable(CommandContext<ServerCommandSource> cc) throws CommandSyntaxException {
+        throwIfFeatureDisabled(cc);
+        return constant.map(
+                holder -> holder.variable,
+                list -> list.isEmpty() ? null : list.get(0)
+        );
+    }
 }
@@ -0,0 +1,120 @@
+package net.papierkorb2292.command_expander.variables.immediate;
+
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.text.Texts;
+import net.papierkorb2292.command_expander.variables.Variable;
+
+/**
+ * <p>
+ *     A node of the expression tree that an {@link InstructionListImmediateValue} switches to after it has been evaluated
+ *     {@link InstructionListImmediateValue#TIER_UP_THRESHOLD} times.
+ * </p>
+ * <p>
+ *     A node evaluates the nodes of its parameters itself and directly returns the resulting variable, so neither registers nor {@link com.mojang.datafixers.util.Either}s
+ *     are needed. Every kind of instruction creates its own node class (see {@link Instruction#createNode}), which gives the JIT
+ *     monomorphic call sites it can inline and specialize for hot immediate values.
+ * </p>
+ * Nodes can only be created by instructions that supply a single variable when they get single variables as parameters. If such an instruction would
+ * supply an empty stream instead, for example after reporting an error, the node throws {@link EmptyResult#INSTANCE}.
+ */
+@FunctionalInterface
+public interface ExpressionNode {
+
+    /**
+     * @param context The command context and error consumer of the evaluation
+     * @return The resulting variable
+     * @throws CommandSyntaxException An exception occurred when evaluating the node
+     * @throws EmptyResult The instruction would have supplied an empty stream
+     */
+    Variable evaluate(RegisterContext context) throws CommandSyntaxException;
+
+    /*
+     * The primitive variants of evaluate are used by the scalar calculate methods of InstructionListImmediateValue.
+     * Nodes calculating primitive numbers override them, so no variables have to be created for intermediate results.
+     * Unlike evaluate, they also throw EmptyResult when the result is null.
+     */
+
+    default int evaluateInt(RegisterContext context) throws CommandSyntaxException {
+        return nonNull(evaluate(context)).intValue();
+    }
+
+    default long evaluateLong(RegisterContext context) throws CommandSyntaxException {
+        return nonNull(evaluate(context)).longValue();
+    }
+
+    default float evaluateFloat(RegisterContext context) throws CommandSyntaxException {
+        return nonNull(evaluate(context)).floatValue();
+    }
+
+    default double evaluateDouble(RegisterContext context) throws CommandSyntaxException {
+        return nonNull(evaluate(context)).doubleValue();
+    }
+
+    private static Variable nonNull(Variable var) {
+        if(var == null) {
+            throw EmptyResult.INSTANCE;
+        }
+        return var;
+    }
+
+    /**
+     * Creates a node applying the function like {@link ImmediateValue.CommandBiFunction#applyToTwoParameters} would for two single variables
+     */
+    static ExpressionNode binary(ExpressionNode left, ExpressionNode right, ImmediateValue.CommandBiFunction function) {
+        return new Binary(left, right) {
+            @Override
+            protected Variable apply(Variable left, Variable right) throws CommandSyntaxException {
+                return function.apply(left, right);
+            }
+        };
+    }
+
+    /**
+     * A node with two parameters. Both parameters are always evaluated, so errors of the right parameter are still reported
+     * when the left parameter is empty. Errors thrown by {@link #apply} are sent to the error consumer and result in an empty result.
+     */
+    abstract class Binary implements ExpressionNode {
+
+        private final ExpressionNode left, right;
+
+        protected Binary(ExpressionNode left, ExpressionNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Variable evaluate(RegisterContext context) throws CommandSyntaxException {
+            Variable leftValue = null;
+            boolean leftEmpty = false;
+            try {
+                leftValue = left.evaluate(context);
+            } catch (EmptyResult e) {
+                leftEmpty = true;
+            }
+            Variable rightValue = right.evaluate(context);
+            if(leftEmpty) {
+                throw EmptyResult.INSTANCE;
+            }
+            try {
+                return apply(leftValue, rightValue);
+            } catch (CommandSyntaxException e) {
+                context.errorConsumer().accept(Texts.toText(e.getRawMessage()));
+                throw EmptyResult.INSTANCE;
+            }
+        }
+
+        protected abstract Variable apply(Variable left, Variable right) throws CommandSyntaxException;
+    }
+
+    /**
+     * Thrown by nodes instead of supplying an empty stream. Doesn't have a stack trace, because it is only used for control flow
+     */
+    final class EmptyResult extends RuntimeException {
+
+        public static final EmptyResult INSTANCE = new EmptyResult();
+
+        private EmptyResult() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -16,6 +16,7 @@ import org.jetbrains.annotations.Nullable;
 import java.util.Iterator;
 import java.util.Spliterators;
 import java.util.function.Consumer;
+import java.util.function.DoublePredicate;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -38,6 +39,77 @@ public interface ImmediateValue {
      */
     Either<VariableHolder, Stream<Variable>> calculate(CommandContext<ServerCommandSource> cc) throws CommandSyntaxException;
 
+    /**
+     * Whether the result is known to never be a stream with more than one variable. In that case the scalar calculate methods
+     * like {@link #calculateDouble} return the complete result and implementations can calculate it without wrapping it in an {@link Either},
+     * a {@link VariableHolder} or even a {@link Variable}.
+     */
+    default boolean isScalar() {
+        return false;
+    }
+
+    /**
+     * Calculates the value of this immediate value as a single variable. Meant to be used when {@link #isScalar()} returns true,
+     * because only the first variable of a stream is used.
+     * @param cc The command context this immediate value is used in
+     * @return The resulting variable or null, if the result is null or an empty stream
+     * @throws CommandSyntaxException An exception occurred when calculating the value
+     */
+    @Nullable
+    default Variable calculateVariable(CommandContext<ServerCommandSource> cc) throws CommandSyntaxException {
+        return calculate(cc).map(holder -> holder.variable, stream -> stream.findFirst().orElse(null));
+    }
+
+    /**
+     * Calculates the value of this immediate value as an int
+     * @param defaultValue The value returned when the result is null or an empty stream
+     * @see #calculateVariable
+     */
+    default int calculateInt(CommandContext<ServerCommandSource> cc, int defaultValue) throws CommandSyntaxException {
+        Variable result = calculateVariable(cc);
+        return result == null ? defaultValue : result.intValue();
+    }
+
+    /**
+     * Calculates the value of this immediate value as a long
+     * @param defaultValue The value returned when the result is null or an empty stream
+     * @see #calculateVariable
+     */
+    default long calculateLong(CommandContext<ServerCommandSource> cc, long defaultValue) throws CommandSyntaxException {
+        Variable result = calculateVariable(cc);
+        return result == null ? defaultValue : result.longValue();
+    }
+
+    /**
+     * Calculates the value of this immediate value as a float
+     * @param defaultValue The value returned when the result is null or an empty stream
+     * @see #calculateVariable
+     */
+    default float calculateFloat(CommandContext<ServerCommandSource> cc, float defaultValue) throws CommandSyntaxException {
+        Variable result = calculateVariable(cc);
+        return result == null ? defaultValue : result.floatValue();
+    }
+
+    /**
+     * Calculates the value of this immediate value as a double
+     * @param defaultValue The value returned when the result is null or an empty stream
+     * @see #calculateVariable
+     */
+    default double calculateDouble(CommandContext<ServerCommandSource> cc, double defaultValue) throws CommandSyntaxException {
+        Variable result = calculateVariable(cc);
+        return result == null ? defaultValue : result.doubleValue();
+    }
+
+    /**
+     * Calculates the value of this immediate value as a double and tests it
+     * @return The result of the predicate or false, if the result is null or an empty stream
+     * @see #calculateVariable
+     */
+    default boolean testDouble(CommandContext<ServerCommandSource> cc, DoublePredicate predicate) throws CommandSyntaxException {
+        Variable result = calculateVariable(cc);
+        return result != null && predicate.test(result.doubleValue());
+    }
+
     default void throwIfFeatureDisabled(CommandContext<ServerCommandSource> cc) throws CommandSyntaxException {
         if(!CommandExpander.isFeatureEnabled(cc.getSource().getServer(), CommandExpander.VARIABLE_FEATURE)) {
             throw CommandExpander.USED_DISABLED_FEATURE.create(CommandExpander.VARIABLE_FEATURE);
@@ -23,18 +23,87 @@ public class ImmediateValueCompiler {
     private static final Map<String, Operator> OPERATORS = new HashMap<>();
 
     /**
-     * Compiles an immediate value term into a list of instructions created by this method. The list is put into an {@link InstructionListImmediateValue}, which is then optimized.
+     * The maximum amount of compiled immediate values kept in {@link #CACHE}
+     */
+    public static final int CACHE_SIZE = 1024;
+    /**
+     * Terms longer than this aren't cached, for example large SNBT compounds
+     */
+    public static final int MAX_CACHED_SOURCE_LENGTH = 4096;
+    /**
+     * <p>Optimized immediate values by the text of their term, ordered from least to most recently used.</p>
+     * <p>
+     *     Only the text read when compiling the term is used as key, so the text following it, like the rest of a command, doesn't prevent hits.
+     *     Where a term ends depends on that text, so the term is always parsed, but optimizing it is skipped when the cache contains it.
+     *     Compiling doesn't depend on anything else, so the cache never has to be invalidated and the same term always results in the same immediate value instance,
+     *     for example when functions are reloaded or SNBT containing immediate values is parsed repeatedly.
+     * </p>
+     * Access has to be synchronized on the cache, because functions are loaded on multiple threads.
+     */
+    private static final LinkedHashMap<String, ImmediateValue> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ImmediateValue> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private static long cacheHits, cacheMisses;
+
+    /**
+     * Compiles an immediate value term into a list of instructions created by this method. The list is put into an {@link InstructionListImmediateValue}, which is then optimized.<br/>
+     * Results are cached by the text of the term, so compiling the same term again returns the same instance
      * @param reader The reader for the term, ending spaces aren't read
      * @return The optimized immediate value for evaluating the term
      * @throws CommandSyntaxException An error happened when parsing the term
      * @see #compileTerm
      */
     public static ImmediateValue compile(StringReader reader) throws CommandSyntaxException {
+        int start = reader.getCursor();
+        List<Instruction> instructions = new ArrayList<>();
+        compileTerm(instructions, 0, reader);
+        if(reader.getCursor() - start > MAX_CACHED_SOURCE_LENGTH) {
+            return new InstructionListImmediateValue(instructions).optimize();
+        }
+        String source = reader.getString().substring(start, reader.getCursor());
+        ImmediateValue cached;
+        synchronized(CACHE) {
+            cached = CACHE.get(source);
+            if(cached != null) {
+                ++cacheHits;
+            } else {
+                ++cacheMisses;
+            }
+        }
+        if(cached != null) {
+            return cached;
+        }
+        ImmediateValue value = new InstructionListImmediateValue(instructions).optimize();
+        synchronized(CACHE) {
+            // Another thread might have compiled the same term in the meantime, in which case its instance is used
+            cached = CACHE.putIfAbsent(source, value);
+        }
+        return cached != null ? cached : value;
+    }
+
+    /**
+     * Compiles the immediate value without using the cache. Package-private for the compiler benchmarks
+     */
+    static ImmediateValue compileUncached(StringReader reader) throws CommandSyntaxException {
         List<Instruction> instructions = new ArrayList<>();
         compileTerm(instructions, 0, reader);
         return new InstructionListImmediateValue(instructions).optimize();
     }
 
+    /**
+     * @return The amount of hits and misses of the compiled immediate value cache and its current size
+     */
+    public static CacheStatistics getCacheStatistics() {
+        synchronized(CACHE) {
+            return new CacheStatistics(cacheHits, cacheMisses, CACHE.size());
+        }
+    }
+
+    public record CacheStatistics(long hits, long misses, int size) { }
+
     /**
      * Compiles an immediate value term into a list of instructions. A term consists of one or multiple values that are connected trough operators.
      * A value can also have an index operator.
@@ -0,0 +1,325 @@
+package net.papierkorb2292.command_expander.variables.immediate;
+
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.datafixers.util.Either;
+import net.papierkorb2292.command_expander.variables.Variable;
+import net.papierkorb2292.command_expander.variables.VariableHolder;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Optimization passes for the instruction lists of {@link InstructionListImmediateValue}s.
+ * The passes only rely on the stack effects of the instructions, {@link Instruction#notPreDeterminable} and {@link Instruction#inferType}, so they work on any instruction list
+ * created by the {@link ImmediateValueCompiler}. Instruction lists taking more entries from the stack than available are never changed.
+ */
+public final class ImmediateValueOptimizer {
+
+    private ImmediateValueOptimizer() { } //Prevent instantiations
+
+    /**
+     * Streams with more elements than this aren't folded into a constant, because their elements would all be kept in memory
+     * (a range like 0::1000000 is cheap to evaluate lazily but expensive to store)
+     */
+    public static final int MAX_FOLDED_STREAM_LENGTH = 256;
+
+    /**
+     * Runs all optimization passes on the instructions
+     * @param instructions The instructions to optimize. The list isn't modified
+     * @return The optimized instructions, which might be the same list if nothing could be optimized
+     */
+    public static List<Instruction> optimize(List<Instruction> instructions) {
+        return eliminateCommonSubexpressions(specializeOperators(foldConstants(removeRedundantUnaryInstructions(instructions))));
+    }
+
+    /**
+     * <p>Removes unary instructions that don't change the result:</p>
+     * <p>
+     *     Casts to 'null' return the value unchanged and are removed.<br/>
+     *     A cast directly following a cast to the same type is removed, because the first cast already returns a variable of that type.<br/>
+     *     Chains of {@link Instructions#NEGATE} are collapsed to a single negation if the chain has an odd length and to two negations otherwise.
+     *     Two negations remain, because the first one might lower the type of the value to a negatable type.
+     * </p>
+     */
+    public static List<Instruction> removeRedundantUnaryInstructions(List<Instruction> instructions) {
+        List<Instruction> result = new ArrayList<>(instructions.size());
+        int negateChainLength = 0;
+        for(Instruction in : instructions) {
+            if(in == Instructions.NEGATE) {
+                ++negateChainLength;
+                if(negateChainLength <= 2) {
+                    result.add(in);
+                } else if(negateChainLength % 2 == 1) {
+                    result.remove(result.size() - 1);
+                } else {
+                    result.add(in);
+                }
+                continue;
+            }
+            negateChainLength = 0;
+            if(in instanceof Instructions.Cast cast) {
+                if(cast.getType() == null) {
+                    continue;
+                }
+                if(!result.isEmpty() && result.get(result.size() - 1) instanceof Instructions.Cast previous && cast.getType().typeEquals(previous.getType())) {
+                    continue;
+                }
+            }
+            result.add(in);
+        }
+        return result.size() == instructions.size() ? instructions : result;
+    }
+
+    /**
+     * <p>
+     *     Evaluates every instruction that is pre-determinable (see {@link Instruction#notPreDeterminable}) and only depends on constants while
+     *     the optimization is running and replaces the instruction and the instructions it depends on with a {@link Instructions.LoadConstant}
+     *     containing the result. Because the folded result is a constant itself, every maximal pre-determinable subsequence is folded,
+     *     for example <i>sin(2 + 0.5 * 3)</i> or <i>(int)"12" + 3</i>.
+     * </p>
+     * <p>
+     *     Instructions are only folded if they supply a single entry and their evaluation doesn't throw or report an error, so errors are still
+     *     reported when the immediate value is used. Streams are only folded if they don't have more than {@link #MAX_FOLDED_STREAM_LENGTH} elements.<br/>
+     *     Constant entries that are left on the stack below the result are never used and are removed.
+     * </p>
+     */
+    public static List<Instruction> foldConstants(List<Instruction> instructions) {
+        List<Instruction> result = new ArrayList<>(instructions.size());
+        Deque<StackEntry> stack = new ArrayDeque<>();
+        boolean changed = false;
+        for(Instruction in : instructions) {
+            if(stack.size() < in.consumedStackEntries) {
+                return instructions;
+            }
+            int start = result.size();
+            boolean constantParameters = true;
+            for(int i = 0; i < in.consumedStackEntries; ++i) {
+                StackEntry parameter = stack.pop();
+                constantParameters &= parameter.constant;
+                start = parameter.start;
+            }
+            result.add(in);
+            boolean constant = in instanceof Instructions.LoadConstant;
+            if(!constant && !in.notPreDeterminable && constantParameters && in.suppliedStackEntries == 1) {
+                List<Instruction> dependencies = result.subList(start, result.size());
+                Instructions.LoadConstant folded = evaluate(dependencies);
+                if(folded != null) {
+                    dependencies.clear();
+                    result.add(folded);
+                    constant = true;
+                    changed = true;
+                }
+            }
+            for(int i = 0; i < in.suppliedStackEntries; ++i) {
+                stack.push(new StackEntry(start, constant));
+            }
+        }
+        if(stack.size() > 1) {
+            // Only the top entry is the result, constant entries below it don't do anything
+            Iterator<StackEntry> unused = stack.iterator();
+            unused.next();
+            while(unused.hasNext()) {
+                StackEntry entry = unused.next();
+                if(entry.constant && entry.start < result.size() && result.get(entry.start) instanceof Instructions.LoadConstant) {
+                    result.remove(entry.start);
+                    changed = true;
+                }
+            }
+        }
+        return changed ? result : instructions;
+    }
+
+    /**
+     * <p>
+     *     Infers the types of the stack entries using {@link Instruction#inferType} and replaces every {@link Instructions.NumberOperatorInstruction}
+     *     whose operation type is known with the {@link Instructions.PrimitiveOperatorInstruction} returned by {@link Instructions.NumberOperatorInstruction#specialize},
+     *     which doesn't need to lower and cast the operands when evaluated.
+     * </p>
+     * Types are known for constants, casts and the results of instructions that always supply the same type, for example <i>(int)x * 2 + 1</i>
+     * only uses int operations.
+     */
+    public static List<Instruction> specializeOperators(List<Instruction> instructions) {
+        List<Instruction> result = new ArrayList<>(instructions);
+        Deque<Optional<Variable.VariableType>> stack = new ArrayDeque<>();
+        boolean changed = false;
+        for(int i = 0; i < result.size(); ++i) {
+            Instruction in = result.get(i);
+            if(stack.size() < in.consumedStackEntries) {
+                return instructions;
+            }
+            Variable.VariableType[] operandTypes = new Variable.VariableType[in.consumedStackEntries];
+            for(int j = operandTypes.length - 1; j >= 0; --j) {
+                operandTypes[j] = stack.pop().orElse(null);
+            }
+            if(in instanceof Instructions.NumberOperatorInstruction operator) {
+                Instruction specialized = operator.specialize(operandTypes);
+                if(specialized != null) {
+                    result.set(i, specialized);
+                    in = specialized;
+                    changed = true;
+                }
+            }
+            Variable.VariableType type = in.suppliedStackEntries == 1 ? in.inferType(operandTypes) : null;
+            for(int j = 0; j < in.suppliedStackEntries; ++j) {
+                stack.push(Optional.ofNullable(type));
+            }
+        }
+        return changed ? result : instructions;
+    }
+
+    /**
+     * <p>
+     *     Finds subtrees of instructions that occur multiple times, like <i>minecraft:a[i]</i> in <i>minecraft:a[i] * minecraft:a[i] + minecraft:a[i]</i>,
+     *     and evaluates them only once: The first occurrence is followed by a {@link Instructions.StoreTemporary} and the other occurrences are replaced
+     *     with a {@link Instructions.LoadTemporary}. Larger subtrees are handled first, so their reuse also covers the subtrees they contain.
+     * </p>
+     * <p>
+     *     Only subtrees that give the same result when evaluated again in the same evaluation are reused. Those are the subtrees consisting of
+     *     pre-determinable instructions and {@link Instructions.LoadVariable}s, because evaluating an immediate value doesn't change variables
+     *     (unless it advances an iterator, in which case nothing is reused).
+     *     Additionally, every instruction of the subtree has to support expression trees (see {@link Instruction#createNode}), so the subtree
+     *     supplies a single variable and the temporary slot never has to keep a large stream.
+     * </p>
+     */
+    public static List<Instruction> eliminateCommonSubexpressions(List<Instruction> instructions) {
+        if(instructions.contains(Instructions.IT_NEXT) || instructions.contains(Instructions.IT_MULTIPLE_NEXT)) {
+            // Advancing an iterator changes a variable during the evaluation
+            return instructions;
+        }
+        int size = instructions.size();
+        int[] starts = new int[size];
+        Map<List<Instruction>, List<Integer>> occurrences = new LinkedHashMap<>();
+        Deque<SubtreeEntry> stack = new ArrayDeque<>();
+        for(int i = 0; i < size; ++i) {
+            Instruction in = instructions.get(i);
+            if(stack.size() < in.consumedStackEntries) {
+                return instructions;
+            }
+            int start = i;
+            boolean reusable = !in.notPreDeterminable || in instanceof Instructions.LoadVariable;
+            ExpressionNode[] operands = new ExpressionNode[in.consumedStackEntries];
+            for(int j = operands.length - 1; j >= 0; --j) {
+                SubtreeEntry operand = stack.pop();
+                operands[j] = operand.node;
+                reusable &= operand.reusable;
+                start = operand.start;
+            }
+            starts[i] = start;
+            if(in.suppliedStackEntries != 1) {
+                for(int j = 0; j < in.suppliedStackEntries; ++j) {
+                    stack.push(new SubtreeEntry(start, null, false));
+                }
+                continue;
+            }
+            ExpressionNode node = null;
+            if(reusable && Arrays.stream(operands).allMatch(Objects::nonNull)) {
+                node = in.createNode(operands);
+            }
+            reusable &= node != null;
+            stack.push(new SubtreeEntry(start, node, reusable));
+            // Reusing single constants doesn't save anything
+            if(reusable && (start < i || in instanceof Instructions.LoadVariable)) {
+                occurrences.computeIfAbsent(List.copyOf(instructions.subList(start, i + 1)), key -> new ArrayList<>()).add(i);
+            }
+        }
+        List<List<Integer>> repeated = new ArrayList<>();
+        for(Map.Entry<List<Instruction>, List<Integer>> entry : occurrences.entrySet()) {
+            if(entry.getValue().size() > 1) {
+                repeated.add(entry.getValue());
+            }
+        }
+        if(repeated.isEmpty()) {
+            return instructions;
+        }
+        repeated.sort(Comparator.comparingInt((List<Integer> ends) -> ends.get(0) - starts[ends.get(0)]).reversed());
+        boolean[] replaced = new boolean[size];
+        int[] storedSlots = new int[size], loadedSlots = new int[size];
+        Arrays.fill(storedSlots, -1);
+        Arrays.fill(loadedSlots, -1);
+        int slotCount = 0;
+        for(List<Integer> ends : repeated) {
+            List<Integer> remaining = new ArrayList<>(ends.size());
+            for(int end : ends) {
+                // Identical subtrees are either the same or disjoint, and larger subtrees are handled first,
+                // so a subtree is either completely replaced or not at all
+                if(!replaced[starts[end]]) {
+                    remaining.add(end);
+                }
+            }
+            if(remaining.size() < 2) {
+                continue;
+            }
+            int slot = slotCount++;
+            storedSlots[remaining.get(0)] = slot;
+            for(int i = 1; i < remaining.size(); ++i) {
+                int end = remaining.get(i);
+                Arrays.fill(replaced, starts[end], end + 1, true);
+                loadedSlots[starts[end]] = slot;
+            }
+        }
+        if(slotCount == 0) {
+            return instructions;
+        }
+        List<Instruction> result = new ArrayList<>(size);
+        for(int i = 0; i < size; ++i) {
+            if(loadedSlots[i] != -1) {
+                result.add(Instructions.getLoadTemporary(loadedSlots[i]));
+                while(i + 1 < size && replaced[i + 1] && loadedSlots[i + 1] == -1) {
+                    ++i;
+                }
+                continue;
+            }
+            result.add(instructions.get(i));
+            if(storedSlots[i] != -1) {
+                result.add(Instructions.getStoreTemporary(storedSlots[i]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates instructions that don't depend on the command context
+     * @return A {@link Instructions.LoadConstant} containing the result or null, if the instructions couldn't be evaluated without errors
+     */
+    private static Instructions.LoadConstant evaluate(List<Instruction> instructions) {
+        Deque<Either<VariableHolder, Stream<Variable>>> stack = new ArrayDeque<>();
+        AtomicBoolean failed = new AtomicBoolean();
+        Instruction.CalculationContext context = new Instruction.CalculationContext(stack, null, error -> failed.set(true), Instructions.StoreTemporary.getTemporaryCount(instructions));
+        try {
+            for(Instruction in : instructions) {
+                in.apply(context);
+            }
+            if(stack.size() != 1) {
+                return null;
+            }
+            Either<VariableHolder, Stream<Variable>> value = stack.pop();
+            if(value.left().isPresent()) {
+                return failed.get() ? null : new Instructions.LoadConstant(value.left().get().variable);
+            }
+            if(value.right().isEmpty()) {
+                return null;
+            }
+            List<Variable> elements = value.right().get().limit(MAX_FOLDED_STREAM_LENGTH + 1).toList();
+            return failed.get() || elements.size() > MAX_FOLDED_STREAM_LENGTH ? null : new Instructions.LoadConstant(elements);
+        } catch(CommandSyntaxException | RuntimeException e) {
+            // The error will be reported when the immediate value is evaluated
+            return null;
+        }
+    }
+
+    /**
+     * An entry on the stack while optimizing
+     * @param start The index of the first instruction in the optimized list needed to supply this entry
+     * @param constant Whether the entry is supplied by a single {@link Instructions.LoadConstant}
+     */
+    private record StackEntry(int start, boolean constant) { }
+
+    /**
+     * An entry on the stack while searching common subexpressions
+     * @param start The index of the first instruction needed to supply this entry
+     * @param node The expression node supplying this entry or null, if not all instructions support expression nodes
+     * @param reusable Whether evaluating the instructions again gives the same result
+     */
+    private record SubtreeEntry(int start, ExpressionNode node, boolean reusable) { }
+}
@@ -9,6 +9,7 @@ import net.papierkorb2292.command_expander.variables.Variable;
 import net.papierkorb2292.command_expander.variables.VariableHolder;
 
 import java.util.Deque;
+import java.util.List;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -44,15 +45,80 @@ public abstract class Instruction {
      */
     public abstract void apply(CalculationContext context) throws CommandSyntaxException;
 
+    /**
+     * Performs the action on the registers of an {@link InstructionListImmediateValue}. The consumed entries are read from the registers starting at
+     * the given one (the lowest stack entry first) and the supplied entries are written to the registers starting at the same register.<br/>
+     * By default, the entries are moved onto the stack of {@link RegisterContext#getBridgeContext()} and {@link #apply(CalculationContext)} is used.
+     * Frequently used instructions override this to work on the registers directly.
+     * @param context The registers and the command context of the calculation
+     * @param register The first register used by this instruction
+     * @throws CommandSyntaxException An exception occurred when performing the instruction
+     */
+    public void apply(RegisterContext context, int register) throws CommandSyntaxException {
+        CalculationContext bridgeContext = context.getBridgeContext();
+        Deque<Either<VariableHolder, Stream<Variable>>> stack = bridgeContext.stack();
+        stack.clear();
+        for(int i = 0; i < consumedStackEntries; ++i) {
+            stack.push(context.get(register + i));
+        }
+        apply(bridgeContext);
+        for(int i = suppliedStackEntries - 1; i >= 0; --i) {
+            context.set(register + i, stack.pop());
+        }
+    }
+
+    /**
+     * @return Whether {@link #apply(RegisterContext, int)} uses {@link NumberColumn}s in the registers directly. For other instructions, columns are converted to streams,
+     * so the contents of lists are only copied into a column if the instruction using them supports columns (see {@link InstructionListImmediateValue})
+     */
+    public boolean supportsColumns() {
+        return false;
+    }
+
+    /**
+     * Creates the node representing this instruction in the expression tree of a frequently evaluated {@link InstructionListImmediateValue}.
+     * Only instructions supplying a single entry, which is a single variable whenever the consumed entries are single variables, can create a node.
+     * @param operands The nodes supplying the consumed entries, the lowest stack entry first
+     * @return The node or null, if the instruction can't be used in an expression tree, which is the default
+     * @see ExpressionNode
+     */
+    public ExpressionNode createNode(ExpressionNode[] operands) {
+        return null;
+    }
+
+    /**
+     * Infers the type of the supplied entry from the types of the consumed entries when optimizing, so the optimizer can replace
+     * instructions with variants specialized for the types (see {@link ImmediateValueOptimizer#specializeOperators}).
+     * @param operandTypes The inferred types of the consumed entries, the lowest stack entry first. A type is null if it isn't known
+     * @return The type every non-null variable supplied by this instruction has or null, if the type isn't known, which is the default
+     */
+    public Variable.VariableType inferType(Variable.VariableType[] operandTypes) {
+        return null;
+    }
+
     /**
      * The context of the evaluation of an immediate value containing the stack, command context and error consumer for exceptions that can't be thrown
      * (for example when used in a functional interface that doesn't have the exception in its method signature)
+     * @param temporaries The temporary slots used by {@link Instructions.StoreTemporary} and {@link Instructions.LoadTemporary}. A slot either contains
+     *                    a single variable or the elements of a stream, because a stream can only be used once
      * @see #apply
      */
-    public static record CalculationContext(Deque<Either<VariableHolder, Stream<Variable>>> stack, CommandContext<ServerCommandSource> commandContext, Consumer<Text> errorConsumer) {
+    public static record CalculationContext(Deque<Either<VariableHolder, Stream<Variable>>> stack, CommandContext<ServerCommandSource> commandContext, Consumer<Text> errorConsumer, Either<VariableHolder, List<Variable>>[] temporaries) {
 
         public CalculationContext(Deque<Either<VariableHolder, Stream<Variable>>> stack, CommandContext<ServerCommandSource> commandContext) {
             this(stack, commandContext, ImmediateValue.getCaughtErrorConsumer(commandContext));
         }
+
+        public CalculationContext(Deque<Either<VariableHolder, Stream<Variable>>> stack, CommandContext<ServerCommandSource> commandContext, Consumer<Text> errorConsumer) {
+            this(stack, commandContext, errorConsumer, 0);
+        }
+
+        /**
+         * @param temporaryCount The amount of temporary slots, see {@link Instructions.StoreTemporary#getTemporaryCount}
+         */
+        @SuppressWarnings("unchecked")
+        public CalculationContext(Deque<Either<VariableHolder, Stream<Variable>>> stack, CommandContext<ServerCommandSource> commandContext, Consumer<Text> errorConsumer, int temporaryCount) {
+            this(stack, commandContext, errorConsumer, (Either<VariableHolder, List<Variable>>[]) new Either[temporaryCount]);
+        }
     }
 }
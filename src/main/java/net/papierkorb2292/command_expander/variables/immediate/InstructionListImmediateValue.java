@@ -6,53 +6,288 @@ import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.brigadier.exceptions.SimpleCommandExceptionType;
 import com.mojang.datafixers.util.Either;
 import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
 import net.papierkorb2292.command_expander.variables.Variable;
 import net.papierkorb2292.command_expander.variables.VariableHolder;
+import net.papierkorb2292.command_expander.variables.VariableManager;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayDeque;
 import java.util.Deque;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.DoublePredicate;
 import java.util.stream.Stream;
 
 /**
- * An immediate value using a list of instructions that are applied successively on an {@link Instruction.CalculationContext}
- * to calculate the result
+ * An immediate value using a list of instructions to calculate the result.<br/>
+ * When the immediate value is created, every stack entry of the instructions is assigned a fixed register, so the instructions
+ * are applied successively on a {@link RegisterContext} instead of a stack.<br/>
+ * After the immediate value has been evaluated {@link #TIER_UP_THRESHOLD} times, the instructions are converted to a tree of {@link ExpressionNode}s,
+ * which is used for all further evaluations. This is only possible if every instruction can create a node (see {@link Instruction#createNode}).
  */
 public class InstructionListImmediateValue implements ImmediateValue {
 
      private static final SimpleCommandExceptionType STACK_EMPTY_EXCEPTION = new SimpleCommandExceptionType(new LiteralMessage("Stack of immediate value calculation didn't have enough elements"));
+     /**
+      * The amount of evaluations after which the expression tree is created. Immediate values that are only used a few times,
+      * like in commands typed into the chat, keep using the registers.
+      */
+     public static final int TIER_UP_THRESHOLD = 100;
 
      private final List<Instruction> instructions;
+     private final Instruction[] program;
+     /**
+      * The first register used by the instruction at the same index in {@link #program}
+      */
+     private final int[] registers;
+     private final int registerCount;
+     /**
+      * The register containing the result or -1, if the instructions take more entries from the stack than available
+      */
+     private final int resultRegister;
+     /**
+      * The amount of temporary slots used by {@link Instructions.StoreTemporary} instructions
+      */
+     private final int temporaryCount;
+     private int evaluations;
+     /**
+      * The expression tree used after tiering up or null, if the immediate value hasn't tiered up yet
+      */
+     private ExpressionNode expressionTree;
+     private boolean expressionTreeUnsupported;
 
      public InstructionListImmediateValue(List<Instruction> instructions) {
           this.instructions = instructions;
+          program = instructions.toArray(Instruction[]::new);
+          registers = new int[program.length];
+          int depth = 0, maxDepth = 0;
+          boolean valid = true;
+          for(int i = 0; i < program.length; ++i) {
+               Instruction in = program[i];
+               depth -= in.consumedStackEntries;
+               if(depth < 0) {
+                    valid = false;
+                    break;
+               }
+               registers[i] = depth;
+               depth += in.suppliedStackEntries;
+               maxDepth = Math.max(maxDepth, depth);
+          }
+          registerCount = maxDepth;
+          resultRegister = valid ? depth - 1 : -1;
+          temporaryCount = Instructions.StoreTemporary.getTemporaryCount(instructions);
+          if(valid) {
+               for(int i = 0; i < program.length; ++i) {
+                    if(program[i] == Instructions.GET_ALL_CONTENTS && usesColumns(i)) {
+                         program[i] = Instructions.GET_ALL_CONTENTS_AS_COLUMN;
+                    }
+               }
+          }
+     }
+
+     /**
+      * @return Whether the instruction using the register written by the instruction at the index supports columns (see {@link Instruction#supportsColumns}).
+      * That's the first following instruction taking the register from the stack
+      */
+     private boolean usesColumns(int index) {
+          int register = registers[index];
+          for(int i = index + 1; i < program.length; ++i) {
+               if(registers[i] <= register) {
+                    return program[i].supportsColumns();
+               }
+          }
+          return false;
      }
 
      public Either<VariableHolder, Stream<Variable>> calculate(CommandContext<ServerCommandSource> cc) throws CommandSyntaxException  {
           throwIfFeatureDisabled(cc);
-          Deque<Either<VariableHolder, Stream<Variable>>> stack = new LinkedList<>();
-          Instruction.CalculationContext context = new Instruction.CalculationContext(stack, cc);
+          return calculate(cc, null, null);
+     }
+
+     /**
+      * Calculates the value like {@link #calculate(CommandContext)}, but doesn't check whether variables are enabled and can use another variable manager and error consumer.
+      * This allows evaluating the immediate value without a running server, for example in benchmarks.
+      * @param variableManager The variable manager for loading variables or null, if the one of the server should be used
+      * @param errorConsumer The consumer for errors that can't be thrown or null, if they should be sent to the command source
+      */
+     public Either<VariableHolder, Stream<Variable>> calculate(CommandContext<ServerCommandSource> cc, @Nullable VariableManager variableManager, @Nullable Consumer<Text> errorConsumer) throws CommandSyntaxException {
+          if(resultRegister < 0) {
+               throw STACK_EMPTY_EXCEPTION.create();
+          }
+          ExpressionNode expressionTree = getExpressionTree(false);
+          if(expressionTree != null) {
+               try {
+                    return Either.left(new VariableHolder(expressionTree.evaluate(new RegisterContext(0, temporaryCount, cc, variableManager, errorConsumer))));
+               } catch(ExpressionNode.EmptyResult e) {
+                    return Either.right(Stream.empty());
+               }
+          }
+          RegisterContext context = new RegisterContext(registerCount, temporaryCount, cc, variableManager, errorConsumer);
           try {
-               for (Instruction in : instructions) {
-                    in.apply(context);
+               for (int i = 0; i < program.length; ++i) {
+                    program[i].apply(context, registers[i]);
                }
-               return stack.pop();
           }
           catch(NoSuchElementException e) {
                throw STACK_EMPTY_EXCEPTION.create();
           }
+          return context.get(resultRegister);
+     }
+
+     /**
+      * The immediate value is scalar if the expression tree can be created, because nodes always supply a single variable.
+      * Calling this method creates the expression tree without waiting for {@link #TIER_UP_THRESHOLD} evaluations,
+      * because callers checking it are expected to evaluate the immediate value frequently.
+      */
+     @Override
+     public boolean isScalar() {
+          return resultRegister >= 0 && getExpressionTree(true) != null;
+     }
+
+     @Override
+     public Variable calculateVariable(CommandContext<ServerCommandSource> cc) throws CommandSyntaxException {
+          ExpressionNode expressionTree = getScalarExpressionTree(cc);
+          if(expressionTree == null) {
+               return ImmediateValue.super.calculateVariable(cc);
+          }
+          try {
+               return expressionTree.evaluate(new RegisterContext(0, temporaryCount, cc));
+          } catch(ExpressionNode.EmptyResult e) {
+               return null;
+          }
+     }
+
+     @Override
+     public int calculateInt(CommandContext<ServerCommandSource> cc, int defaultValue) throws CommandSyntaxException {
+          ExpressionNode expressionTree = getScalarExpressionTree(cc);
+          if(expressionTree == null) {
+               return ImmediateValue.super.calculateInt(cc, defaultValue);
+          }
+          try {
+               return expressionTree.evaluateInt(new RegisterContext(0, temporaryCount, cc));
+          } catch(ExpressionNode.EmptyResult e) {
+               return defaultValue;
+          }
+     }
+
+     @Override
+     public long calculateLong(CommandContext<ServerCommandSource> cc, long defaultValue) throws CommandSyntaxException {
+          ExpressionNode expressionTree = getScalarExpressionTree(cc);
+          if(expressionTree == null) {
+               return ImmediateValue.super.calculateLong(cc, defaultValue);
+          }
+          try {
+               return expressionTree.evaluateLong(new RegisterContext(0, temporaryCount, cc));
+          } catch(ExpressionNode.EmptyResult e) {
+               return defaultValue;
+          }
+     }
+
+     @Override
+     public float calculateFloat(CommandContext<ServerCommandSource> cc, float defaultValue) throws CommandSyntaxException {
+          ExpressionNode expressionTree = getScalarExpressionTree(cc);
+          if(expressionTree == null) {
+               return ImmediateValue.super.calculateFloat(cc, defaultValue);
+          }
+          try {
+               return expressionTree.evaluateFloat(new RegisterContext(0, temporaryCount, cc));
+          } catch(ExpressionNode.EmptyResult e) {
+               return defaultValue;
+          }
+     }
+
+     @Override
+     public double calculateDouble(CommandContext<ServerCommandSource> cc, double defaultValue) throws CommandSyntaxException {
+          ExpressionNode expressionTree = getScalarExpressionTree(cc);
+          if(expressionTree == null) {
+               return ImmediateValue.super.calculateDouble(cc, defaultValue);
+          }
+          try {
+               return expressionTree.evaluateDouble(new RegisterContext(0, temporaryCount, cc));
+          } catch(ExpressionNode.EmptyResult e) {
+               return defaultValue;
+          }
+     }
+
+     @Override
+     public boolean testDouble(CommandContext<ServerCommandSource> cc, DoublePredicate predicate) throws CommandSyntaxException {
+          ExpressionNode expressionTree = getScalarExpressionTree(cc);
+          if(expressionTree == null) {
+               return ImmediateValue.super.testDouble(cc, predicate);
+          }
+          double value;
+          try {
+               value = expressionTree.evaluateDouble(new RegisterContext(0, temporaryCount, cc));
+          } catch(ExpressionNode.EmptyResult e) {
+               return false;
+          }
+          return predicate.test(value);
+     }
+
+     /**
+      * Does the checks of {@link #calculate} and returns the expression tree for the scalar calculate methods
+      * @return The expression tree or null, if the immediate value isn't scalar
+      */
+     private ExpressionNode getScalarExpressionTree(CommandContext<ServerCommandSource> cc) throws CommandSyntaxException {
+          throwIfFeatureDisabled(cc);
+          if(resultRegister < 0) {
+               throw STACK_EMPTY_EXCEPTION.create();
+          }
+          return getExpressionTree(true);
+     }
+
+     /**
+      * @param force Whether to create the expression tree even if the immediate value hasn't been evaluated {@link #TIER_UP_THRESHOLD} times yet.
+      *              If this is false, the evaluation is counted
+      * @return The expression tree or null, if it isn't created yet or not supported by the instructions
+      */
+     private ExpressionNode getExpressionTree(boolean force) {
+          ExpressionNode expressionTree = this.expressionTree;
+          if(expressionTree == null && !expressionTreeUnsupported && (force || ++evaluations >= TIER_UP_THRESHOLD)) {
+               expressionTree = createExpressionTree();
+               if(expressionTree == null) {
+                    expressionTreeUnsupported = true;
+               }
+               this.expressionTree = expressionTree;
+          }
+          return expressionTree;
+     }
+
+     /**
+      * Creates the nodes of the instructions, using the nodes supplying the consumed stack entries as operands
+      * @return The root node or null, if an instruction can't create a node or more than one entry would be left on the stack
+      */
+     private ExpressionNode createExpressionTree() {
+          Deque<ExpressionNode> stack = new ArrayDeque<>();
+          for(Instruction in : program) {
+               if(in.suppliedStackEntries != 1) {
+                    return null;
+               }
+               ExpressionNode[] operands = new ExpressionNode[in.consumedStackEntries];
+               for(int i = operands.length - 1; i >= 0; --i) {
+                    operands[i] = stack.pop();
+               }
+               ExpressionNode node = in.createNode(operands);
+               if(node == null) {
+                    return null;
+               }
+               stack.push(node);
+          }
+          return stack.size() == 1 ? stack.pop() : null;
      }
 
      /**
       * Searches and applies optimization to the immediate value
       * @return The optimized immediate value, which might be another instance when for example it was possible to optimize it to a {@link ConstantImmediateValue}
+      * @see ImmediateValueOptimizer
       */
      public ImmediateValue optimize() {
-          //TODO
-          if(instructions.size() == 1 && instructions.get(0) instanceof Instructions.LoadConstant con) {
+          List<Instruction> optimized = ImmediateValueOptimizer.optimize(instructions);
+          if(optimized.size() == 1 && optimized.get(0) instanceof Instructions.LoadConstant con) {
                return new ConstantImmediateValue(con.value);
           }
-          return this;
+          return optimized == instructions ? this : new InstructionListImmediateValue(optimized);
      }
 }
@@ -69,6 +69,66 @@ public final class Instructions {
                     varStream -> varStream.map(this::calcOp)));
         }
 
+        @Override
+        public void apply(RegisterContext context, int register) throws CommandSyntaxException {
+            NumberColumn column = context.getColumn(register);
+            if(column != null) {
+                // Every primitive number type is an instance of double, so the operator is applied to every element
+                context.setColumn(register, column.mapToDouble(operator, context.isParallelEvaluationEnabled()));
+                return;
+            }
+            if(context.isStream(register)) {
+                super.apply(context, register);
+                return;
+            }
+            context.setVariable(register, calcOp(context.getVariable(register)));
+        }
+
+        @Override
+        public boolean supportsColumns() {
+            return true;
+        }
+
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            ExpressionNode operand = operands[0];
+            return new ExpressionNode() {
+                @Override
+                public Variable evaluate(RegisterContext context) throws CommandSyntaxException {
+                    return calcOp(operand.evaluate(context));
+                }
+
+                @Override
+                public double evaluateDouble(RegisterContext context) throws CommandSyntaxException {
+                    Variable var = operand.evaluate(context);
+                    if(var == null || !var.getType().instanceOf(DoubleVariable.DoubleVariableType.INSTANCE)) {
+                        return 0;
+                    }
+                    return operator.applyAsDouble(var.doubleValue());
+                }
+
+                @Override
+                public float evaluateFloat(RegisterContext context) throws CommandSyntaxException {
+                    return (float)evaluateDouble(context);
+                }
+
+                @Override
+                public int evaluateInt(RegisterContext context) throws CommandSyntaxException {
+                    return (int)evaluateDouble(context);
+                }
+
+                @Override
+                public long evaluateLong(RegisterContext context) throws CommandSyntaxException {
+                    return (long)evaluateDouble(context);
+                }
+            };
+        }
+
+        @Override
+        public Variable.VariableType inferType(Variable.VariableType[] operandTypes) {
+            return DoubleVariable.DoubleVariableType.INSTANCE;
+        }
+
         private DoubleVariable calcOp(Variable var) {
             if(var == null ||!var.getType().instanceOf(DoubleVariable.DoubleVariableType.INSTANCE)) {
                 return new DoubleVariable();
@@ -104,6 +164,16 @@ public final class Instructions {
         public void apply(CalculationContext context) {
             applyToTwoParameters(context, applyFunction);
         }
+
+        @Override
+        public void apply(RegisterContext context, int register) {
+            applyToTwoRegisters(context, register, applyFunction);
+        }
+
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            return ExpressionNode.binary(operands[0], operands[1], applyFunction);
+        }
     }
 
     public static final Instruction ROUND = getFloatingPointUnaryInstruction(Math::round, Math::round);
@@ -136,6 +206,21 @@ public final class Instructions {
                     varStream -> varStream.map(this::calcOp)));
         }
 
+        @Override
+        public void apply(RegisterContext context, int register) throws CommandSyntaxException {
+            if(context.isStream(register)) {
+                super.apply(context, register);
+                return;
+            }
+            context.setVariable(register, calcOp(context.getVariable(register)));
+        }
+
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            ExpressionNode operand = operands[0];
+            return context -> calcOp(operand.evaluate(context));
+        }
+
         private Variable calcOp(Variable var) {
             if(var == null || !var.getType().instanceOf(DoubleVariable.DoubleVariableType.INSTANCE)) {
                 return null;
@@ -175,6 +260,16 @@ public final class Instructions {
         public void apply(CalculationContext context) {
             applyToTwoParameters(context, applyFunction);
         }
+
+        @Override
+        public void apply(RegisterContext context, int register) {
+            applyToTwoRegisters(context, register, applyFunction);
+        }
+
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            return ExpressionNode.binary(operands[0], operands[1], applyFunction);
+        }
     }
 
     public static final Instruction FLOOR_DIV = getIntegerBinaryInstruction(Math::floorDiv, Math::floorDiv);
@@ -205,6 +300,16 @@ public final class Instructions {
         public void apply(CalculationContext context) {
             applyToTwoParameters(context, applyFunction);
         }
+
+        @Override
+        public void apply(RegisterContext context, int register) {
+            applyToTwoRegisters(context, register, applyFunction);
+        }
+
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            return ExpressionNode.binary(operands[0], operands[1], applyFunction);
+        }
     }
 
     public static final Instruction MIN = getStandardNumberBinaryInstruction(Math::min, Math::min, Math::min, Math::min);
@@ -241,6 +346,16 @@ public final class Instructions {
         public void apply(CalculationContext context) {
             applyToTwoParameters(context, applyFunction);
         }
+
+        @Override
+        public void apply(RegisterContext context, int register) {
+            applyToTwoRegisters(context, register, applyFunction);
+        }
+
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            return ExpressionNode.binary(operands[0], operands[1], applyFunction);
+        }
     }
 
     public static final Instruction FMA = getFloatingPointTernaryInstruction(Math::fma, Math::fma, "fma");
@@ -444,6 +559,21 @@ public final class Instructions {
                     varStream -> varStream.map(this::calcOp)));
         }
 
+        @Override
+        public void apply(RegisterContext context, int register) throws CommandSyntaxException {
+            if(context.isStream(register)) {
+                super.apply(context, register);
+                return;
+            }
+            context.setVariable(register, calcOp(context.getVariable(register)));
+        }
+
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            ExpressionNode operand = operands[0];
+            return context -> calcOp(operand.evaluate(context));
+        }
+
         private Variable calcOp(Variable var) {
             if(var == null || !var.getType().instanceOf(DoubleVariable.DoubleVariableType.INSTANCE)) {
                 return null;
@@ -567,48 +697,157 @@ public final class Instructions {
 
     private static final SimpleCommandExceptionType INCOMPATIBLE_TYPES_EXCEPTION = new SimpleCommandExceptionType(new LiteralMessage("Encountered incompatible types: Unable to find compatible lowered type"));
 
-    public static final Instruction ADD = getNumberOperatorInstruction(type -> type instanceof AddableOperatorVariableType, (type, left, right) -> ((AddableOperatorVariableType)type).addVariables(left, right));
-    public static final Instruction MUL = getNumberOperatorInstruction(type -> type instanceof MultipliableOperatorVariableType, (type, left, right) -> ((MultipliableOperatorVariableType)type).multiplyVariables(left, right));
-    public static final Instruction SUB = getNumberOperatorInstruction(type -> type instanceof SubtractableOperatorVariableType, (type, left, right) -> ((SubtractableOperatorVariableType)type).subtractVariables(left, right));
-    public static final Instruction DIV = getNumberOperatorInstruction(type -> type instanceof DividableOperatorVariableType, (type, left, right) -> ((DividableOperatorVariableType)type).divideVariables(left, right));
-    public static final Instruction OR = getNumberOperatorInstruction(type -> type instanceof BitwiseOrAbleOperatorVariableType, (type, left, right) -> ((BitwiseOrAbleOperatorVariableType)type).orVariables(left, right));
-    public static final Instruction AND = getNumberOperatorInstruction(type -> type instanceof BitwiseAndAbleOperatorVariableType, (type, left, right) -> ((BitwiseAndAbleOperatorVariableType)type).andVariables(left, right));
-    public static final Instruction XOR = getNumberOperatorInstruction(type -> type instanceof BitwiseXorAbleOperatorVariableType, (type, left, right) -> ((BitwiseXorAbleOperatorVariableType)type).xorVariables(left, right));
+    public static final Instruction ADD = getNumberOperatorInstruction(type -> type instanceof AddableOperatorVariableType, (type, left, right) -> ((AddableOperatorVariableType)type).addVariables(left, right), PrimitiveOperation.ADD);
+    public static final Instruction MUL = getNumberOperatorInstruction(type -> type instanceof MultipliableOperatorVariableType, (type, left, right) -> ((MultipliableOperatorVariableType)type).multiplyVariables(left, right), PrimitiveOperation.MUL);
+    public static final Instruction SUB = getNumberOperatorInstruction(type -> type instanceof SubtractableOperatorVariableType, (type, left, right) -> ((SubtractableOperatorVariableType)type).subtractVariables(left, right), PrimitiveOperation.SUB);
+    public static final Instruction DIV = getNumberOperatorInstruction(type -> type instanceof DividableOperatorVariableType, (type, left, right) -> ((DividableOperatorVariableType)type).divideVariables(left, right), PrimitiveOperation.DIV);
+    public static final Instruction OR = getNumberOperatorInstruction(type -> type instanceof BitwiseOrAbleOperatorVariableType, (type, left, right) -> ((BitwiseOrAbleOperatorVariableType)type).orVariables(left, right), PrimitiveOperation.OR);
+    public static final Instruction AND = getNumberOperatorInstruction(type -> type instanceof BitwiseAndAbleOperatorVariableType, (type, left, right) -> ((BitwiseAndAbleOperatorVariableType)type).andVariables(left, right), PrimitiveOperation.AND);
+    public static final Instruction XOR = getNumberOperatorInstruction(type -> type instanceof BitwiseXorAbleOperatorVariableType, (type, left, right) -> ((BitwiseXorAbleOperatorVariableType)type).xorVariables(left, right), PrimitiveOperation.XOR);
 
     public static Instruction getNumberOperatorInstruction(Predicate<Variable.VariableType> typePredicate, NumberOperatorInstruction.Operator operator) {
-        return new NumberOperatorInstruction(typePredicate, operator);
+        return new NumberOperatorInstruction(typePredicate, operator, null);
+    }
+
+    public static Instruction getNumberOperatorInstruction(Predicate<Variable.VariableType> typePredicate, NumberOperatorInstruction.Operator operator, @Nullable PrimitiveOperation primitiveOperation) {
+        return new NumberOperatorInstruction(typePredicate, operator, primitiveOperation);
     }
 
     public static class NumberOperatorInstruction extends Instruction {
 
         private final Predicate<Variable.VariableType> typePredicate;
         private final Operator operator;
+        @Nullable
+        private final PrimitiveOperation primitiveOperation;
+        private final ImmediateValue.CommandBiFunction applyFunction;
 
-        public NumberOperatorInstruction(Predicate<Variable.VariableType> typePredicate, Operator operator) {
+        /**
+         * @param primitiveOperation The operation on primitive values matching the operator, which is used when the operand types are known
+         *                           when optimizing (see {@link #specialize}). Can be null if there is no such operation
+         */
+        public NumberOperatorInstruction(Predicate<Variable.VariableType> typePredicate, Operator operator, @Nullable PrimitiveOperation primitiveOperation) {
             super(2, 1, false);
             this.typePredicate = typePredicate;
             this.operator = operator;
+            this.primitiveOperation = primitiveOperation;
+            this.applyFunction = (l, r) -> {
+                if(l == null || r == null) {
+                    return null;
+                }
+                Variable.VariableType type = getOperationType(l.getType(), r.getType());
+                return operator.apply(type, VariableManager.castVariable(type, l), VariableManager.castVariable(type, r));
+            };
+        }
+
+        /**
+         * @return The type both operands are cast to: The lowered type of the operands or the first type it can be lowered to that supports the operator
+         * @throws CommandSyntaxException No such type exists
+         */
+        private Variable.VariableType getOperationType(Variable.VariableType left, Variable.VariableType right) throws CommandSyntaxException {
+            Variable.VariableType.LoweredType loweredType = Variable.VariableType.getLoweredType(left, right);
+            if(loweredType == null) {
+                throw INCOMPATIBLE_TYPES_EXCEPTION.create();
+            }
+            Variable.VariableType type = loweredType.type;
+            while(type != null && !typePredicate.test(type)) {
+                type = type.getNextLoweredType();
+            }
+            if(type == null) {
+                throw INCOMPATIBLE_TYPES_EXCEPTION.create();
+            }
+            return type;
         }
 
         @Override
         public void apply(CalculationContext context) {
-            applyToTwoParameters(context, (l, r) -> {
-                if(l == null || r == null) {
+            applyToTwoParameters(context, applyFunction);
+        }
+
+        @Override
+        public boolean supportsColumns() {
+            return primitiveOperation != null;
+        }
+
+        /**
+         * If a register contains a column, the operation type is resolved once for the types of the columns and the operation is applied to all elements
+         * in a single loop, as long as the operation type is a primitive number type
+         */
+        @Override
+        public void apply(RegisterContext context, int register) {
+            if(primitiveOperation != null && applyToColumns(context, register, primitiveOperation, (left, right) -> {
+                try {
+                    Variable.VariableType type = getOperationType(left, right);
+                    return PrimitiveOperatorInstruction.isPrimitiveType(type) ? type : null;
+                } catch (CommandSyntaxException e) {
+                    // Falls back to applying the operator to each element, which reports the error for each element
                     return null;
                 }
-                Variable.VariableType.LoweredType loweredType = Variable.VariableType.getLoweredType(l.getType(), r.getType());
-                if(loweredType == null) {
-                    throw INCOMPATIBLE_TYPES_EXCEPTION.create();
-                }
-                Variable.VariableType type = loweredType.type;
-                while(type != null && !typePredicate.test(type)) {
-                    type = type.getNextLoweredType();
-                }
-                if(type == null) {
-                    throw INCOMPATIBLE_TYPES_EXCEPTION.create();
+            })) {
+                return;
+            }
+            applyToTwoRegisters(context, register, applyFunction);
+        }
+
+        /**
+         * The node remembers the operation type of the last operand types, so the types only have to be lowered again when they change.
+         * Operands already having the operation type aren't cast, because operators don't modify their operands.
+         */
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            return new ExpressionNode.Binary(operands[0], operands[1]) {
+
+                private ResolvedOperationType lastType;
+
+                @Override
+                protected Variable apply(Variable left, Variable right) throws CommandSyntaxException {
+                    if(left == null || right == null) {
+                        return null;
+                    }
+                    Variable.VariableType leftType = left.getType(), rightType = right.getType();
+                    ResolvedOperationType resolved = lastType;
+                    if(resolved == null || resolved.left != leftType || resolved.right != rightType) {
+                        resolved = new ResolvedOperationType(leftType, rightType, getOperationType(leftType, rightType));
+                        lastType = resolved;
+                    }
+                    Variable.VariableType type = resolved.type;
+                    return operator.apply(type,
+                            leftType == type ? left : VariableManager.castVariable(type, left),
+                            rightType == type ? right : VariableManager.castVariable(type, right));
                 }
-                return operator.apply(type, VariableManager.castVariable(type, l), VariableManager.castVariable(type, r));
-            });
+            };
+        }
+
+        private record ResolvedOperationType(Variable.VariableType left, Variable.VariableType right, Variable.VariableType type) { }
+
+        @Override
+        public Variable.VariableType inferType(Variable.VariableType[] operandTypes) {
+            Variable.VariableType type = inferOperationType(operandTypes);
+            return PrimitiveOperatorInstruction.isPrimitiveType(type) ? type : null;
+        }
+
+        /**
+         * @param operandTypes The inferred types of the operands
+         * @return An instruction applying the primitive operation directly to the values of the operands or null, if the operation type
+         * can't be inferred or isn't a primitive number type
+         */
+        public Instruction specialize(Variable.VariableType[] operandTypes) {
+            if(primitiveOperation == null) {
+                return null;
+            }
+            Variable.VariableType type = inferOperationType(operandTypes);
+            return PrimitiveOperatorInstruction.isPrimitiveType(type) ? new PrimitiveOperatorInstruction(type, primitiveOperation) : null;
+        }
+
+        private Variable.VariableType inferOperationType(Variable.VariableType[] operandTypes) {
+            if(operandTypes[0] == null || operandTypes[1] == null) {
+                return null;
+            }
+            try {
+                return getOperationType(operandTypes[0], operandTypes[1]);
+            } catch (CommandSyntaxException e) {
+                // The error is thrown again when the immediate value is evaluated
+                return null;
+            }
         }
 
         @FunctionalInterface
@@ -617,6 +856,270 @@ public final class Instructions {
         }
     }
 
+    /**
+     * The number operators on primitive values. They behave like the operators of the corresponding variable types.
+     * The floating point operations of bitwise operators are null, because those operators never use a floating point type.
+     */
+    public enum PrimitiveOperation {
+        ADD((l, r) -> l + r, (l, r) -> l + r, (l, r) -> l + r, (l, r) -> l + r),
+        SUB((l, r) -> l - r, (l, r) -> l - r, (l, r) -> l - r, (l, r) -> l - r),
+        MUL((l, r) -> l * r, (l, r) -> l * r, (l, r) -> l * r, (l, r) -> l * r),
+        DIV((l, r) -> l / r, (l, r) -> l / r, (l, r) -> l / r, (l, r) -> l / r),
+        OR((l, r) -> l | r, (l, r) -> l | r, null, null),
+        AND((l, r) -> l & r, (l, r) -> l & r, null, null),
+        XOR((l, r) -> l ^ r, (l, r) -> l ^ r, null, null);
+
+        public final IntBinaryOperator intOp;
+        public final LongBinaryOperator longOp;
+        public final FloatBinaryOperator floatOp;
+        public final DoubleBinaryOperator doubleOp;
+
+        PrimitiveOperation(IntBinaryOperator intOp, LongBinaryOperator longOp, FloatBinaryOperator floatOp, DoubleBinaryOperator doubleOp) {
+            this.intOp = intOp;
+            this.longOp = longOp;
+            this.floatOp = floatOp;
+            this.doubleOp = doubleOp;
+        }
+    }
+
+    /**
+     * A {@link NumberOperatorInstruction} specialized for operands with known types, created by {@link NumberOperatorInstruction#specialize}.
+     * The operation type is already known, so the operands aren't lowered and cast, instead the primitive values are used directly.
+     */
+    public static class PrimitiveOperatorInstruction extends Instruction {
+
+        private final Variable.VariableType type;
+        private final PrimitiveOperation operation;
+        private final ImmediateValue.CommandBiFunction applyFunction;
+
+        public PrimitiveOperatorInstruction(Variable.VariableType type, PrimitiveOperation operation) {
+            super(2, 1, false);
+            this.type = type;
+            this.operation = operation;
+            if(type == IntVariable.IntVariableType.INSTANCE) {
+                IntBinaryOperator op = operation.intOp;
+                applyFunction = (l, r) -> l == null || r == null ? null : new IntVariable(op.applyAsInt(l.intValue(), r.intValue()));
+            } else if(type == LongVariable.LongVariableType.INSTANCE) {
+                LongBinaryOperator op = operation.longOp;
+                applyFunction = (l, r) -> l == null || r == null ? null : new LongVariable(op.applyAsLong(l.longValue(), r.longValue()));
+            } else if(type == FloatVariable.FloatVariableType.INSTANCE && operation.floatOp != null) {
+                FloatBinaryOperator op = operation.floatOp;
+                applyFunction = (l, r) -> l == null || r == null ? null : new FloatVariable(op.apply(l.floatValue(), r.floatValue()));
+            } else if(type == DoubleVariable.DoubleVariableType.INSTANCE && operation.doubleOp != null) {
+                DoubleBinaryOperator op = operation.doubleOp;
+                applyFunction = (l, r) -> l == null || r == null ? null : new DoubleVariable(op.applyAsDouble(l.doubleValue(), r.doubleValue()));
+            } else {
+                throw new IllegalArgumentException("Primitive operation " + operation + " doesn't support type " + type.asString());
+            }
+        }
+
+        /**
+         * @return Whether the type is int, long, float or double
+         */
+        public static boolean isPrimitiveType(Variable.VariableType type) {
+            return type == IntVariable.IntVariableType.INSTANCE || type == LongVariable.LongVariableType.INSTANCE
+                    || type == FloatVariable.FloatVariableType.INSTANCE || type == DoubleVariable.DoubleVariableType.INSTANCE;
+        }
+
+        @Override
+        public void apply(CalculationContext context) {
+            applyToTwoParameters(context, applyFunction);
+        }
+
+        @Override
+        public boolean supportsColumns() {
+            return true;
+        }
+
+        @Override
+        public void apply(RegisterContext context, int register) {
+            if(applyToColumns(context, register, operation, (left, right) -> type)) {
+                return;
+            }
+            applyToTwoRegisters(context, register, applyFunction);
+        }
+
+        /**
+         * The node overrides the primitive evaluate method of the operation type to work on the primitive values of the operands.
+         * The other primitive evaluate methods convert that result like the variable of the operation type would.
+         */
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            ExpressionNode left = operands[0], right = operands[1];
+            if(type == IntVariable.IntVariableType.INSTANCE) {
+                IntBinaryOperator op = operation.intOp;
+                return new PrimitiveNode(left, right, applyFunction) {
+                    @Override
+                    public int evaluateInt(RegisterContext context) throws CommandSyntaxException {
+                        int l = 0;
+                        boolean leftEmpty = false;
+                        try {
+                            l = left.evaluateInt(context);
+                        } catch (ExpressionNode.EmptyResult e) {
+                            leftEmpty = true;
+                        }
+                        int r = right.evaluateInt(context);
+                        if(leftEmpty) {
+                            throw ExpressionNode.EmptyResult.INSTANCE;
+                        }
+                        return op.applyAsInt(l, r);
+                    }
+
+                    @Override
+                    public long evaluateLong(RegisterContext context) throws CommandSyntaxException {
+                        return evaluateInt(context);
+                    }
+
+                    @Override
+                    public float evaluateFloat(RegisterContext context) throws CommandSyntaxException {
+                        return evaluateInt(context);
+                    }
+
+                    @Override
+                    public double evaluateDouble(RegisterContext context) throws CommandSyntaxException {
+                        return evaluateInt(context);
+                    }
+                };
+            }
+            if(type == LongVariable.LongVariableType.INSTANCE) {
+                LongBinaryOperator op = operation.longOp;
+                return new PrimitiveNode(left, right, applyFunction) {
+                    @Override
+                    public long evaluateLong(RegisterContext context) throws CommandSyntaxException {
+                        long l = 0;
+                        boolean leftEmpty = false;
+                        try {
+                            l = left.evaluateLong(context);
+                        } catch (ExpressionNode.EmptyResult e) {
+                            leftEmpty = true;
+                        }
+                        long r = right.evaluateLong(context);
+                        if(leftEmpty) {
+                            throw ExpressionNode.EmptyResult.INSTANCE;
+                        }
+                        return op.applyAsLong(l, r);
+                    }
+
+                    @Override
+                    public int evaluateInt(RegisterContext context) throws CommandSyntaxException {
+                        return (int)evaluateLong(context);
+                    }
+
+                    @Override
+                    public float evaluateFloat(RegisterContext context) throws CommandSyntaxException {
+                        return evaluateLong(context);
+                    }
+
+                    @Override
+                    public double evaluateDouble(RegisterContext context) throws CommandSyntaxException {
+                        return evaluateLong(context);
+                    }
+                };
+            }
+            if(type == FloatVariable.FloatVariableType.INSTANCE) {
+                FloatBinaryOperator op = operation.floatOp;
+                return new PrimitiveNode(left, right, applyFunction) {
+                    @Override
+                    public float evaluateFloat(RegisterContext context) throws CommandSyntaxException {
+                        float l = 0;
+                        boolean leftEmpty = false;
+                        try {
+                            l = left.evaluateFloat(context);
+                        } catch (ExpressionNode.EmptyResult e) {
+                            leftEmpty = true;
+                        }
+                        float r = right.evaluateFloat(context);
+                        if(leftEmpty) {
+                            throw ExpressionNode.EmptyResult.INSTANCE;
+                        }
+                        return op.apply(l, r);
+                    }
+
+                    @Override
+                    public int evaluateInt(RegisterContext context) throws CommandSyntaxException {
+                        return (int)evaluateFloat(context);
+                    }
+
+                    @Override
+                    public long evaluateLong(RegisterContext context) throws CommandSyntaxException {
+                        return (long)evaluateFloat(context);
+                    }
+
+                    @Override
+                    public double evaluateDouble(RegisterContext context) throws CommandSyntaxException {
+                        return evaluateFloat(context);
+                    }
+                };
+            }
+            DoubleBinaryOperator op = operation.doubleOp;
+            return new PrimitiveNode(left, right, applyFunction) {
+                @Override
+                public double evaluateDouble(RegisterContext context) throws CommandSyntaxException {
+                    double l = 0;
+                    boolean leftEmpty = false;
+                    try {
+                        l = left.evaluateDouble(context);
+                    } catch (ExpressionNode.EmptyResult e) {
+                        leftEmpty = true;
+                    }
+                    double r = right.evaluateDouble(context);
+                    if(leftEmpty) {
+                        throw ExpressionNode.EmptyResult.INSTANCE;
+                    }
+                    return op.applyAsDouble(l, r);
+                }
+
+                @Override
+                public int evaluateInt(RegisterContext context) throws CommandSyntaxException {
+                    return (int)evaluateDouble(context);
+                }
+
+                @Override
+                public long evaluateLong(RegisterContext context) throws CommandSyntaxException {
+                    return (long)evaluateDouble(context);
+                }
+
+                @Override
+                public float evaluateFloat(RegisterContext context) throws CommandSyntaxException {
+                    return (float)evaluateDouble(context);
+                }
+            };
+        }
+
+        @Override
+        public Variable.VariableType inferType(Variable.VariableType[] operandTypes) {
+            return type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof PrimitiveOperatorInstruction other && type == other.type && operation == other.operation;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + operation.hashCode();
+        }
+
+        /**
+         * Node using the apply function when the result has to be a variable
+         */
+        private static abstract class PrimitiveNode extends ExpressionNode.Binary {
+
+            private final ImmediateValue.CommandBiFunction function;
+
+            private PrimitiveNode(ExpressionNode left, ExpressionNode right, ImmediateValue.CommandBiFunction function) {
+                super(left, right);
+                this.function = function;
+            }
+
+            @Override
+            protected Variable apply(Variable left, Variable right) throws CommandSyntaxException {
+                return function.apply(left, right);
+            }
+        }
+    }
+
     public static final Instruction SHIFT_LEFT = getBitwiseShiftOperatorInstruction(type -> type instanceof BitwiseLeftShiftableOperatorVariableType, (type, left, right) -> ((BitwiseLeftShiftableOperatorVariableType)type).shiftVariablesLeft(left, right));
     public static final Instruction SHIFT_RIGHT = getBitwiseShiftOperatorInstruction(type -> type instanceof BitwiseRightShiftableOperatorVariableType, (type, left, right) -> ((BitwiseRightShiftableOperatorVariableType)type).shiftVariablesRight(left, right));
 
@@ -628,16 +1131,13 @@ public final class Instructions {
 
         private final Predicate<Variable.VariableType> typePredicate;
         private final Operator operator;
+        private final ImmediateValue.CommandBiFunction applyFunction;
 
         public BitwiseShiftOperatorInstruction(Predicate<Variable.VariableType> typePredicate, Operator operator) {
             super(2, 1, false);
             this.typePredicate = typePredicate;
             this.operator = operator;
-        }
-
-        @Override
-        public void apply(CalculationContext context) {
-            applyToTwoParameters(context, (l, r) -> {
+            this.applyFunction = (l, r) -> {
                 if(l == null || r == null) {
                     return null;
                 }
@@ -649,7 +1149,22 @@ public final class Instructions {
                     throw INCOMPATIBLE_TYPES_EXCEPTION.create();
                 }
                 return operator.apply(type, VariableManager.castVariable(type, l), r.intValue());
-            });
+            };
+        }
+
+        @Override
+        public void apply(CalculationContext context) {
+            applyToTwoParameters(context, applyFunction);
+        }
+
+        @Override
+        public void apply(RegisterContext context, int register) {
+            applyToTwoRegisters(context, register, applyFunction);
+        }
+
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            return ExpressionNode.binary(operands[0], operands[1], applyFunction);
         }
 
         @FunctionalInterface
@@ -700,6 +1215,21 @@ public final class Instructions {
             }).filter(Objects::nonNull)));
         }
 
+        @Override
+        public void apply(RegisterContext context, int register) throws CommandSyntaxException {
+            if(context.isStream(register)) {
+                super.apply(context, register);
+                return;
+            }
+            context.setVariable(register, calcOp(context.getVariable(register)));
+        }
+
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            ExpressionNode operand = operands[0];
+            return context -> calcOp(operand.evaluate(context));
+        }
+
         private Variable calcOp(Variable var) throws CommandSyntaxException {
             return childGetter.apply(caster.cast(var));
         }
@@ -731,6 +1261,16 @@ public final class Instructions {
             applyToTwoParameters(context, applyFunction);
         }
 
+        @Override
+        public void apply(RegisterContext context, int register) {
+            applyToTwoRegisters(context, register, applyFunction);
+        }
+
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            return ExpressionNode.binary(operands[0], operands[1], applyFunction);
+        }
+
         @FunctionalInterface
         public interface Operator {
             Variable apply(PosVariable left, PosVariable right);
@@ -767,6 +1307,11 @@ public final class Instructions {
         }
     };
 
+    /**
+     * Larger ranges are still created lazily, because they might not be consumed completely
+     */
+    private static final int MAX_RANGE_COLUMN_LENGTH = 65536;
+
     public static final Instruction RANGE = new Instruction(2, 1, false) {
 
         @Override
@@ -796,6 +1341,29 @@ public final class Instructions {
                     ))));
         }
 
+        /**
+         * A range between two single variables is created as a {@link NumberColumn}, if it has at most MAX_RANGE_COLUMN_LENGTH elements
+         */
+        @Override
+        public void apply(RegisterContext context, int register) throws CommandSyntaxException {
+            if(!context.isStream(register) && !context.isStream(register + 1)) {
+                Variable startVar = context.getVariable(register), endVar = context.getVariable(register + 1);
+                if(startVar != null && endVar != null) {
+                    int start = startVar.intValue(), end = endVar.intValue();
+                    long length = Math.max((long)end - start + 1, 0);
+                    if(length <= MAX_RANGE_COLUMN_LENGTH) {
+                        int[] values = new int[(int)length];
+                        for(int i = 0; i < values.length; ++i) {
+                            values[i] = start + i;
+                        }
+                        context.setColumn(register, NumberColumn.ofInts(values));
+                        return;
+                    }
+                }
+            }
+            super.apply(context, register);
+        }
+
         private Stream<Variable> getRangeStream(Variable startVar, Variable endVar) {
             return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new AbstractIterator<>() {
 
@@ -814,7 +1382,7 @@ public final class Instructions {
         }
     };
 
-    public static final Instruction RANDOM = new Instruction(0, 1, false) {
+    public static final Instruction RANDOM = new Instruction(0, 1, true) {
         @Override
         public void apply(CalculationContext context) {
             context.stack().push(Either.left(new VariableHolder(new DoubleVariable(Math.random()))));
@@ -845,6 +1413,63 @@ public final class Instructions {
         stack.push(function.applyToTwoParameters(left, right, context.errorConsumer()));
     }
 
+    /**
+     * Register variant of {@link #applyToTwoParameters(Instruction.CalculationContext, ImmediateValue.CommandBiFunction)} taking the parameters from the
+     * given register and the one after it and writing the result to the given register.
+     * If both registers contain a single variable, the function is applied directly without wrapping the variables in {@link Either}s
+     * @param context The registers and the error consumer
+     * @param register The register of the left parameter
+     * @param function The function to apply to the parameters
+     */
+    private static void applyToTwoRegisters(RegisterContext context, int register, ImmediateValue.CommandBiFunction function) {
+        if(!context.isStream(register) && !context.isStream(register + 1)) {
+            try {
+                context.setVariable(register, function.apply(context.getVariable(register), context.getVariable(register + 1)));
+            } catch (CommandSyntaxException e) {
+                context.errorConsumer().accept(Texts.toText(e.getRawMessage()));
+                context.setStream(register, Stream.empty());
+            }
+            return;
+        }
+        context.set(register, function.applyToTwoParameters(context.get(register), context.get(register + 1), context.errorConsumer()));
+    }
+
+    /**
+     * Applies a primitive operation to the given register and the one after it, if at least one of them contains a {@link NumberColumn}
+     * and the other one contains a column or a single variable of a primitive number type. The result is written to the given register as a column.
+     * @param context The registers
+     * @param register The register of the left parameter
+     * @param operation The operation to apply to the elements
+     * @param typeResolver Resolves the operation type from the types of the columns. It returns null if the operation can't be applied to columns of the types
+     * @return Whether the operation was applied. If not, the registers weren't modified
+     */
+    private static boolean applyToColumns(RegisterContext context, int register, PrimitiveOperation operation, BinaryOperator<Variable.VariableType> typeResolver) {
+        NumberColumn left = context.getColumn(register), right = context.getColumn(register + 1);
+        if(left == null && right == null) {
+            return false;
+        }
+        if(left == null) {
+            if(context.isStream(register)) {
+                return false;
+            }
+            left = NumberColumn.broadcast(context.getVariable(register), right.length());
+        } else if(right == null) {
+            if(context.isStream(register + 1)) {
+                return false;
+            }
+            right = NumberColumn.broadcast(context.getVariable(register + 1), left.length());
+        }
+        if(left == null || right == null) {
+            return false;
+        }
+        Variable.VariableType type = typeResolver.apply(left.getType(), right.getType());
+        if(type == null) {
+            return false;
+        }
+        context.setColumn(register, left.apply(operation, type, right, context.isParallelEvaluationEnabled()));
+        return true;
+    }
+
     public static final Instruction NEGATE = new Instruction(1, 1, false) {
         @Override
         public void apply(CalculationContext context) {
@@ -855,6 +1480,38 @@ public final class Instructions {
                     .flatMap(holder -> holder.variable == null ? Either.right(Stream.empty()) : Either.left(holder)));
         }
 
+        @Override
+        public void apply(RegisterContext context, int register) throws CommandSyntaxException {
+            if(context.isStream(register)) {
+                super.apply(context, register);
+                return;
+            }
+            Variable result = calcNegate(context.getVariable(register), context.errorConsumer());
+            if(result == null) {
+                context.setStream(register, Stream.empty());
+                return;
+            }
+            context.setVariable(register, result);
+        }
+
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            ExpressionNode operand = operands[0];
+            return context -> {
+                Variable result = calcNegate(operand.evaluate(context), context.errorConsumer());
+                if(result == null) {
+                    throw ExpressionNode.EmptyResult.INSTANCE;
+                }
+                return result;
+            };
+        }
+
+        @Override
+        public Variable.VariableType inferType(Variable.VariableType[] operandTypes) {
+            // The primitive number types are negated without being lowered
+            return PrimitiveOperatorInstruction.isPrimitiveType(operandTypes[0]) ? operandTypes[0] : null;
+        }
+
         private Variable calcNegate(Variable var, Consumer<Text> errorConsumer) {
             Variable.VariableType type = var.getType();
             while(type != null && !(type instanceof NegatableOperatorVariableType)) {
@@ -905,19 +1562,56 @@ public final class Instructions {
         }
     };
 
+    /**
+     * Like {@link #GET_ALL_CONTENTS}, but the contents of lists of primitive numbers are copied into a {@link NumberColumn}, so following operators can be applied in a single loop.
+     * {@link InstructionListImmediateValue} only uses it instead of GET_ALL_CONTENTS if the instruction using the contents supports columns,
+     * because copying the list is wasted otherwise, for example when only the first elements of the stream are used
+     */
+    static final Instruction GET_ALL_CONTENTS_AS_COLUMN = new Instruction(1, 1, false) {
+
+        @Override
+        public void apply(CalculationContext context) throws CommandSyntaxException {
+            GET_ALL_CONTENTS.apply(context);
+        }
+
+        @Override
+        public void apply(RegisterContext context, int register) throws CommandSyntaxException {
+            if(!context.isStream(register) && context.getVariable(register) instanceof ListVariable list) {
+                NumberColumn column = NumberColumn.of(list);
+                if(column != null) {
+                    context.setColumn(register, column);
+                    return;
+                }
+            }
+            GET_ALL_CONTENTS.apply(context, register);
+        }
+    };
+
     public static final Instruction GET_INDEXED_CONTENTS = new Instruction(2, 1, false) {
 
         @Override
         public void apply(CalculationContext context) {
-            applyToTwoParameters(context, (value, index) -> {
-                if(!(value instanceof IndexableVariable indexable)) {
-                    throw VALUE_NOT_INDEXABLE_EXCEPTION.create();
-                }
-                return indexable.get(indexable.ensureIndexCompatible(index));
-            });
+            applyToTwoParameters(context, Instructions::getIndexedContent);
+        }
+
+        @Override
+        public void apply(RegisterContext context, int register) {
+            applyToTwoRegisters(context, register, Instructions::getIndexedContent);
+        }
+
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            return ExpressionNode.binary(operands[0], operands[1], Instructions::getIndexedContent);
         }
     };
 
+    private static Variable getIndexedContent(Variable value, Variable index) throws CommandSyntaxException {
+        if(!(value instanceof IndexableVariable indexable)) {
+            throw VALUE_NOT_INDEXABLE_EXCEPTION.create();
+        }
+        return indexable.get(indexable.ensureIndexCompatible(index));
+    }
+
     public static final Instruction GET_INDEXED_CONTENTS_COMPARE_MAPS = new Instruction(2, 1, false) {
 
         @Override
@@ -963,6 +1657,7 @@ public final class Instructions {
                 Variable index = right.left().get().variable;
                 if(index == null) {
                     stack.push(Either.right(Stream.of()));
+                    return;
                 }
                 stack.push(Either.right(left.right().get().flatMap(var -> {
                     if(!(var instanceof IndexableVariable indexable)) {
@@ -1203,7 +1898,7 @@ public final class Instructions {
         }
     };
 
-    public static final Instruction IT_MULTIPLE_NEXT = new Instruction(1, 2, true) {
+    public static final Instruction IT_MULTIPLE_NEXT = new Instruction(2, 1, true) {
         @Override
         public void apply(CalculationContext context) throws CommandSyntaxException {
             Either<VariableHolder, Stream<Variable>>
@@ -1297,6 +1992,20 @@ public final class Instructions {
             this.type = type;
         }
 
+        public Variable.VariableType getType() {
+            return type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Cast other && (type == null ? other.type == null : type.typeEquals(other.type));
+        }
+
+        @Override
+        public int hashCode() {
+            return type == null ? 0 : type.getTemplate().hashCode();
+        }
+
         @Override
         public void apply(CalculationContext context) {
             context.stack().push(context.stack().pop().mapBoth(
@@ -1304,6 +2013,39 @@ public final class Instructions {
                     varStream -> varStream.map(var -> castSafe(var, type, context.errorConsumer()))));
         }
 
+        @Override
+        public void apply(RegisterContext context, int register) throws CommandSyntaxException {
+            if(context.isStream(register)) {
+                super.apply(context, register);
+                return;
+            }
+            try {
+                context.setVariable(register, VariableManager.castVariable(type, context.getVariable(register)));
+            } catch (CommandSyntaxException e) {
+                context.errorConsumer().accept(Texts.toText(e.getRawMessage()));
+                context.setVariable(register, null);
+            }
+        }
+
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            ExpressionNode operand = operands[0];
+            return context -> {
+                Variable var = operand.evaluate(context);
+                try {
+                    return VariableManager.castVariable(type, var);
+                } catch (CommandSyntaxException e) {
+                    context.errorConsumer().accept(Texts.toText(e.getRawMessage()));
+                    return null;
+                }
+            };
+        }
+
+        @Override
+        public Variable.VariableType inferType(Variable.VariableType[] operandTypes) {
+            return type;
+        }
+
         private static Variable castSafe(Variable var, Variable.VariableType type, Consumer<Text> errorConsumer) {
             try {
                 return VariableManager.castVariable(type, var);
@@ -1471,6 +2213,50 @@ public final class Instructions {
                     List::stream
             ));
         }
+
+        @Override
+        public void apply(RegisterContext context, int register) {
+            Optional<VariableHolder> holder = value.left();
+            if(holder.isPresent()) {
+                context.setVariable(register, holder.get().variable);
+                return;
+            }
+            //noinspection OptionalGetWithoutIsPresent
+            context.setStream(register, value.right().get().stream());
+        }
+
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            Optional<VariableHolder> holder = value.left();
+            if(holder.isEmpty()) {
+                return null;
+            }
+            Variable constant = holder.get().variable;
+            return context -> constant;
+        }
+
+        @Override
+        public Variable.VariableType inferType(Variable.VariableType[] operandTypes) {
+            Optional<VariableHolder> holder = value.left();
+            return holder.isPresent() && holder.get().variable != null ? holder.get().variable.getType() : null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof LoadConstant other)) {
+                return false;
+            }
+            Optional<VariableHolder> holder = value.left(), otherHolder = other.value.left();
+            if(holder.isPresent()) {
+                return otherHolder.isPresent() && Objects.equals(holder.get().variable, otherHolder.get().variable);
+            }
+            return otherHolder.isEmpty() && value.right().equals(other.value.right());
+        }
+
+        @Override
+        public int hashCode() {
+            return value.map(holder -> Objects.hashCode(holder.variable), List::hashCode);
+        }
     }
 
     public static Instruction getLoadVariable(VariableIdentifier id) {
@@ -1493,6 +2279,150 @@ public final class Instructions {
         public void apply(CalculationContext context) throws CommandSyntaxException {
             context.stack().push(Either.left(new VariableHolder(((VariableManagerContainer)context.commandContext().getSource().getServer()).command_expander$getVariableManager().getReadonly(id).var)));
         }
+
+        @Override
+        public void apply(RegisterContext context, int register) throws CommandSyntaxException {
+            context.setVariable(register, context.getVariableManager().getReadonly(id).var);
+        }
+
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            return context -> context.getVariableManager().getReadonly(id).var;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LoadVariable other && id.equals(other.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+    }
+
+    public static Instruction getStoreTemporary(int slot) {
+        return new StoreTemporary(slot);
+    }
+
+    /**
+     * Copies the top entry of the stack into a temporary slot of the context without removing it, so {@link LoadTemporary} can use it again.
+     * Streams are collected into a list, because they can only be used once.
+     * @see ImmediateValueOptimizer#eliminateCommonSubexpressions
+     */
+    public static class StoreTemporary extends Instruction {
+
+        private final int slot;
+
+        public StoreTemporary(int slot) {
+            super(1, 1, true);
+            this.slot = slot;
+        }
+
+        /**
+         * @return The amount of temporary slots needed for evaluating the instructions
+         */
+        public static int getTemporaryCount(Iterable<Instruction> instructions) {
+            int temporaryCount = 0;
+            for(Instruction in : instructions) {
+                if(in instanceof StoreTemporary store) {
+                    temporaryCount = Math.max(temporaryCount, store.slot + 1);
+                }
+            }
+            return temporaryCount;
+        }
+
+        @Override
+        public void apply(CalculationContext context) {
+            Either<VariableHolder, Stream<Variable>> top = context.stack().pop();
+            if(top.left().isPresent()) {
+                context.temporaries()[slot] = Either.left(new VariableHolder(top.left().get().variable));
+                context.stack().push(top);
+                return;
+            }
+            List<Variable> elements = top.right().orElseThrow().toList();
+            context.temporaries()[slot] = Either.right(elements);
+            context.stack().push(Either.right(elements.stream()));
+        }
+
+        @Override
+        public void apply(RegisterContext context, int register) {
+            Stream<Variable> stream = context.getStream(register);
+            if(stream == null) {
+                context.setTemporary(slot, context.getVariable(register));
+                return;
+            }
+            List<Variable> elements = stream.toList();
+            context.setTemporary(slot, elements);
+            context.setStream(register, elements.stream());
+        }
+
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            ExpressionNode operand = operands[0];
+            return context -> {
+                Variable value;
+                try {
+                    value = operand.evaluate(context);
+                } catch (ExpressionNode.EmptyResult e) {
+                    context.setTemporary(slot, List.of());
+                    throw e;
+                }
+                context.setTemporary(slot, value);
+                return value;
+            };
+        }
+
+        @Override
+        public Variable.VariableType inferType(Variable.VariableType[] operandTypes) {
+            return operandTypes[0];
+        }
+    }
+
+    public static Instruction getLoadTemporary(int slot) {
+        return new LoadTemporary(slot);
+    }
+
+    /**
+     * Puts the value stored by {@link StoreTemporary} onto the stack
+     */
+    public static class LoadTemporary extends Instruction {
+
+        private final int slot;
+
+        public LoadTemporary(int slot) {
+            super(0, 1, true);
+            this.slot = slot;
+        }
+
+        @Override
+        public void apply(CalculationContext context) {
+            // Every use gets its own holder and stream, like when the value is calculated again
+            context.stack().push(context.temporaries()[slot].mapBoth(
+                    holder -> new VariableHolder(holder.variable),
+                    List::stream));
+        }
+
+        @Override
+        public void apply(RegisterContext context, int register) {
+            List<Variable> elements = context.getTemporaryElements(slot);
+            if(elements == null) {
+                context.setVariable(register, context.getTemporaryVariable(slot));
+                return;
+            }
+            context.setStream(register, elements.stream());
+        }
+
+        @Override
+        public ExpressionNode createNode(ExpressionNode[] operands) {
+            return context -> {
+                // Nodes only store single variables or nothing, so the elements are always empty
+                if(context.getTemporaryElements(slot) != null) {
+                    throw ExpressionNode.EmptyResult.INSTANCE;
+                }
+                return context.getTemporaryVariable(slot);
+            };
+        }
     }
 
     public static Instruction getLoadFromEntitySelector(EntitySelector selector) {
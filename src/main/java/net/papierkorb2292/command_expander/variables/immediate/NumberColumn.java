@@ -0,0 +1,327 @@
+package net.papierkorb2292.command_expander.variables.immediate;
+
+import it.unimi.dsi.fastutil.floats.FloatBinaryOperator;
+import net.papierkorb2292.command_expander.variables.*;
+
+import java.util.Arrays;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.IntBinaryOperator;
+import java.util.function.LongBinaryOperator;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * <p>
+ *     A stream of numbers of the same primitive type stored in a primitive array. Registers of a {@link RegisterContext} can contain a column instead
+ *     of a stream, so instructions like {@link Instructions.NumberOperatorInstruction} can be applied to every element in a single loop
+ *     without creating a variable for every intermediate result.
+ * </p>
+ * Columns are immutable once created. The variables are only created when the column is converted to a stream by {@link #stream()},
+ * which happens when an instruction without a column implementation uses the register.
+ * <p>
+ *     When the {@link net.papierkorb2292.command_expander.CommandExpander#PARALLEL_EVALUATION_FEATURE} gamerule is enabled, operations on columns with at least
+ *     {@link #PARALLEL_THRESHOLD} elements are calculated on the common fork-join pool. Every element is written to its own index, so the order
+ *     of the elements doesn't change and the stream created from the column is still sequential.
+ * </p>
+ */
+public final class NumberColumn {
+
+    /**
+     * The minimum length of a column for its operations to be calculated in parallel. For smaller columns,
+     * splitting the work costs more than the parallel calculation saves.
+     */
+    public static final int PARALLEL_THRESHOLD = 16384;
+
+    private final Variable.VariableType type;
+    private final int length;
+    // Only the array of the type is present
+    private final int[] ints;
+    private final long[] longs;
+    private final float[] floats;
+    private final double[] doubles;
+
+    private NumberColumn(Variable.VariableType type, int length, int[] ints, long[] longs, float[] floats, double[] doubles) {
+        this.type = type;
+        this.length = length;
+        this.ints = ints;
+        this.longs = longs;
+        this.floats = floats;
+        this.doubles = doubles;
+    }
+
+    public static NumberColumn ofInts(int[] values) {
+        return new NumberColumn(IntVariable.IntVariableType.INSTANCE, values.length, values, null, null, null);
+    }
+
+    public static NumberColumn ofLongs(long[] values) {
+        return new NumberColumn(LongVariable.LongVariableType.INSTANCE, values.length, null, values, null, null);
+    }
+
+    public static NumberColumn ofFloats(float[] values) {
+        return new NumberColumn(FloatVariable.FloatVariableType.INSTANCE, values.length, null, null, values, null);
+    }
+
+    public static NumberColumn ofDoubles(double[] values) {
+        return new NumberColumn(DoubleVariable.DoubleVariableType.INSTANCE, values.length, null, null, null, values);
+    }
+
+    /**
+     * Copies the contents of a list into a column. Lists stored in a primitive array are copied without creating their variables. This is only possible if the content type is a primitive number type and every element is non-null and
+     * has exactly that type, otherwise the operators applied to the elements could behave differently.
+     * @return The column or null, if the contents can't be stored in a column
+     */
+    public static NumberColumn of(ListVariable list) {
+        Variable.VariableType type = list.getContentType();
+        if(!Instructions.PrimitiveOperatorInstruction.isPrimitiveType(type)) {
+            return null;
+        }
+        Object primitive = list.copyPrimitiveContents();
+        if(primitive instanceof int[] ints && type == IntVariable.IntVariableType.INSTANCE) {
+            return ofInts(ints);
+        }
+        if(primitive instanceof long[] longs && type == LongVariable.LongVariableType.INSTANCE) {
+            return ofLongs(longs);
+        }
+        if(primitive instanceof double[] doubles && type == DoubleVariable.DoubleVariableType.INSTANCE) {
+            return ofDoubles(doubles);
+        }
+        Variable[] elements = list.getContents().toArray(Variable[]::new);
+        for(Variable element : elements) {
+            if(element == null || element.getType() != type) {
+                return null;
+            }
+        }
+        int length = elements.length;
+        if(type == IntVariable.IntVariableType.INSTANCE) {
+            int[] values = new int[length];
+            for(int i = 0; i < length; ++i) {
+                values[i] = elements[i].intValue();
+            }
+            return ofInts(values);
+        }
+        if(type == LongVariable.LongVariableType.INSTANCE) {
+            long[] values = new long[length];
+            for(int i = 0; i < length; ++i) {
+                values[i] = elements[i].longValue();
+            }
+            return ofLongs(values);
+        }
+        if(type == FloatVariable.FloatVariableType.INSTANCE) {
+            float[] values = new float[length];
+            for(int i = 0; i < length; ++i) {
+                values[i] = elements[i].floatValue();
+            }
+            return ofFloats(values);
+        }
+        double[] values = new double[length];
+        for(int i = 0; i < length; ++i) {
+            values[i] = elements[i].doubleValue();
+        }
+        return ofDoubles(values);
+    }
+
+    /**
+     * Creates a column repeating a single variable, so it can be combined with another column like a stream is combined with a single variable
+     * @return The column or null, if the variable is null or doesn't have a primitive number type
+     */
+    public static NumberColumn broadcast(Variable var, int length) {
+        if(var == null) {
+            return null;
+        }
+        Variable.VariableType type = var.getType();
+        if(type == IntVariable.IntVariableType.INSTANCE) {
+            int[] values = new int[length];
+            Arrays.fill(values, var.intValue());
+            return ofInts(values);
+        }
+        if(type == LongVariable.LongVariableType.INSTANCE) {
+            long[] values = new long[length];
+            Arrays.fill(values, var.longValue());
+            return ofLongs(values);
+        }
+        if(type == FloatVariable.FloatVariableType.INSTANCE) {
+            float[] values = new float[length];
+            Arrays.fill(values, var.floatValue());
+            return ofFloats(values);
+        }
+        if(type == DoubleVariable.DoubleVariableType.INSTANCE) {
+            double[] values = new double[length];
+            Arrays.fill(values, var.doubleValue());
+            return ofDoubles(values);
+        }
+        return null;
+    }
+
+    public Variable.VariableType getType() {
+        return type;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /*
+     * The getters convert the values like the variables of the column type would
+     */
+
+    public int getInt(int index) {
+        if(ints != null) return ints[index];
+        if(longs != null) return (int)longs[index];
+        if(floats != null) return (int)floats[index];
+        return (int)doubles[index];
+    }
+
+    public long getLong(int index) {
+        if(ints != null) return ints[index];
+        if(longs != null) return longs[index];
+        if(floats != null) return (long)floats[index];
+        return (long)doubles[index];
+    }
+
+    public float getFloat(int index) {
+        if(ints != null) return ints[index];
+        if(longs != null) return longs[index];
+        if(floats != null) return floats[index];
+        return (float)doubles[index];
+    }
+
+    public double getDouble(int index) {
+        if(ints != null) return ints[index];
+        if(longs != null) return longs[index];
+        if(floats != null) return floats[index];
+        return doubles[index];
+    }
+
+    public Variable get(int index) {
+        if(ints != null) return new IntVariable(ints[index]);
+        if(longs != null) return new LongVariable(longs[index]);
+        if(floats != null) return new FloatVariable(floats[index]);
+        return new DoubleVariable(doubles[index]);
+    }
+
+    /**
+     * @return A stream creating the variables of the column when they are consumed
+     */
+    public Stream<Variable> stream() {
+        return IntStream.range(0, length).mapToObj(this::get);
+    }
+
+    /*
+     * The array getters return the backing array if the column already has the requested type. The arrays must not be modified
+     */
+
+    private int[] toInts() {
+        if(ints != null) return ints;
+        int[] values = new int[length];
+        for(int i = 0; i < length; ++i) {
+            values[i] = getInt(i);
+        }
+        return values;
+    }
+
+    private long[] toLongs() {
+        if(longs != null) return longs;
+        long[] values = new long[length];
+        for(int i = 0; i < length; ++i) {
+            values[i] = getLong(i);
+        }
+        return values;
+    }
+
+    private float[] toFloats() {
+        if(floats != null) return floats;
+        float[] values = new float[length];
+        for(int i = 0; i < length; ++i) {
+            values[i] = getFloat(i);
+        }
+        return values;
+    }
+
+    private double[] toDoubles() {
+        if(doubles != null) return doubles;
+        double[] values = new double[length];
+        for(int i = 0; i < length; ++i) {
+            values[i] = getDouble(i);
+        }
+        return values;
+    }
+
+    /**
+     * Applies a primitive operation to the pairs of elements of this column and the other column. Like pairs of streams,
+     * the result is as long as the shorter column.
+     * @param operation The operation to apply
+     * @param type The operation type, which both columns are converted to. It has to be supported by the operation
+     * @param other The column containing the right operands
+     * @param parallel Whether the operation may be calculated in parallel (see {@link #PARALLEL_THRESHOLD})
+     * @return The column containing the results, which has the operation type
+     */
+    public NumberColumn apply(Instructions.PrimitiveOperation operation, Variable.VariableType type, NumberColumn other, boolean parallel) {
+        int length = Math.min(this.length, other.length);
+        parallel &= length >= PARALLEL_THRESHOLD;
+        if(type == IntVariable.IntVariableType.INSTANCE) {
+            IntBinaryOperator op = operation.intOp;
+            int[] left = toInts(), right = other.toInts(), result = new int[length];
+            if(parallel) {
+                Arrays.parallelSetAll(result, i -> op.applyAsInt(left[i], right[i]));
+            } else {
+                for(int i = 0; i < length; ++i) {
+                    result[i] = op.applyAsInt(left[i], right[i]);
+                }
+            }
+            return ofInts(result);
+        }
+        if(type == LongVariable.LongVariableType.INSTANCE) {
+            LongBinaryOperator op = operation.longOp;
+            long[] left = toLongs(), right = other.toLongs(), result = new long[length];
+            if(parallel) {
+                Arrays.parallelSetAll(result, i -> op.applyAsLong(left[i], right[i]));
+            } else {
+                for(int i = 0; i < length; ++i) {
+                    result[i] = op.applyAsLong(left[i], right[i]);
+                }
+            }
+            return ofLongs(result);
+        }
+        if(type == FloatVariable.FloatVariableType.INSTANCE) {
+            FloatBinaryOperator op = operation.floatOp;
+            float[] left = toFloats(), right = other.toFloats(), result = new float[length];
+            if(parallel) {
+                // There is no parallelSetAll for float arrays
+                IntStream.range(0, length).parallel().forEach(i -> result[i] = op.apply(left[i], right[i]));
+            } else {
+                for(int i = 0; i < length; ++i) {
+                    result[i] = op.apply(left[i], right[i]);
+                }
+            }
+            return ofFloats(result);
+        }
+        DoubleBinaryOperator op = operation.doubleOp;
+        double[] left = toDoubles(), right = other.toDoubles(), result = new double[length];
+        if(parallel) {
+            Arrays.parallelSetAll(result, i -> op.applyAsDouble(left[i], right[i]));
+        } else {
+            for(int i = 0; i < length; ++i) {
+                result[i] = op.applyAsDouble(left[i], right[i]);
+            }
+        }
+        return ofDoubles(result);
+    }
+
+    /**
+     * Applies the operator to the double value of every element like {@link Instructions.DoubleUnaryInstruction} does
+     * @param parallel Whether the operator may be applied in parallel (see {@link #PARALLEL_THRESHOLD}), which requires it to be pure
+     * @return The double column containing the results
+     */
+    public NumberColumn mapToDouble(DoubleUnaryOperator operator, boolean parallel) {
+        double[] values = toDoubles(), result = new double[length];
+        if(parallel && length >= PARALLEL_THRESHOLD) {
+            Arrays.parallelSetAll(result, i -> operator.applyAsDouble(values[i]));
+        } else {
+            for(int i = 0; i < length; ++i) {
+                result[i] = operator.applyAsDouble(values[i]);
+            }
+        }
+        return ofDoubles(result);
+    }
+}
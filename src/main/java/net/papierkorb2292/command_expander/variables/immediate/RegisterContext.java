@@ -0,0 +1,209 @@
+package net.papierkorb2292.command_expander.variables.immediate;
+
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.datafixers.util.Either;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
+import net.papierkorb2292.command_expander.CommandExpander;
+import net.papierkorb2292.command_expander.variables.Variable;
+import net.papierkorb2292.command_expander.variables.VariableHolder;
+import net.papierkorb2292.command_expander.variables.VariableManager;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * <p>The registers used when evaluating an {@link InstructionListImmediateValue}.</p>
+ * <p>
+ *     Every stack entry of the instruction list is assigned a fixed register when the immediate value is created, so instructions
+ *     read their operands from and write their results to registers instead of pushing and popping a {@link Deque}.<br/>
+ *     A register either contains a single variable, which doesn't have to be wrapped in an {@link Either}, or a stream of variables.
+ *     Streams of primitive numbers can also be stored as a {@link NumberColumn}, which instructions supporting columns use directly.
+ *     For all other instructions, the column is converted to a stream when it is read.
+ * </p>
+ * Instructions without a register implementation use {@link #getBridgeContext()} to run their stack implementation on the registers.
+ */
+public final class RegisterContext {
+
+    private final Variable[] variables;
+    private final Stream<Variable>[] streams;
+    private final NumberColumn[] columns;
+    private final Variable[] temporaryVariables;
+    private final List<Variable>[] temporaryElements;
+    private final CommandContext<ServerCommandSource> commandContext;
+    private Consumer<Text> errorConsumer;
+    private VariableManager variableManager;
+    private Boolean parallelEvaluation;
+    private Instruction.CalculationContext bridgeContext;
+
+    public RegisterContext(int registerCount, CommandContext<ServerCommandSource> commandContext) {
+        this(registerCount, 0, commandContext);
+    }
+
+    /**
+     * @param temporaryCount The amount of temporary slots, which keep values computed once for multiple uses (see {@link ImmediateValueOptimizer#eliminateCommonSubexpressions})
+     */
+    @SuppressWarnings("unchecked")
+    public RegisterContext(int registerCount, int temporaryCount, CommandContext<ServerCommandSource> commandContext) {
+        this.variables = new Variable[registerCount];
+        this.streams = (Stream<Variable>[]) new Stream[registerCount];
+        this.columns = new NumberColumn[registerCount];
+        this.temporaryVariables = new Variable[temporaryCount];
+        this.temporaryElements = (List<Variable>[]) new List[temporaryCount];
+        this.commandContext = commandContext;
+    }
+
+    /**
+     * @param variableManager The variable manager used instead of the one of the server or null, if the one of the server should be used
+     * @param errorConsumer The error consumer used instead of sending errors to the command source or null, if they should be sent to the command source
+     */
+    public RegisterContext(int registerCount, int temporaryCount, CommandContext<ServerCommandSource> commandContext, @Nullable VariableManager variableManager, @Nullable Consumer<Text> errorConsumer) {
+        this(registerCount, temporaryCount, commandContext);
+        this.variableManager = variableManager;
+        this.errorConsumer = errorConsumer;
+    }
+
+    public CommandContext<ServerCommandSource> commandContext() {
+        return commandContext;
+    }
+
+    /**
+     * @return The error consumer for exceptions that can't be thrown. It is only created when an error actually occurs
+     * @see Instruction.CalculationContext#errorConsumer
+     */
+    public Consumer<Text> errorConsumer() {
+        if(errorConsumer == null) {
+            errorConsumer = ImmediateValue.getCaughtErrorConsumer(commandContext);
+        }
+        return errorConsumer;
+    }
+
+    public VariableManager getVariableManager() {
+        if(variableManager == null) {
+            variableManager = CommandExpander.getVariableManager(commandContext);
+        }
+        return variableManager;
+    }
+
+    /**
+     * @return Whether operations on large columns may be calculated in parallel. The gamerule is only checked once per evaluation
+     * @see NumberColumn#PARALLEL_THRESHOLD
+     */
+    public boolean isParallelEvaluationEnabled() {
+        if(parallelEvaluation == null) {
+            MinecraftServer server = commandContext.getSource().getServer();
+            parallelEvaluation = server != null && CommandExpander.isFeatureEnabled(server, CommandExpander.PARALLEL_EVALUATION_FEATURE);
+        }
+        return parallelEvaluation;
+    }
+
+    /**
+     * @return Whether the register contains a stream or a column
+     */
+    public boolean isStream(int register) {
+        return streams[register] != null || columns[register] != null;
+    }
+
+    /**
+     * @return The single variable in the register. Only valid if {@link #isStream} returned false for the register
+     */
+    public Variable getVariable(int register) {
+        return variables[register];
+    }
+
+    /**
+     * @return The stream in the register or null, if the register contains a single variable. A column in the register is converted to a stream
+     */
+    public Stream<Variable> getStream(int register) {
+        NumberColumn column = columns[register];
+        if(column != null) {
+            streams[register] = column.stream();
+            columns[register] = null;
+        }
+        return streams[register];
+    }
+
+    /**
+     * @return The column in the register or null, if the register contains a single variable or a stream that isn't stored as a column
+     */
+    public NumberColumn getColumn(int register) {
+        return columns[register];
+    }
+
+    public void setVariable(int register, Variable value) {
+        variables[register] = value;
+        streams[register] = null;
+        columns[register] = null;
+    }
+
+    public void setStream(int register, Stream<Variable> value) {
+        streams[register] = value;
+        variables[register] = null;
+        columns[register] = null;
+    }
+
+    public void setColumn(int register, NumberColumn value) {
+        columns[register] = value;
+        variables[register] = null;
+        streams[register] = null;
+    }
+
+    /**
+     * Wraps the content of the register in an {@link Either} like it would be on the stack of a {@link Instruction.CalculationContext}
+     */
+    public Either<VariableHolder, Stream<Variable>> get(int register) {
+        Stream<Variable> stream = getStream(register);
+        return stream != null ? Either.right(stream) : Either.left(new VariableHolder(variables[register]));
+    }
+
+    public void set(int register, Either<VariableHolder, Stream<Variable>> value) {
+        Optional<VariableHolder> left = value.left();
+        if(left.isPresent()) {
+            setVariable(register, left.get().variable);
+            return;
+        }
+        setStream(register, value.right().orElseThrow(() -> new IllegalStateException("Invalid Either put into register. Neither left nor right were present")));
+    }
+
+    /**
+     * Temporary slots either contain a single variable or the elements of a stream, because a stream can only be used once
+     * @return The elements in the temporary slot or null, if the slot contains a single variable
+     */
+    public List<Variable> getTemporaryElements(int slot) {
+        return temporaryElements[slot];
+    }
+
+    /**
+     * @return The single variable in the temporary slot. Only valid if {@link #getTemporaryElements} returned null for the slot
+     */
+    public Variable getTemporaryVariable(int slot) {
+        return temporaryVariables[slot];
+    }
+
+    public void setTemporary(int slot, Variable value) {
+        temporaryVariables[slot] = value;
+        temporaryElements[slot] = null;
+    }
+
+    public void setTemporary(int slot, List<Variable> elements) {
+        temporaryElements[slot] = elements;
+        temporaryVariables[slot] = null;
+    }
+
+    /**
+     * @return A calculation context with an empty stack for running the stack implementation of an instruction. The instance is reused for every instruction of this evaluation
+     * @see Instruction#apply(RegisterContext, int)
+     */
+    public Instruction.CalculationContext getBridgeContext() {
+        if(bridgeContext == null) {
+            bridgeContext = new Instruction.CalculationContext(new ArrayDeque<>(), commandContext, text -> errorConsumer().accept(text));
+        }
+        return bridgeContext;
+    }
+}
@@ -63,6 +63,9 @@ public class VariableLootNumberProvider implements LootNumberProvider {
         ServerCommandSource source = new ServerCommandSource(CommandOutput.DUMMY, context.get(LootContextParameters.ORIGIN), Vec2f.ZERO, context.getWorld(), 4, target == null ? null : target.getEntityName(), target == null ? null : target.getDisplayName(), context.getWorld().getServer(), target);
         CommandContext<ServerCommandSource> cc = new CommandContext<>(source, null, null, null, null, null, null, null, null, false);
         try {
+            if(value.isScalar()) {
+                return value.calculateFloat(cc, 0);
+            }
             return value.calculate(cc).map(
                     holder -> holder.variable.floatValue(),
                     stream -> (float)reducer.reduce(stream.mapToDouble(Variable::doubleValue), context.getRandom())
@@ -58,6 +58,7 @@ public class VariablePath {
             if (value.left().isPresent()) {
                 varBase.castAndSet(value.left().get().variable);
                 manager.updateVariableBindingReferences(this, cc);
+                manager.recordChange(base);
                 return 1;
             }
             throw MULTIPLE_VALUES_TO_SINGLE_VARIABLE_EXCEPTION.create();
@@ -73,6 +74,7 @@ public class VariablePath {
         }
         int result = accessors[lastGetter].setChildren(current, value, cc);
         manager.updateVariableBindingReferences(this, cc);
+        manager.recordChange(base);
         return result;
     }
 
@@ -98,6 +100,7 @@ public class VariablePath {
         }
         int result = accessors[lastGetter].removeChildren(current, cc);
         manager.removeVariableBindingReferences(this, cc);
+        manager.recordChange(base);
         return result;
     }
 